@@ -0,0 +1,92 @@
+package org.hildan.utils.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A thread-safe pool of {@link ByteBuffer}s of the same size, to avoid allocating a new buffer for
+ * each I/O operation. This is especially useful for direct buffers, which are expensive to allocate
+ * and release.
+ * <p>
+ * Buffers are allocated on demand when the pool is empty, and at most a fixed number of them are
+ * kept when released, the others being left to the garbage collector.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * Creates a new {@code BufferPool}.
+     *
+     * @param bufferSize
+     *            the capacity of the buffers of this pool, in bytes
+     * @param direct
+     *            whether to allocate direct buffers instead of heap buffers
+     * @param maxPooledBuffers
+     *            the maximum number of released buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, boolean direct, int maxPooledBuffers) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("the buffer size must be positive");
+        }
+        if (maxPooledBuffers <= 0) {
+            throw new IllegalArgumentException("the maximum number of pooled buffers must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    /**
+     * Returns the capacity of the buffers of this pool.
+     *
+     * @return the capacity of the buffers, in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns whether this pool provides direct buffers.
+     *
+     * @return {@code true} for direct buffers, {@code false} for heap buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Takes a buffer from this pool, or allocates a new one if the pool is empty. The buffer should
+     * be given back using {@link #release(ByteBuffer)} once it is not used anymore.
+     *
+     * @return a cleared buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Gives back the specified buffer to this pool. The buffer must not be used by the caller
+     * anymore.
+     *
+     * @param buffer
+     *            a buffer obtained from {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            throw new IllegalArgumentException("the buffer does not come from this pool");
+        }
+        buffer.clear();
+        // if the pool is full, the buffer is simply dropped
+        buffers.offer(buffer);
+    }
+}
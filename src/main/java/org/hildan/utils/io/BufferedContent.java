@@ -0,0 +1,290 @@
+package org.hildan.utils.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The content of a stream that has been read entirely, either kept in memory or spilled to a
+ * temporary file, as returned by {@link Streams#buffer(InputStream, long)}. The content can be read
+ * as many times as needed. A spilled content is memory-mapped, so that it does not use heap
+ * memory.
+ * <p>
+ * This object should be closed once the content is not needed anymore, in order to delete the
+ * temporary file, if any. The streams and views obtained from it must not be used afterwards.
+ */
+public class BufferedContent implements Closeable {
+
+    /**
+     * The size of the segments of a mapped file. A single buffer cannot map more than
+     * {@link Integer#MAX_VALUE} bytes.
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private final ByteBuffer[] segments;
+
+    private final long size;
+
+    private final Path file;
+
+    private BufferedContent(ByteBuffer[] segments, long size, Path file) {
+        this.segments = segments;
+        this.size = size;
+        this.file = file;
+    }
+
+    /**
+     * Creates a {@code BufferedContent} holding the specified bytes in memory.
+     *
+     * @param bytes
+     *            the array containing the content
+     * @param length
+     *            the length of the content in the array
+     * @return the new {@code BufferedContent}
+     */
+    static BufferedContent inMemory(byte[] bytes, int length) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).slice().asReadOnlyBuffer();
+        return new BufferedContent(new ByteBuffer[] {buffer}, length, null);
+    }
+
+    /**
+     * Creates a {@code BufferedContent} mapping the specified temporary file. The file is deleted
+     * when the returned object is closed.
+     *
+     * @param file
+     *            the temporary file holding the content
+     * @return the new {@code BufferedContent}
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    static BufferedContent mapped(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int nSegments = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            final ByteBuffer[] segments = new ByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                final long position = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+            // the mappings remain valid after the channel is closed
+            return new BufferedContent(segments, size, file);
+        }
+    }
+
+    /**
+     * Returns the size of the content.
+     *
+     * @return the number of bytes of the content
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the content is held in heap memory.
+     *
+     * @return {@code true} if the content is in memory, {@code false} if it has been spilled to a
+     *         temporary file
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Returns a new {@link InputStream} reading the content from the beginning. Each stream is
+     * independent from the others, and closing it has no effect on this object.
+     *
+     * @return a new stream over the content
+     */
+    public InputStream openStream() {
+        return new SegmentsInputStream();
+    }
+
+    /**
+     * Returns a read-only {@link ByteBuffer} over the content, without copying it.
+     *
+     * @return a new read-only buffer over the content
+     * @throws IllegalStateException
+     *             if the content is too large to fit in a single buffer
+     */
+    public ByteBuffer asByteBuffer() {
+        if (segments.length > 1) {
+            throw new IllegalStateException("the content is too large to fit in a single buffer");
+        }
+        return segments[0].duplicate();
+    }
+
+    /**
+     * Returns a {@link CharSequence} view over the content, where each byte is interpreted as a
+     * single ISO-8859-1 character, without copying or decoding it. This is suitable for searching
+     * ASCII patterns in the content (for instance with regular expressions), whatever the actual
+     * ASCII-compatible encoding of the content.
+     *
+     * @return a view over the content, one character per byte
+     * @throws IllegalStateException
+     *             if the content has more than {@link Integer#MAX_VALUE} bytes
+     */
+    public CharSequence asCharSequence() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("the content is too large to be viewed as a CharSequence");
+        }
+        return new Latin1Sequence(0, (int) size);
+    }
+
+    /**
+     * Decodes the whole content into a {@code String}. This brings the content into heap memory.
+     *
+     * @param charset
+     *            the charset to use to decode the content
+     * @return the decoded content
+     */
+    public String toString(Charset charset) {
+        if (segments.length > 1) {
+            throw new IllegalStateException("the content is too large to fit in a String");
+        }
+        return charset.decode(segments[0].duplicate()).toString();
+    }
+
+    /**
+     * Deletes the temporary file holding the content, if any.
+     *
+     * @throws IOException
+     *             if the file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (final IOException e) {
+                // some platforms cannot delete mapped files, try again when the VM exits
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Returns the byte at the specified index in the content.
+     *
+     * @param index
+     *            the index of the byte
+     * @return the byte at the specified index
+     */
+    private byte get(long index) {
+        return segments[(int) (index / SEGMENT_SIZE)].get((int) (index % SEGMENT_SIZE));
+    }
+
+    /**
+     * A {@link CharSequence} over a range of the content, mapping each byte to a single char.
+     */
+    private class Latin1Sequence implements CharSequence {
+
+        private final int start;
+
+        private final int end;
+
+        Latin1Sequence(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index " + index + " out of range [0, " + length() + ")");
+            }
+            return (char) (get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to) {
+                throw new IndexOutOfBoundsException("invalid range [" + from + ", " + to + ")");
+            }
+            return new Latin1Sequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            final char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (get(start + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * An {@link InputStream} reading the segments in sequence.
+     */
+    private class SegmentsInputStream extends InputStream {
+
+        private int segmentIndex = 0;
+
+        private ByteBuffer current = segments[0].duplicate();
+
+        /**
+         * Moves to the next segment if the current one has been read entirely.
+         *
+         * @return {@code false} if the end of the content is reached
+         */
+        private boolean ensureRemaining() {
+            while (!current.hasRemaining()) {
+                if (segmentIndex + 1 >= segments.length) {
+                    return false;
+                }
+                current = segments[++segmentIndex].duplicate();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!ensureRemaining()) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            while (skipped < n && ensureRemaining()) {
+                final int step = (int) Math.min(n - skipped, current.remaining());
+                current.position(current.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return current.remaining();
+        }
+    }
+}
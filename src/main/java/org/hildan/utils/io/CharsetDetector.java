@@ -0,0 +1,158 @@
+package org.hildan.utils.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A fast heuristic detector of the charset of some text without BOM, looking at its first bytes.
+ * It recognizes:
+ * <ul>
+ * <li>UTF-16 without BOM, by the distribution of null bytes at even and odd positions, which is
+ * typical of mostly-Latin text</li>
+ * <li>UTF-8, when the bytes contain at least one multi-byte sequence and are entirely valid
+ * UTF-8</li>
+ * </ul>
+ * Pure ASCII or undetermined content is reported as the fallback charset. Only the given bytes are
+ * analyzed, so the result depends on how many of them the caller provides: a few hundred bytes
+ * are usually enough for UTF-16, while UTF-8 is only recognized from its first non-ASCII char.
+ * <p>
+ * The detection runs in a single pass over the given bytes, without copying them. ASCII runs are
+ * skipped 8 bytes at a time.
+ */
+public class CharsetDetector {
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    /**
+     * The minimum ratio of null bytes at even (or odd) positions to consider the text as UTF-16.
+     */
+    private static final double UTF16_MIN_NULL_RATIO = 0.3;
+
+    /**
+     * The maximum ratio of null bytes at the other positions to consider the text as UTF-16.
+     */
+    private static final double UTF16_MAX_OTHER_NULL_RATIO = 0.05;
+
+    /**
+     * Detects the charset of the specified bytes, which are usually the first bytes of a file.
+     *
+     * @param bytes
+     *            the bytes to analyze, between their position and limit. The buffer is not
+     *            modified.
+     * @param fallback
+     *            the charset to return if the content is pure ASCII, or if no charset can be
+     *            recognized
+     * @return the detected charset, or {@code fallback}
+     */
+    public static Charset detect(ByteBuffer bytes, Charset fallback) {
+        final ByteBuffer buffer = bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final int start = buffer.position();
+        final int end = buffer.limit();
+        int evenNulls = 0;
+        int oddNulls = 0;
+        boolean nonAscii = false;
+        boolean validUtf8 = true;
+        int i = start;
+        while (i < end) {
+            if (i + Long.BYTES <= end) {
+                final long word = buffer.getLong(i);
+                if ((word & HIGH_BITS) == 0 && ((word - LOW_BITS) & ~word & HIGH_BITS) == 0) {
+                    // 8 ASCII bytes without null byte
+                    i += Long.BYTES;
+                    continue;
+                }
+            }
+            final int b = buffer.get(i) & 0xFF;
+            if (b == 0) {
+                if ((i - start) % 2 == 0) {
+                    evenNulls++;
+                } else {
+                    oddNulls++;
+                }
+                i++;
+            } else if (b < 0x80) {
+                i++;
+            } else {
+                nonAscii = true;
+                if (validUtf8) {
+                    final int length = utf8SequenceLength(buffer, i, end);
+                    if (length < 0) {
+                        validUtf8 = false;
+                        i++;
+                    } else {
+                        i += length;
+                    }
+                } else {
+                    i++;
+                }
+            }
+        }
+        final int pairs = (end - start) / 2;
+        if (pairs > 0) {
+            if (evenNulls >= UTF16_MIN_NULL_RATIO * pairs && oddNulls <= UTF16_MAX_OTHER_NULL_RATIO * pairs) {
+                return StandardCharsets.UTF_16BE;
+            }
+            if (oddNulls >= UTF16_MIN_NULL_RATIO * pairs && evenNulls <= UTF16_MAX_OTHER_NULL_RATIO * pairs) {
+                return StandardCharsets.UTF_16LE;
+            }
+        }
+        if (nonAscii && validUtf8) {
+            return StandardCharsets.UTF_8;
+        }
+        return fallback;
+    }
+
+    /**
+     * Returns the length of the UTF-8 sequence starting at the specified index, if it is valid. A
+     * sequence truncated by the end of the bytes is considered valid, since the rest of it may
+     * follow.
+     *
+     * @param buffer
+     *            the bytes to analyze
+     * @param index
+     *            the index of the leading byte of the sequence, which is not ASCII
+     * @param end
+     *            the index following the last byte to analyze
+     * @return the length of the sequence, or -1 if it is not valid UTF-8
+     */
+    private static int utf8SequenceLength(ByteBuffer buffer, int index, int end) {
+        final int lead = buffer.get(index) & 0xFF;
+        final int length;
+        // the valid range of the second byte excludes overlong encodings and surrogates
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) {
+                min = 0xA0;
+            } else if (lead == 0xED) {
+                max = 0x9F;
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                min = 0x90;
+            } else if (lead == 0xF4) {
+                max = 0x8F;
+            }
+        } else {
+            return -1;
+        }
+        for (int j = 1; j < length; j++) {
+            if (index + j >= end) {
+                return end - index;
+            }
+            final int b = buffer.get(index + j) & 0xFF;
+            if (j == 1 ? b < min || b > max : b < 0x80 || b > 0xBF) {
+                return -1;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,123 @@
+package org.hildan.utils.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class providing helpful methods to split files into chunks ending on record boundaries, so that
+ * each chunk can be processed independently.
+ */
+public class FileChunks {
+
+    /**
+     * The size of the window read at once when looking for a boundary, in bytes.
+     */
+    private static final int SCAN_WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Returns whether the specified charset encodes each ASCII char as the same single byte, and
+     * never uses these bytes in the encoding of other chars. Only then can an encoded ASCII
+     * delimiter be searched in the raw bytes of a file.
+     *
+     * @param charset
+     *            the charset to check
+     * @return {@code true} for charsets such as UTF-8, ISO-8859-1 or US-ASCII, {@code false} for
+     *         charsets such as UTF-16, EBCDIC or Shift_JIS
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        final char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        final byte[] encoded = new String(ascii).getBytes(charset);
+        if (encoded.length != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != i) {
+                return false;
+            }
+        }
+        // all the bytes of multi-byte UTF-8 sequences are above 0x7F, unlike in Shift_JIS or GB18030
+        return charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    /**
+     * Returns the position right after the first occurrence of {@code delimiter} found at or after
+     * {@code position} in the specified file. Only positional reads are used, so that the position
+     * of the channel is left untouched, and several threads may look for boundaries concurrently.
+     *
+     * @param channel
+     *            the file to search
+     * @param position
+     *            the position to start searching from
+     * @param delimiter
+     *            the encoded bytes of the delimiter marking the end of a record
+     * @return the position of the first byte following the delimiter, or the size of the file if
+     *         no delimiter is found after {@code position}
+     * @throws IOException
+     *             if an I/O error occurs while reading the file
+     */
+    public static long nextBoundary(FileChannel channel, long position, byte[] delimiter) throws IOException {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("the delimiter must not be empty");
+        }
+        final long size = channel.size();
+        final ByteBuffer window = ByteBuffer.allocate(Math.max(SCAN_WINDOW_SIZE, 2 * delimiter.length));
+        long windowStart = position;
+        while (windowStart < size) {
+            window.clear();
+            while (window.hasRemaining()) {
+                if (channel.read(window, windowStart + window.position()) < 0) {
+                    break;
+                }
+            }
+            final int windowLength = window.position();
+            final int index = indexOf(window.array(), windowLength, delimiter);
+            if (index >= 0) {
+                return windowStart + index + delimiter.length;
+            }
+            if (windowStart + windowLength >= size) {
+                break;
+            }
+            // overlap the windows so that a delimiter spanning both is not missed
+            windowStart += windowLength - delimiter.length + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the index of the first occurrence of {@code pattern} in the first {@code length}
+     * bytes of {@code bytes}.
+     *
+     * @param bytes
+     *            the bytes to search
+     * @param length
+     *            the number of bytes to consider
+     * @param pattern
+     *            the bytes to look for
+     * @return the index of the first occurrence, or -1 if there is none
+     */
+    private static int indexOf(byte[] bytes, int length, byte[] pattern) {
+        final byte first = pattern[0];
+        final int max = length - pattern.length;
+        outer: for (int i = 0; i <= max; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
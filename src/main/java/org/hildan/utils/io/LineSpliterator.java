@@ -0,0 +1,197 @@
+package org.hildan.utils.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the lines of a range of a file encoded with an ASCII-compatible
+ * charset. The range can be split in two at a line feed, so that the lines of a large file can be
+ * processed in parallel. The bytes are read with positional reads, so that several spliterators
+ * can share the same {@link FileChannel}.
+ * <p>
+ * Lines are terminated by a line feed, a carriage return, or a carriage return followed by a line
+ * feed, as in {@link java.io.BufferedReader#readLine()}.
+ */
+class LineSpliterator implements Spliterator<String> {
+
+    private static final byte LF = '\n';
+
+    private static final byte CR = '\r';
+
+    private static final byte[] LF_DELIMITER = {LF};
+
+    /**
+     * The size of the blocks read from the file, in bytes.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The minimum size of a range to split, in bytes.
+     */
+    private static final long MIN_SPLIT_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private long start;
+
+    private final long end;
+
+    /**
+     * The block of bytes being scanned, in read mode, or {@code null} before the traversal starts.
+     */
+    private ByteBuffer block;
+
+    /**
+     * The position in the file of the next byte to read into the block.
+     */
+    private long nextReadPosition;
+
+    /**
+     * Whether a line feed must be skipped because the previous line ended with a carriage return.
+     */
+    private boolean skipLf;
+
+    /**
+     * Creates a new {@code LineSpliterator} over the specified range of a file. The range must
+     * start at the beginning of a line.
+     *
+     * @param channel
+     *            the file to read
+     * @param charset
+     *            the charset of the file, which must be ASCII-compatible
+     * @param start
+     *            the position of the first byte of the range
+     * @param end
+     *            the position following the last byte of the range
+     */
+    LineSpliterator(FileChannel channel, Charset charset, long start, long end) {
+        this.channel = channel;
+        this.charset = charset;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        try {
+            final String line = nextLine();
+            if (line == null) {
+                return false;
+            }
+            action.accept(line);
+            return true;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        if (block != null || end - start < MIN_SPLIT_SIZE) {
+            return null;
+        }
+        try {
+            final long boundary = FileChunks.nextBoundary(channel, start + (end - start) / 2, LF_DELIMITER);
+            if (boundary >= end) {
+                return null;
+            }
+            final LineSpliterator prefix = new LineSpliterator(channel, charset, start, boundary);
+            start = boundary;
+            return prefix;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        // only relative sizes matter to decide how to split, bytes are good enough
+        return end - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Returns the next line of the range.
+     *
+     * @return the next line, without its terminator, or {@code null} if the end of the range is
+     *         reached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private String nextLine() throws IOException {
+        if (block == null) {
+            block = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, Math.max(end - start, 1)));
+            block.flip();
+            nextReadPosition = start;
+        }
+        while (true) {
+            if (skipLf && block.hasRemaining()) {
+                if (block.get(block.position()) == LF) {
+                    block.position(block.position() + 1);
+                }
+                skipLf = false;
+            }
+            final byte[] bytes = block.array();
+            final int lineStart = block.position();
+            for (int i = lineStart; i < block.limit(); i++) {
+                final byte b = bytes[i];
+                if (b == LF || b == CR) {
+                    block.position(i + 1);
+                    skipLf = b == CR;
+                    return new String(bytes, lineStart, i - lineStart, charset);
+                }
+            }
+            if (!readMore()) {
+                if (!block.hasRemaining()) {
+                    return null;
+                }
+                // last line without terminator
+                final String line = new String(bytes, block.position(), block.remaining(), charset);
+                block.position(block.limit());
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Reads more bytes into the block, keeping the unterminated line at its beginning.
+     *
+     * @return {@code false} if the end of the range is reached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private boolean readMore() throws IOException {
+        if (nextReadPosition >= end) {
+            return false;
+        }
+        block.compact();
+        if (!block.hasRemaining()) {
+            // the line is longer than the block
+            final ByteBuffer larger = ByteBuffer.allocate(block.capacity() * 2);
+            block.flip();
+            larger.put(block);
+            block = larger;
+        }
+        final int maxRead = (int) Math.min(block.remaining(), end - nextReadPosition);
+        block.limit(block.position() + maxRead);
+        final int numRead = channel.read(block, nextReadPosition);
+        block.flip();
+        if (numRead <= 0) {
+            // the file was truncated
+            return false;
+        }
+        nextReadPosition += numRead;
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package org.hildan.utils.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a stream contains more data than the maximum size allowed by the caller.
+ */
+public class SizeLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    /**
+     * Creates a new {@code SizeLimitExceededException}.
+     *
+     * @param limit
+     *            the maximum number of bytes that was exceeded
+     */
+    public SizeLimitExceededException(long limit) {
+        super("the stream exceeds the maximum size of " + limit + " bytes");
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the maximum size that was exceeded.
+     *
+     * @return the maximum number of bytes that was allowed
+     */
+    public long getLimit() {
+        return limit;
+    }
+}
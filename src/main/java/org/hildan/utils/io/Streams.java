@@ -1,10 +1,37 @@
 package org.hildan.utils.io;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A class providing helpful methods to handle streams.
@@ -12,12 +39,43 @@ import java.io.UnsupportedEncodingException;
 public class Streams {
 
     /**
-     * The size of the buffer to use when reading an {@link InputStream}, in characters.
+     * The size of the buffer to use when reading an {@link InputStream} of unknown size, in bytes.
      */
     private static final int BUFFER_SIZE = 8192;
 
     /**
-     * Reads the specified {@link InputStream} to the end, and returns it as a {@code String}.
+     * The maximum size of an array. Some VMs reserve header words in arrays, and fail to allocate
+     * arrays of {@link Integer#MAX_VALUE} elements.
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * The maximum number of bytes allocated up front because of a size hint or of
+     * {@link InputStream#available()}. Larger sizes are only trusted once that many bytes have
+     * actually arrived, so that a wrong hint cannot exhaust the memory by itself.
+     */
+    private static final int MAX_HINTED_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The size of the buffers used by default for bulk copies, in bytes.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum number of bytes transferred by a single call to the transfer methods of
+     * {@link FileChannel}. Some platforms cap the size of a single kernel transfer anyway.
+     */
+    private static final long MAX_TRANSFER_SIZE = 8L * 1024 * 1024;
+
+    private static final BufferPool HEAP_POOL = new BufferPool(COPY_BUFFER_SIZE, false,
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final BufferPool DIRECT_POOL = new BufferPool(COPY_BUFFER_SIZE, true,
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns it as a {@code String}. The
+     * stream is closed afterwards.
      *
      * @param inputStream
      *            the {@code InputStream} to read
@@ -31,23 +89,915 @@ public class Streams {
      */
     public static String toString(InputStream inputStream, String charsetName) throws UnsupportedEncodingException,
     IOException {
-        final char[] buffer = new char[BUFFER_SIZE];
-        final StringBuilder sb = new StringBuilder();
-        Reader in = null;
+        return toString(inputStream, lookupCharset(charsetName));
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns it as a {@code String}. The
+     * stream is closed afterwards.
+     * <p>
+     * The bytes are read once into a buffer sized according to {@link InputStream#available()},
+     * and then decoded at once.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @return the built {@code String}, or an empty one
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static String toString(InputStream inputStream, Charset charset) throws IOException {
+        return toString(inputStream, charset, -1);
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns it as a {@code String}. The
+     * stream is closed afterwards.
+     * <p>
+     * The bytes are read once into a buffer of the specified size, and then decoded at once. If
+     * the size hint is exact and does not exceed 8 MB, no intermediate copy of the data is made.
+     * Larger hints are trusted once 8 MB have been read, at the cost of a single copy.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @param sizeHint
+     *            the expected number of bytes in the stream (for instance from a
+     *            {@code Content-Length} header), or -1 if unknown to use
+     *            {@link InputStream#available()} instead. A wrong hint only affects performance.
+     * @return the built {@code String}, or an empty one
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static String toString(InputStream inputStream, Charset charset, int sizeHint) throws IOException {
+        return toString(inputStream, charset, sizeHint, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns it as a {@code String}, unless
+     * it contains more than {@code maxBytes} bytes. The stream is closed afterwards.
+     * <p>
+     * This protects the caller from running out of memory when the stream comes from an untrusted
+     * source: reading stops as soon as the limit is exceeded, and the memory used never exceeds
+     * the limit.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @param sizeHint
+     *            the expected number of bytes in the stream, or -1 if unknown to use
+     *            {@link InputStream#available()} instead. A wrong hint only affects performance.
+     * @param maxBytes
+     *            the maximum number of bytes allowed in the stream
+     * @return the built {@code String}, or an empty one
+     * @throws SizeLimitExceededException
+     *             if the stream contains more than {@code maxBytes} bytes
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static String toString(InputStream inputStream, Charset charset, int sizeHint, long maxBytes)
+            throws IOException {
+        try {
+            final ByteArray bytes = readFully(inputStream, sizeHint, maxBytes);
+            if (bytes.length > maxBytes) {
+                throw new SizeLimitExceededException(maxBytes);
+            }
+            return new String(bytes.array, 0, bytes.length, charset);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Asynchronously reads the specified {@link InputStream} to the end, and decodes it as a
+     * {@code String}, as {@link #toString(InputStream, Charset)} does. The stream is closed
+     * afterwards.
+     * <p>
+     * The blocking reads are performed by a default executor, which starts a new virtual thread
+     * per read when the runtime supports virtual threads, so that thousands of concurrent reads do
+     * not require thousands of platform threads. On older runtimes, a cached pool of daemon
+     * threads is used instead.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @return a future completed with the content of the stream, or completed exceptionally with
+     *         the {@link IOException} that occurred while reading it
+     */
+    public static CompletableFuture<String> readAllAsync(InputStream inputStream, Charset charset) {
+        return readAllAsync(inputStream, charset, AsyncExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * Asynchronously reads the specified {@link InputStream} to the end, and decodes it as a
+     * {@code String}, as {@link #toString(InputStream, Charset)} does. The stream is closed
+     * afterwards.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @param executor
+     *            the executor performing the blocking reads
+     * @return a future completed with the content of the stream, or completed exceptionally with
+     *         the {@link IOException} that occurred while reading it
+     */
+    public static CompletableFuture<String> readAllAsync(InputStream inputStream, Charset charset,
+            Executor executor) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(toString(inputStream, charset));
+                } catch (final IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Asynchronously reads the specified file, and decodes it as a {@code String}. The file is read
+     * through an {@link AsynchronousFileChannel}, so that no thread is blocked while waiting for
+     * the reads to complete.
+     *
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset to use to decode the file
+     * @return a future completed with the content of the file, or completed exceptionally with the
+     *         {@link IOException} that occurred while reading it
+     */
+    public static CompletableFuture<String> readAllAsync(Path file, Charset charset) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+        } catch (final IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        final FileReadHandler handler = new FileReadHandler(channel, charset, result);
+        try {
+            final long size = channel.size();
+            if (size > MAX_ARRAY_SIZE) {
+                throw new OutOfMemoryError("file too large to fit in an array");
+            }
+            handler.start((int) size);
+        } catch (final IOException | RuntimeException | OutOfMemoryError e) {
+            handler.failed(e, null);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the specified {@link InputStream} line by line, and calls the specified action on each
+     * line. The stream is closed afterwards.
+     * <p>
+     * No {@code String} is created for the lines: the action receives a {@link CharSequence} view
+     * over an internal buffer, which is only valid during the call, and is reused for the next
+     * line. The action must call {@link CharSequence#toString()} to keep a line. Lines are
+     * terminated by a line feed, a carriage return, or a carriage return followed by a line feed,
+     * as in {@link java.io.BufferedReader#readLine()}. Malformed input is replaced, as in
+     * {@link java.io.InputStreamReader}.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param charset
+     *            the charset to use to decode the given stream
+     * @param action
+     *            the action to call on each line, without its terminator
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static void forEachLine(InputStream inputStream, Charset charset, Consumer<? super CharSequence> action)
+            throws IOException {
         try {
-            in = new InputStreamReader(inputStream, charsetName);
+            final CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            bytes.flip();
+            final LineView line = new LineView();
+            char[] chars = new char[BUFFER_SIZE];
+            int lineStart = 0;
+            // the index of the next char to scan, so that an unterminated line is only scanned once
+            int i = 0;
+            int length = 0;
+            boolean skipLf = false;
+            // whether the next char does not fit in the remaining space of the buffer
+            boolean full = false;
+            boolean endOfStream = false;
+            boolean eof = false;
             while (true) {
-                final int numRead = in.read(buffer, 0, buffer.length);
-                if (numRead < 0) {
-                    break;
+                if (skipLf && i < length) {
+                    if (chars[i] == '\n') {
+                        lineStart = ++i;
+                    }
+                    skipLf = false;
+                }
+                for (; i < length; i++) {
+                    final char c = chars[i];
+                    if (c == '\n' || c == '\r') {
+                        line.set(chars, lineStart, i);
+                        action.accept(line);
+                        lineStart = i + 1;
+                        if (c == '\r') {
+                            if (lineStart < length) {
+                                if (chars[lineStart] == '\n') {
+                                    i = lineStart++;
+                                }
+                            } else {
+                                skipLf = true;
+                            }
+                        }
+                    }
+                }
+                if (eof) {
+                    if (lineStart < length) {
+                        line.set(chars, lineStart, length);
+                        action.accept(line);
+                    }
+                    return;
+                }
+                if (full) {
+                    // keep the unterminated line at the beginning of the buffer, which grows if the
+                    // line fills more than half of it
+                    final int unterminated = length - lineStart;
+                    final char[] target = unterminated > chars.length / 2 ? new char[grow(chars.length)] : chars;
+                    System.arraycopy(chars, lineStart, target, 0, unterminated);
+                    chars = target;
+                    lineStart = 0;
+                    i = unterminated;
+                    length = unterminated;
+                }
+                final CharBuffer target = CharBuffer.wrap(chars, length, chars.length - length);
+                if (!endOfStream) {
+                    endOfStream = decode(inputStream, decoder, bytes, target);
+                }
+                if (endOfStream) {
+                    // an overflow is retried with more space, the decoder allows it
+                    eof = !decoder.decode(bytes, target, true).isOverflow() && !decoder.flush(target).isOverflow();
+                }
+                // a surrogate pair may not fit in the last char of the buffer
+                full = !eof && (target.position() == length || !target.hasRemaining());
+                length = target.position();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Decodes bytes from the specified stream until at least one char is decoded, the next char
+     * does not fit in the target, or the end of the stream is reached. The bytes remaining at the
+     * end of the stream are left to the caller, who must then decode them as the end of the input.
+     *
+     * @param in
+     *            the stream to read from
+     * @param decoder
+     *            the decoder to use
+     * @param bytes
+     *            the buffer of bytes read but not decoded yet, in read mode
+     * @param target
+     *            the buffer to decode into
+     * @return {@code true} if the end of the stream has been reached
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    private static boolean decode(InputStream in, CharsetDecoder decoder, ByteBuffer bytes, CharBuffer target)
+            throws IOException {
+        final int initialPosition = target.position();
+        while (true) {
+            final CoderResult result = decoder.decode(bytes, target, false);
+            if (result.isOverflow() || target.position() > initialPosition) {
+                return false;
+            }
+            // underflow, more bytes are needed
+            bytes.compact();
+            final int numRead = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            if (numRead < 0) {
+                bytes.flip();
+                return true;
+            }
+            bytes.position(bytes.position() + numRead);
+            bytes.flip();
+        }
+    }
+
+    /**
+     * Returns a {@link Stream} of the lines of the specified file. Unlike
+     * {@link java.nio.file.Files#lines(Path, Charset)}, the stream can be efficiently processed in
+     * parallel when the charset is ASCII-compatible (UTF-8, ISO-8859-1, US-ASCII...): the file is
+     * then split into chunks ending on a line feed, which are read concurrently with positional
+     * reads.
+     * <p>
+     * The returned stream holds the file open, and should therefore be closed, for instance with a
+     * try-with-resources statement. I/O errors occurring while the stream is consumed are thrown as
+     * {@link UncheckedIOException}s.
+     *
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset to use to decode the file
+     * @return a stream of the lines of the file, without their terminators
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public static Stream<String> lines(Path file, Charset charset) throws IOException {
+        if (!FileChunks.isAsciiCompatible(charset)) {
+            // line terminators cannot be found by scanning single bytes
+            return Files.lines(file, charset);
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final LineSpliterator spliterator = new LineSpliterator(channel, charset, 0, channel.size());
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                try {
+                    channel.close();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns its content. The stream is
+     * closed afterwards.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @return the bytes read, possibly an empty array
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static byte[] toByteArray(InputStream inputStream) throws IOException {
+        return toByteArray(inputStream, -1);
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns its content. The stream is
+     * closed afterwards.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param sizeHint
+     *            the expected number of bytes in the stream, or -1 if unknown to use
+     *            {@link InputStream#available()} instead. A wrong hint only affects performance.
+     * @return the bytes read, possibly an empty array
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static byte[] toByteArray(InputStream inputStream, int sizeHint) throws IOException {
+        return toByteArray(inputStream, sizeHint, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, and returns its content, unless it
+     * contains more than {@code maxBytes} bytes. The stream is closed afterwards.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param sizeHint
+     *            the expected number of bytes in the stream, or -1 if unknown to use
+     *            {@link InputStream#available()} instead. A wrong hint only affects performance.
+     * @param maxBytes
+     *            the maximum number of bytes allowed in the stream
+     * @return the bytes read, possibly an empty array
+     * @throws SizeLimitExceededException
+     *             if the stream contains more than {@code maxBytes} bytes
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    public static byte[] toByteArray(InputStream inputStream, int sizeHint, long maxBytes) throws IOException {
+        try {
+            final ByteArray bytes = readFully(inputStream, sizeHint, maxBytes);
+            if (bytes.length > maxBytes) {
+                throw new SizeLimitExceededException(maxBytes);
+            }
+            if (bytes.length == bytes.array.length) {
+                return bytes.array;
+            }
+            return Arrays.copyOf(bytes.array, bytes.length);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end, keeping its content in memory if it is
+     * small enough, or spilling it to a temporary file otherwise. The stream is closed afterwards.
+     * <p>
+     * The content is kept in memory if it has at most {@code memoryThreshold} bytes. Reading it
+     * holds at most {@code memoryThreshold + 1} bytes in heap memory: the extra byte reveals a
+     * larger content, which is then written to the temporary file, followed by the rest of the
+     * stream. A spilled content is memory-mapped, so that reading it does not use heap memory
+     * either. The returned object must be closed to delete the temporary file.
+     *
+     * @param inputStream
+     *            the {@code InputStream} to read
+     * @param memoryThreshold
+     *            the maximum size of a content kept in memory, in bytes
+     * @return the content of the stream, which can be read several times
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream or writing the temporary file
+     */
+    public static BufferedContent buffer(InputStream inputStream, long memoryThreshold) throws IOException {
+        try {
+            final long threshold = Math.min(memoryThreshold, MAX_ARRAY_SIZE - 1);
+            final ByteArray bytes = readFully(inputStream, -1, threshold);
+            if (bytes.length <= threshold) {
+                return BufferedContent.inMemory(bytes.array, bytes.length);
+            }
+            final Path file = Files.createTempFile("io-utils-", ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    out.write(bytes.array, 0, bytes.length);
+                    copy(inputStream, out);
                 }
-                sb.append(buffer, 0, numRead);
+                return BufferedContent.mapped(file);
+            } catch (final IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Copies all the bytes from the specified {@link InputStream} to the specified
+     * {@link OutputStream}, using a pooled buffer. Neither stream is closed.
+     *
+     * @param in
+     *            the stream to read from
+     * @param out
+     *            the stream to write to
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        return copy(in, out, HEAP_POOL);
+    }
+
+    /**
+     * Copies all the bytes from the specified {@link InputStream} to the specified
+     * {@link OutputStream}, using a buffer from the specified pool. Neither stream is closed.
+     *
+     * @param in
+     *            the stream to read from
+     * @param out
+     *            the stream to write to
+     * @param pool
+     *            the pool to take the buffer from, which must provide heap buffers
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long copy(InputStream in, OutputStream out, BufferPool pool) throws IOException {
+        if (pool.isDirect()) {
+            throw new IllegalArgumentException("stream copies require a pool of heap buffers");
+        }
+        final ByteBuffer buffer = pool.acquire();
+        try {
+            final byte[] bytes = buffer.array();
+            final int offset = buffer.arrayOffset();
+            final int length = buffer.capacity();
+            long count = 0;
+            int numRead;
+            while ((numRead = in.read(bytes, offset, length)) >= 0) {
+                out.write(bytes, offset, numRead);
+                count += numRead;
             }
+            return count;
         } finally {
-            if (in != null) {
-                in.close();
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Copies all the bytes from the specified {@link ReadableByteChannel} to the specified
+     * {@link WritableByteChannel}. If one of the channels is a {@link FileChannel}, the transfer is
+     * delegated to the operating system, as described in
+     * {@link #transferTo(FileChannel, WritableByteChannel)} and
+     * {@link #transferFrom(ReadableByteChannel, FileChannel)}. Otherwise, a pooled direct buffer is
+     * used. Neither channel is closed.
+     *
+     * @param source
+     *            the channel to read from, which must be in blocking mode
+     * @param target
+     *            the channel to write to, which must be in blocking mode
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long copy(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+        return copy(source, target, DIRECT_POOL);
+    }
+
+    /**
+     * Copies all the bytes from the specified {@link ReadableByteChannel} to the specified
+     * {@link WritableByteChannel}. If one of the channels is a {@link FileChannel}, the transfer is
+     * delegated to the operating system, as described in
+     * {@link #transferTo(FileChannel, WritableByteChannel)} and
+     * {@link #transferFrom(ReadableByteChannel, FileChannel)}. Otherwise, a buffer from the
+     * specified pool is used. Neither channel is closed.
+     *
+     * @param source
+     *            the channel to read from, which must be in blocking mode
+     * @param target
+     *            the channel to write to, which must be in blocking mode
+     * @param pool
+     *            the pool to take the buffer from, if a buffer is needed
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long copy(ReadableByteChannel source, WritableByteChannel target, BufferPool pool)
+            throws IOException {
+        if (source instanceof FileChannel) {
+            return transferTo((FileChannel) source, target);
+        }
+        if (target instanceof FileChannel) {
+            return transferFrom(source, (FileChannel) target);
+        }
+        final ByteBuffer buffer = pool.acquire();
+        try {
+            long count = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    count += target.write(buffer);
+                }
+                buffer.clear();
+            }
+            return count;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Copies the content of the specified file, from its current position to its end, to the
+     * specified channel. The transfer is performed by {@link FileChannel#transferTo}, which lets the
+     * operating system copy the bytes without bringing them into user space when possible (for
+     * instance to a socket or another file). The position of the source is then updated. The
+     * target is not closed.
+     *
+     * @param source
+     *            the file to read from
+     * @param target
+     *            the channel to write to, which must be in blocking mode
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long transferTo(FileChannel source, WritableByteChannel target) throws IOException {
+        final long start = source.position();
+        final long size = source.size();
+        long position = start;
+        while (position < size) {
+            final long transferred = source.transferTo(position, Math.min(size - position, MAX_TRANSFER_SIZE), target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        source.position(position);
+        return position - start;
+    }
+
+    /**
+     * Copies all the bytes from the specified channel to the specified file, starting at the
+     * current position of the file. The transfer is performed by {@link FileChannel#transferFrom},
+     * which lets the operating system copy the bytes without bringing them into user space when
+     * possible. The position of the target is then updated. The source is not closed.
+     *
+     * @param source
+     *            the channel to read from, which must be in blocking mode
+     * @param target
+     *            the file to write to
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long transferFrom(ReadableByteChannel source, FileChannel target) throws IOException {
+        final long start = target.position();
+        long position = start;
+        while (true) {
+            // a blocking source only transfers nothing at the end of the stream
+            final long transferred = target.transferFrom(source, position, MAX_TRANSFER_SIZE);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        target.position(position);
+        return position - start;
+    }
+
+    /**
+     * Copies the content of the specified file to the specified {@link OutputStream}. If the
+     * stream is a {@link FileOutputStream}, the bytes are transferred directly between the files
+     * by the operating system. The stream is not closed.
+     *
+     * @param source
+     *            the file to read
+     * @param out
+     *            the stream to write to
+     * @return the number of bytes copied
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static long copy(Path source, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (out instanceof FileOutputStream) {
+                return transferTo(channel, ((FileOutputStream) out).getChannel());
+            }
+            return transferTo(channel, Channels.newChannel(out));
+        }
+    }
+
+    /**
+     * Returns the charset of the specified name.
+     *
+     * @param charsetName
+     *            the name of the charset
+     * @return the corresponding {@link Charset}
+     * @throws UnsupportedEncodingException
+     *             if the charset cannot be found
+     */
+    private static Charset lookupCharset(String charsetName) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charsetName);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+    }
+
+    /**
+     * Reads the specified {@link InputStream} to the end into a single array, unless it contains
+     * more than {@code maxBytes} bytes, in which case reading stops after {@code maxBytes + 1}
+     * bytes.
+     *
+     * @param in
+     *            the {@code InputStream} to read
+     * @param sizeHint
+     *            the expected size of the content, or -1 to use {@link InputStream#available()}.
+     *            At most {@link #MAX_HINTED_SIZE} bytes are allocated up front. If more data
+     *            arrives, the array grows to the hint at once, and only doubles beyond it.
+     * @param maxBytes
+     *            the maximum number of bytes allowed in the stream
+     * @return the array holding the bytes read, which may be larger than the content. If the
+     *         length of the content exceeds {@code maxBytes}, the end of the stream has not been
+     *         reached.
+     * @throws IOException
+     *             if an I/O error occurs while reading the stream
+     */
+    private static ByteArray readFully(InputStream in, int sizeHint, long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("the maximum size must not be negative");
+        }
+        // one extra byte is needed to detect that the limit is exceeded
+        final int limit = (int) Math.min(maxBytes, MAX_ARRAY_SIZE - 1) + 1;
+        final int initialSize;
+        if (sizeHint >= 0) {
+            initialSize = Math.min(sizeHint, MAX_HINTED_SIZE);
+        } else {
+            initialSize = Math.max(Math.min(in.available(), MAX_HINTED_SIZE), BUFFER_SIZE);
+        }
+        byte[] array = new byte[Math.min(initialSize, limit)];
+        int length = 0;
+        while (true) {
+            if (length == array.length) {
+                if (length >= limit) {
+                    if (maxBytes >= limit) {
+                        throw new OutOfMemoryError("stream too large to fit in an array");
+                    }
+                    break;
+                }
+                // probe for the end of the stream before growing, in case the array is exact
+                final int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                // the content may still match the hint exactly, which then needs no other copy
+                final int newSize = sizeHint > array.length ? sizeHint : grow(array.length);
+                array = Arrays.copyOf(array, Math.min(newSize, limit));
+                array[length++] = (byte) next;
+                continue;
+            }
+            final int numRead = in.read(array, length, array.length - length);
+            if (numRead < 0) {
+                break;
             }
+            length += numRead;
+        }
+        return new ByteArray(array, length);
+    }
+
+    /**
+     * Returns the new size of an array that is full.
+     *
+     * @param size
+     *            the current size of the array
+     * @return the new size
+     * @throws OutOfMemoryError
+     *             if the array cannot grow anymore
+     */
+    private static int grow(int size) {
+        if (size >= MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("stream too large to fit in an array");
+        }
+        return (int) Math.min(Math.max(2L * size, BUFFER_SIZE), MAX_ARRAY_SIZE);
+    }
+
+    /**
+     * Holds the default executor of the asynchronous reads, so that it is only created when
+     * needed.
+     */
+    private static class AsyncExecutorHolder {
+
+        static final ExecutorService EXECUTOR = createExecutor();
+
+        /**
+         * Creates an executor starting a virtual thread per task if the runtime supports it, or a
+         * cached pool of daemon threads otherwise.
+         *
+         * @return the new executor
+         */
+        private static ExecutorService createExecutor() {
+            try {
+                // looked up reflectively to keep compatibility with older runtimes
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                return Executors.newCachedThreadPool(r -> {
+                    final Thread thread = new Thread(r, "io-utils-async-read");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+
+    /**
+     * Reads an {@link AsynchronousFileChannel} to the end, and completes a future with the decoded
+     * content. The content is read into a buffer of the size of the file, and a single byte is
+     * then read into a separate probe to detect the end of the file. The buffer only grows if the
+     * file has grown since it was opened.
+     */
+    private static class FileReadHandler implements CompletionHandler<Integer, ByteBuffer> {
+
+        private final AsynchronousFileChannel channel;
+
+        private final Charset charset;
+
+        private final CompletableFuture<String> result;
+
+        private final ByteBuffer probe = ByteBuffer.allocate(1);
+
+        private ByteBuffer content;
+
+        FileReadHandler(AsynchronousFileChannel channel, Charset charset, CompletableFuture<String> result) {
+            this.channel = channel;
+            this.charset = charset;
+            this.result = result;
+        }
+
+        /**
+         * Starts reading the file.
+         *
+         * @param size
+         *            the size of the file when it was opened
+         */
+        void start(int size) {
+            content = ByteBuffer.allocate(size);
+            readNext();
+        }
+
+        /**
+         * Reads the next bytes of the file into the content buffer, or into the probe if the
+         * content buffer is full.
+         */
+        private void readNext() {
+            final ByteBuffer target = content.hasRemaining() ? content : probe;
+            try {
+                channel.read(target, content.position(), target, this);
+            } catch (final RuntimeException e) {
+                failed(e, target);
+            }
+        }
+
+        @Override
+        public void completed(Integer numRead, ByteBuffer target) {
+            if (numRead < 0) {
+                closeChannel();
+                result.complete(new String(content.array(), 0, content.position(), charset));
+                return;
+            }
+            if (target == probe) {
+                // the file has grown since it was opened
+                final ByteBuffer larger;
+                try {
+                    larger = ByteBuffer.allocate(grow(content.capacity()));
+                } catch (final OutOfMemoryError e) {
+                    failed(e, target);
+                    return;
+                }
+                content.flip();
+                larger.put(content);
+                probe.flip();
+                larger.put(probe);
+                probe.clear();
+                content = larger;
+            }
+            readNext();
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer target) {
+            closeChannel();
+            result.completeExceptionally(exc);
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                // the content is already read, or the read has already failed
+            }
+        }
+    }
+
+    /**
+     * A mutable {@link CharSequence} over a range of a {@code char} array, used to pass lines
+     * without copying them.
+     */
+    private static class LineView implements CharSequence {
+
+        private char[] chars;
+
+        private int start;
+
+        private int end;
+
+        void set(char[] chars, int start, int end) {
+            this.chars = chars;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index " + index + " out of range [0, " + length() + ")");
+            }
+            return chars[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to) {
+                throw new IndexOutOfBoundsException("invalid range [" + from + ", " + to + ")");
+            }
+            // the view is reused, so an independent copy is returned
+            return new String(chars, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, start, end - start);
+        }
+    }
+
+    /**
+     * An array partially filled with data.
+     */
+    private static class ByteArray {
+
+        final byte[] array;
+
+        final int length;
+
+        ByteArray(byte[] array, int length) {
+            this.array = array;
+            this.length = length;
         }
-        return sb.toString();
     }
 }
@@ -1,27 +1,129 @@
 package org.hildan.utils.io;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PushbackInputStream;
+import java.io.InputStream;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * A reader that reads and skips the BOM (Byte Order Mark), using it to determine the encoding of
- * the file.
+ * the file. If there is no BOM, the first bytes are analyzed by a {@link CharsetDetector} to
+ * recognize UTF-8 and UTF-16 content, and the default encoding is used if none is recognized.
+ * <p>
+ * The content is only analyzed in the bytes read at construction: the source is read until it
+ * has provided at least 4 bytes (the size of the longest BOM), which are usually the first 8 KB
+ * of a file, but may be much less for a socket or a pipe. A content that is only recognizable
+ * further away, such as ASCII text followed by a few accented letters, is read with the default
+ * encoding.
+ * <p>
+ * The BOM is detected directly in the first fill of the internal byte buffer, which is then
+ * decoded by a single {@link CharsetDecoder} into a reused char buffer, without any intermediate
+ * stream layer. The encoding in use can be reported to an {@link EncodingListener} given at
+ * construction.
  */
 public class UnicodeReader extends Reader {
 
+    /**
+     * Indicates how the encoding of a {@code UnicodeReader} was determined.
+     */
+    public enum EncodingSource {
+        /**
+         * The encoding was indicated by a BOM.
+         */
+        BOM,
+        /**
+         * The encoding was recognized from the content by the {@link CharsetDetector}.
+         */
+        CONTENT,
+        /**
+         * The encoding is the default one, either given at construction or the system default.
+         */
+        DEFAULT
+    }
+
+    /**
+     * A listener notified of the encoding chosen by a {@code UnicodeReader} when it is created,
+     * for logging or monitoring purposes.
+     */
+    public interface EncodingListener {
+
+        /**
+         * Called when a {@code UnicodeReader} has determined the encoding of its source.
+         *
+         * @param reader
+         *            the reader that has just been created
+         * @param charset
+         *            the charset used to decode the source
+         * @param source
+         *            how the charset was determined
+         */
+        void encodingDetermined(UnicodeReader reader, Charset charset, EncodingSource source);
+    }
+
     private static final int BOM_SIZE = 4;
 
-    private final BufferedReader reader;
+    /**
+     * The size of the internal buffers, in bytes and in chars.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    /**
+     * The stream to read from, or {@code null} if reading from {@link #channel}.
+     */
+    private final InputStream in;
+
+    /**
+     * The channel to read from, or {@code null} if reading from {@link #in}.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The bytes read but not decoded yet, in read mode.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The chars decoded but not returned yet, in read mode.
+     */
+    private final CharBuffer chars;
+
+    private final CharsetDecoder decoder;
+
+    private final String encoding;
+
+    private final EncodingSource encodingSource;
+
+    private boolean eof;
+
+    /**
+     * Whether the decoder has been flushed after the end of the source.
+     */
+    private boolean flushed;
 
-    private String encoding;
+    private boolean closed;
 
     /**
      * Creates a {@code UnicodeReader} for the specified file. Uses system default encoding if BOM
-     * is not found.
+     * is not found and the content is not recognized.
      *
      * @param filename
      *            Input file.
@@ -38,72 +140,516 @@ public class UnicodeReader extends Reader {
      * @param filename
      *            Input file.
      * @param defaultEncoding
-     *            Default encoding to be used if BOM is not found, or <code>null</code> to use
-     *            system default encoding.
+     *            Default encoding to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default encoding.
      * @throws IOException
      *             If an I/O error occurs.
      */
     public UnicodeReader(String filename, String defaultEncoding) throws IOException {
-        // Read ahead BOM_SIZE bytes to fetch any possible BOM
-        final byte bom[] = new byte[BOM_SIZE];
-        final PushbackInputStream pbis = new PushbackInputStream(new FileInputStream(filename), BOM_SIZE);
-        final int n = pbis.read(bom, 0, bom.length);
-        int unread;
-        // Check for BOM
-        if (bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF) {
-            encoding = "UTF-8";
-            unread = n - 3;
-        } else if (bom[0] == (byte) 0xFE && bom[1] == (byte) 0xFF) {
-            encoding = "UTF-16BE";
-            unread = n - 2;
-        } else if (bom[0] == (byte) 0xFF && bom[1] == (byte) 0xFE) {
-            encoding = "UTF-16LE";
-            unread = n - 2;
-        } else if (bom[0] == (byte) 0x00 && bom[1] == (byte) 0x00 && bom[2] == (byte) 0xFE && bom[3] == (byte) 0xFF) {
-            encoding = "UTF-32BE";
-            unread = n - 4;
-        } else if (bom[0] == (byte) 0xFF && bom[1] == (byte) 0xFE && bom[2] == (byte) 0x00 && bom[3] == (byte) 0x00) {
-            encoding = "UTF-32LE";
-            unread = n - 4;
-        } else {
-            encoding = defaultEncoding;
-            unread = n;
-        }
-        // Unread bytes if necessary and skip BOM
-        if (unread > 0) {
-            pbis.unread(bom, n - unread, unread);
-        } else if (unread < -1) {
-            pbis.unread(bom, 0, 0);
-        }
-        // Use given encoding.
-        if (encoding == null) {
-            final InputStreamReader isr = new InputStreamReader(pbis);
-            reader = new BufferedReader(isr);
-            encoding = isr.getEncoding();
-        } else {
-            reader = new BufferedReader(new InputStreamReader(pbis, encoding));
+        // the charset is resolved before the file is opened, so that nothing leaks if it fails
+        this(lookupCharset(defaultEncoding), filename);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified file.
+     *
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @param filename
+     *            Input file.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private UnicodeReader(Charset defaultCharset, String filename) throws IOException {
+        this(new FileInputStream(filename), null, defaultCharset, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified stream. Uses system default encoding if
+     * BOM is not found and the content is not recognized.
+     *
+     * @param in
+     *            Input stream. It is closed when this reader is closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(InputStream in) throws IOException {
+        this(in, (Charset) null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified stream.
+     *
+     * @param in
+     *            Input stream. It is closed when this reader is closed.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(InputStream in, Charset defaultCharset) throws IOException {
+        this(in, defaultCharset, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified stream, reporting its encoding to the
+     * specified listener.
+     *
+     * @param in
+     *            Input stream. It is closed when this reader is closed.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @param listener
+     *            Listener notified of the encoding before this constructor returns, or
+     *            <code>null</code>.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(InputStream in, Charset defaultCharset, EncodingListener listener) throws IOException {
+        this(in, null, defaultCharset, listener);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified file. Uses system default encoding if BOM
+     * is not found and the content is not recognized.
+     *
+     * @param file
+     *            Input file.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(Path file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified file.
+     *
+     * @param file
+     *            Input file.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(Path file, Charset defaultCharset) throws IOException {
+        this(file, defaultCharset, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified file, reporting its encoding to the
+     * specified listener.
+     *
+     * @param file
+     *            Input file.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @param listener
+     *            Listener notified of the encoding before this constructor returns, or
+     *            <code>null</code>.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(Path file, Charset defaultCharset, EncodingListener listener) throws IOException {
+        this(null, FileChannel.open(file, StandardOpenOption.READ), defaultCharset, listener);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified channel. Uses system default encoding if
+     * BOM is not found and the content is not recognized.
+     *
+     * @param channel
+     *            Input channel, in blocking mode. It is closed when this reader is closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(ReadableByteChannel channel) throws IOException {
+        this(channel, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified channel.
+     *
+     * @param channel
+     *            Input channel, in blocking mode. It is closed when this reader is closed.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(ReadableByteChannel channel, Charset defaultCharset) throws IOException {
+        this(channel, defaultCharset, null);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} for the specified channel, reporting its encoding to the
+     * specified listener.
+     *
+     * @param channel
+     *            Input channel, in blocking mode. It is closed when this reader is closed.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @param listener
+     *            Listener notified of the encoding before this constructor returns, or
+     *            <code>null</code>.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeReader(ReadableByteChannel channel, Charset defaultCharset, EncodingListener listener)
+            throws IOException {
+        this(null, channel, defaultCharset, listener);
+    }
+
+    /**
+     * Creates a {@code UnicodeReader} reading either from a stream or from a channel. The first
+     * bytes are read immediately to detect the BOM, or to recognize the encoding of the content
+     * if there is no BOM.
+     *
+     * @param in
+     *            Input stream, or {@code null} to use the channel.
+     * @param channel
+     *            Input channel, or {@code null} to use the stream.
+     * @param defaultCharset
+     *            Default charset to be used if BOM is not found and the content is not
+     *            recognized, or <code>null</code> to use system default charset.
+     * @param listener
+     *            Listener notified of the encoding, or <code>null</code>.
+     * @throws IOException
+     *             If an I/O error occurs. The source is closed in this case.
+     */
+    private UnicodeReader(InputStream in, ReadableByteChannel channel, Charset defaultCharset,
+            EncodingListener listener) throws IOException {
+        this.in = in;
+        this.channel = channel;
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        this.chars = CharBuffer.allocate(BUFFER_SIZE);
+        chars.flip();
+        final Charset charset;
+        try {
+            // Read ahead BOM_SIZE bytes to fetch any possible BOM, directly in the buffer
+            while (bytes.position() < BOM_SIZE && readBytes() >= 0) {
+                continue;
+            }
+            bytes.flip();
+            final Charset bomCharset = detectBom(bytes);
+            if (bomCharset != null) {
+                charset = bomCharset;
+                encodingSource = EncodingSource.BOM;
+            } else {
+                final Charset fallback = defaultCharset == null ? Charset.defaultCharset() : defaultCharset;
+                // the detection only uses the bytes read so far, so as not to block for more
+                charset = CharsetDetector.detect(bytes, fallback);
+                encodingSource = charset == fallback ? EncodingSource.DEFAULT : EncodingSource.CONTENT;
+            }
+        } catch (final IOException | RuntimeException e) {
+            closeSource();
+            throw e;
+        }
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoding = charset.name();
+        if (listener != null) {
+            listener.encodingDetermined(this, charset, encodingSource);
+        }
+    }
+
+    /**
+     * Returns the charset of the specified name.
+     *
+     * @param charsetName
+     *            the name of the charset, or {@code null}
+     * @return the corresponding {@link Charset}, or {@code null} if the name is {@code null}
+     * @throws UnsupportedEncodingException
+     *             if the charset cannot be found
+     */
+    private static Charset lookupCharset(String charsetName) throws UnsupportedEncodingException {
+        if (charsetName == null) {
+            return null;
         }
-        System.out.println("Reader encoding " + encoding);
+        try {
+            return Charset.forName(charsetName);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+    }
+
+    /**
+     * Checks whether the specified buffer starts with a BOM, and skips it if it does.
+     *
+     * @param buffer
+     *            the first bytes of the source, in read mode
+     * @return the charset indicated by the BOM, or {@code null} if there is no BOM
+     */
+    private static Charset detectBom(ByteBuffer buffer) {
+        final int n = buffer.remaining();
+        final int b0 = n > 0 ? buffer.get(0) & 0xFF : -1;
+        final int b1 = n > 1 ? buffer.get(1) & 0xFF : -1;
+        final int b2 = n > 2 ? buffer.get(2) & 0xFF : -1;
+        final int b3 = n > 3 ? buffer.get(3) & 0xFF : -1;
+        // UTF-32LE has to be checked before UTF-16LE, which has the same first 2 bytes
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            buffer.position(3);
+            return StandardCharsets.UTF_8;
+        } else if (b0 == 0x00 && b1 == 0x00 && b2 == 0xFE && b3 == 0xFF) {
+            buffer.position(4);
+            return UTF_32BE;
+        } else if (b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00) {
+            buffer.position(4);
+            return UTF_32LE;
+        } else if (b0 == 0xFE && b1 == 0xFF) {
+            buffer.position(2);
+            return StandardCharsets.UTF_16BE;
+        } else if (b0 == 0xFF && b1 == 0xFE) {
+            buffer.position(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
     }
 
     /**
-     * Returns the encoding used to read the file. It was determined by the BOM if any, otherwise it
-     * is the given default encoding or system default, as specified by
-     * {@link #UnicodeReader(String)} or {@link #UnicodeReader(String, String)}.
+     * Returns the encoding used to read the file. It was determined by the BOM if any, otherwise by
+     * the content if it was recognized, otherwise it is the given default encoding or system
+     * default, as specified at construction.
      *
-     * @return The encoding used to read the file.
+     * @return The canonical name of the encoding used to read the file.
      */
     public String getEncoding() {
         return encoding;
     }
 
+    /**
+     * Returns the charset used to read the file, as described in {@link #getEncoding()}.
+     *
+     * @return The charset used to read the file.
+     */
+    public Charset getCharset() {
+        return decoder.charset();
+    }
+
+    /**
+     * Returns how the encoding used to read the file was determined.
+     *
+     * @return The source of the encoding.
+     */
+    public EncodingSource getEncodingSource() {
+        return encodingSource;
+    }
+
+    @Override
+    public int read() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (!fillChars()) {
+                return -1;
+            }
+            return chars.get();
+        }
+    }
+
+    @Override
+    public int read(CharBuffer target) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final int len = target.remaining();
+            if (len == 0) {
+                return 0;
+            }
+            if (!chars.hasRemaining() && len >= chars.capacity() && target.hasArray()) {
+                // large reads are decoded directly into the caller's buffer, as long as it is backed by
+                // an array, which keeps the decoder on its fast path for ASCII runs
+                return decode(target);
+            }
+            if (!fillChars()) {
+                return -1;
+            }
+            final int n = Math.min(len, chars.remaining());
+            final int limit = chars.limit();
+            chars.limit(chars.position() + n);
+            target.put(chars);
+            chars.limit(limit);
+            return n;
+        }
+    }
+
     @Override
     public int read(char[] cbuf, int off, int len) throws IOException {
-        return reader.read(cbuf, off, len);
+        synchronized (lock) {
+            ensureOpen();
+            if (off < 0 || len < 0 || len > cbuf.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!chars.hasRemaining()) {
+                if (len >= chars.capacity()) {
+                    // large reads are decoded directly into the caller's array
+                    return decode(CharBuffer.wrap(cbuf, off, len));
+                }
+                if (!fillChars()) {
+                    return -1;
+                }
+            }
+            final int n = Math.min(len, chars.remaining());
+            chars.get(cbuf, off, n);
+            return n;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        synchronized (lock) {
+            if (n < 0) {
+                throw new IllegalArgumentException("skip value is negative");
+            }
+            ensureOpen();
+            long skipped = 0;
+            while (skipped < n && fillChars()) {
+                final int step = (int) Math.min(n - skipped, chars.remaining());
+                chars.position(chars.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            return chars.hasRemaining() || bytes.hasRemaining() || in != null && in.available() > 0;
+        }
+    }
+
+    /**
+     * Reads all the remaining characters and writes them to the specified writer, in the order
+     * they are read. The decoded chars are written directly from the internal buffer.
+     *
+     * @param out
+     *            the writer to write the characters to
+     * @return the number of characters transferred
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public long transferTo(Writer out) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final char[] array = chars.array();
+            long transferred = 0;
+            while (fillChars()) {
+                final int n = chars.remaining();
+                out.write(array, chars.arrayOffset() + chars.position(), n);
+                chars.position(chars.limit());
+                transferred += n;
+            }
+            return transferred;
+        }
+    }
+
+    /**
+     * Ensures that the char buffer contains decoded chars, decoding more bytes if necessary.
+     *
+     * @return {@code false} if the end of the source was reached and all chars have been read
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private boolean fillChars() throws IOException {
+        if (chars.hasRemaining()) {
+            return true;
+        }
+        chars.clear();
+        final int n = decode(chars);
+        chars.flip();
+        return n > 0;
+    }
+
+    /**
+     * Decodes chars into the specified buffer, reading more bytes from the source if necessary,
+     * until at least one char is decoded or the end of the source is reached.
+     *
+     * @param target
+     *            the buffer to decode into, which must have some space remaining
+     * @return the number of chars decoded, or -1 if the end of the source was reached
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private int decode(CharBuffer target) throws IOException {
+        final int initialPosition = target.position();
+        while (true) {
+            if (eof) {
+                if (!flushed && !decoder.decode(bytes, target, true).isOverflow()
+                        && !decoder.flush(target).isOverflow()) {
+                    flushed = true;
+                }
+                final int n = target.position() - initialPosition;
+                return n == 0 ? -1 : n;
+            }
+            final CoderResult result = decoder.decode(bytes, target, false);
+            final int n = target.position() - initialPosition;
+            if (result.isOverflow() || n > 0) {
+                return n;
+            }
+            // underflow, more bytes are needed
+            bytes.compact();
+            readBytes();
+            bytes.flip();
+        }
+    }
+
+    /**
+     * Reads more bytes from the source into the byte buffer, which must be in write mode, and
+     * updates the EOF flag.
+     *
+     * @return the number of bytes read, or -1 if the end of the source was reached
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private int readBytes() throws IOException {
+        int numRead;
+        do {
+            if (channel != null) {
+                numRead = channel.read(bytes);
+            } else {
+                numRead = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                if (numRead > 0) {
+                    bytes.position(bytes.position() + numRead);
+                }
+            }
+        } while (numRead == 0 && bytes.hasRemaining());
+        if (numRead < 0) {
+            eof = true;
+        }
+        return numRead;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void closeSource() throws IOException {
+        if (channel != null) {
+            channel.close();
+        } else {
+            in.close();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        reader.close();
+        synchronized (lock) {
+            if (!closed) {
+                closed = true;
+                closeSource();
+            }
+        }
     }
-}
\ No newline at end of file
+}
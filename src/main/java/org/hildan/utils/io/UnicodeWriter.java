@@ -0,0 +1,403 @@
+package org.hildan.utils.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A writer encoding text in UTF-8, UTF-16 or UTF-32, optionally preceded by a BOM (Byte Order
+ * Mark). This is the counterpart of {@link UnicodeReader}.
+ * <p>
+ * The chars are encoded by a single {@link CharsetEncoder} into a large reused byte buffer, which
+ * is written to the destination only when it is full, or when this writer is flushed. Small
+ * writes are first gathered in an internal char buffer, while large char arrays are encoded
+ * directly. Both sides of the encoding are always backed by arrays, which keeps the encoder on its
+ * fast path for ASCII runs.
+ * <p>
+ * A surrogate pair may be split across several writes: a trailing high surrogate is kept until
+ * the next write, and is only encoded as malformed if this writer is closed without its low
+ * surrogate.
+ */
+public class UnicodeWriter extends Writer {
+
+    /**
+     * The size of the internal char buffer.
+     */
+    private static final int CHAR_BUFFER_SIZE = 8192;
+
+    /**
+     * The size of the internal byte buffer, which is the size of the batches written to the
+     * destination.
+     */
+    private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+
+    private static final char BOM = '\uFEFF';
+
+    private static final Charset UTF_32 = Charset.forName("UTF-32");
+
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    /**
+     * The stream to write to, or {@code null} if writing to {@link #channel}.
+     */
+    private final OutputStream out;
+
+    /**
+     * The channel to write to, or {@code null} if writing to {@link #out}.
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * The chars written but not encoded yet, in write mode.
+     */
+    private final CharBuffer chars;
+
+    /**
+     * The bytes encoded but not written yet, in write mode.
+     */
+    private final ByteBuffer bytes;
+
+    private final CharsetEncoder encoder;
+
+    private boolean closed;
+
+    /**
+     * Creates a {@code UnicodeWriter} writing UTF-8 without BOM to the specified stream.
+     *
+     * @param out
+     *            Output stream. It is closed when this writer is closed.
+     */
+    public UnicodeWriter(OutputStream out) {
+        this(out, StandardCharsets.UTF_8, false);
+    }
+
+    /**
+     * Creates a {@code UnicodeWriter} for the specified stream.
+     *
+     * @param out
+     *            Output stream. It is closed when this writer is closed.
+     * @param charset
+     *            The charset to use, which must be UTF-8, UTF-16 or UTF-32. UTF-16 and UTF-32
+     *            without explicit byte order are written in big endian.
+     * @param writeBom
+     *            Whether to write a BOM before the text.
+     * @throws IllegalArgumentException
+     *             if the charset is not one of the supported Unicode charsets
+     */
+    public UnicodeWriter(OutputStream out, Charset charset, boolean writeBom) {
+        this(out, null, charset, writeBom);
+    }
+
+    /**
+     * Creates a {@code UnicodeWriter} for the specified channel.
+     *
+     * @param channel
+     *            Output channel, in blocking mode. It is closed when this writer is closed.
+     * @param charset
+     *            The charset to use, which must be UTF-8, UTF-16 or UTF-32. UTF-16 and UTF-32
+     *            without explicit byte order are written in big endian.
+     * @param writeBom
+     *            Whether to write a BOM before the text.
+     * @throws IllegalArgumentException
+     *             if the charset is not one of the supported Unicode charsets
+     */
+    public UnicodeWriter(WritableByteChannel channel, Charset charset, boolean writeBom) {
+        this(null, channel, charset, writeBom);
+    }
+
+    /**
+     * Creates a {@code UnicodeWriter} for the specified file. The file is created if it does not
+     * exist, and truncated otherwise.
+     *
+     * @param file
+     *            Output file.
+     * @param charset
+     *            The charset to use, which must be UTF-8, UTF-16 or UTF-32. UTF-16 and UTF-32
+     *            without explicit byte order are written in big endian.
+     * @param writeBom
+     *            Whether to write a BOM before the text.
+     * @throws IllegalArgumentException
+     *             if the charset is not one of the supported Unicode charsets
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public UnicodeWriter(Path file, Charset charset, boolean writeBom) throws IOException {
+        this(null, openChannel(file, charset), charset, writeBom);
+    }
+
+    private UnicodeWriter(OutputStream out, WritableByteChannel channel, Charset charset, boolean writeBom) {
+        final Charset actualCharset = withByteOrder(charset);
+        this.out = out;
+        this.channel = channel;
+        this.chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        this.bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        this.encoder = actualCharset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (writeBom) {
+            chars.put(BOM);
+        }
+    }
+
+    /**
+     * Opens a channel on the specified file, after checking the charset so that the file is not
+     * truncated for nothing.
+     */
+    private static FileChannel openChannel(Path file, Charset charset) throws IOException {
+        withByteOrder(charset);
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the charset with explicit byte order corresponding to the specified Unicode charset.
+     *
+     * @param charset
+     *            a UTF-8, UTF-16 or UTF-32 charset
+     * @return the charset to use for the encoder, which does not write any BOM by itself
+     * @throws IllegalArgumentException
+     *             if the charset is not one of the supported Unicode charsets
+     */
+    private static Charset withByteOrder(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_16)) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (charset.equals(UTF_32)) {
+            return UTF_32BE;
+        }
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.UTF_16BE)
+                || charset.equals(StandardCharsets.UTF_16LE) || charset.equals(UTF_32BE)
+                || charset.equals(UTF_32LE)) {
+            return charset;
+        }
+        throw new IllegalArgumentException("Unsupported charset " + charset + ", UTF-8, UTF-16 or UTF-32 expected");
+    }
+
+    /**
+     * Returns the name of the encoding used by this writer.
+     *
+     * @return the canonical name of the charset, including its byte order
+     */
+    public String getEncoding() {
+        return encoder.charset().name();
+    }
+
+    /**
+     * Returns the charset used by this writer.
+     *
+     * @return the charset used to encode the text, including its byte order
+     */
+    public Charset getCharset() {
+        return encoder.charset();
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (!chars.hasRemaining()) {
+                encodeChars();
+            }
+            chars.put((char) c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (off < 0 || len < 0 || off > cbuf.length - len) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len <= chars.remaining()) {
+                // small writes are gathered in the char buffer
+                chars.put(cbuf, off, len);
+                return;
+            }
+            int start = off;
+            final int end = off + len;
+            // the pending chars are encoded first, with a pending high surrogate completed by the new chars
+            while (chars.position() > 0 && start < end) {
+                final int n = Math.min(end - start, chars.remaining());
+                chars.put(cbuf, start, n);
+                start += n;
+                encodeChars();
+            }
+            final CharBuffer src = CharBuffer.wrap(cbuf, start, end - start);
+            encode(src, false);
+            // keeps a trailing high surrogate, if any
+            chars.put(src);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (off < 0 || len < 0 || off > str.length() - len) {
+                throw new IndexOutOfBoundsException();
+            }
+            writeChars(str, off, off + len);
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final CharSequence seq = csq == null ? "null" : csq;
+            writeChars(seq, 0, seq.length());
+            return this;
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            final CharSequence seq = csq == null ? "null" : csq;
+            if (start < 0 || start > end || end > seq.length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            writeChars(seq, start, end);
+            return this;
+        }
+    }
+
+    /**
+     * Copies the specified chars to the char buffer, encoding it each time it is full.
+     */
+    private void writeChars(CharSequence csq, int start, int end) throws IOException {
+        int i = start;
+        while (i < end) {
+            if (!chars.hasRemaining()) {
+                encodeChars();
+            }
+            final int n = Math.min(end - i, chars.remaining());
+            final int position = chars.position();
+            if (csq instanceof String) {
+                ((String) csq).getChars(i, i + n, chars.array(), chars.arrayOffset() + position);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(i, i + n, chars.array(), chars.arrayOffset() + position);
+            } else {
+                final char[] array = chars.array();
+                final int offset = chars.arrayOffset() + position;
+                for (int j = 0; j < n; j++) {
+                    array[offset + j] = csq.charAt(i + j);
+                }
+            }
+            chars.position(position + n);
+            i += n;
+        }
+    }
+
+    /**
+     * Encodes the content of the char buffer, except a trailing high surrogate.
+     */
+    private void encodeChars() throws IOException {
+        chars.flip();
+        encode(chars, false);
+        chars.compact();
+    }
+
+    /**
+     * Encodes the specified chars, writing the byte buffer to the destination each time it is
+     * full.
+     *
+     * @param src
+     *            the chars to encode
+     * @param endOfInput
+     *            whether these are the last chars, in which case a trailing high surrogate is
+     *            encoded as malformed input
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private void encode(CharBuffer src, boolean endOfInput) throws IOException {
+        while (true) {
+            final CoderResult result = encoder.encode(src, bytes, endOfInput);
+            if (!result.isOverflow()) {
+                return;
+            }
+            writeBytes();
+        }
+    }
+
+    /**
+     * Writes the content of the byte buffer to the destination, and clears it.
+     */
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        if (channel != null) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } else if (bytes.hasRemaining()) {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Encodes and writes all the chars written so far to the destination, except a trailing high
+     * surrogate, which is kept until its low surrogate is written.
+     *
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            encodeChars();
+            writeBytes();
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                chars.flip();
+                encode(chars, true);
+                while (encoder.flush(bytes).isOverflow()) {
+                    writeBytes();
+                }
+                writeBytes();
+                if (out != null) {
+                    out.flush();
+                }
+            } finally {
+                if (channel != null) {
+                    channel.close();
+                } else {
+                    out.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.hildan.utils.io.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A push-based counterpart of {@link BitInputStream}, to decode bits from an event loop without
+ * blocking: the bytes are pushed as {@link ByteBuffer} chunks with {@link #feed(ByteBuffer)}, and
+ * the bits are read most significant bit first, as {@link BitInputStream} does. A value may span
+ * several chunks.
+ * <p>
+ * The chunks are not copied: the decoder reads them in place, advancing their position as their
+ * bytes are consumed. A chunk must therefore not be modified by the caller until it has no
+ * remaining bytes and no {@linkplain #mark() mark} is set.
+ * <p>
+ * When not enough bits have been fed to read a value, {@link #hasBits(long)} returns
+ * {@code false}, and the caller should wait for more input. To decode a message whose length is
+ * not known in advance, the decoder can be {@linkplain #mark() marked} at its beginning, and
+ * {@linkplain #reset() reset} if the message turns out to be incomplete.
+ * <p>
+ * A {@code BitDecoder} is meant to be used by a single thread, and is therefore not synchronized.
+ */
+public class BitDecoder {
+
+    /**
+     * The chunks that have remaining bytes, in the order they were fed.
+     */
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+
+    /**
+     * The total number of remaining bytes in {@link #chunks}.
+     */
+    private long remainingBytes;
+
+    /**
+     * The bits of the current byte that have not been read yet. Only the {@link #bufferLength}
+     * right-most bits are used.
+     */
+    private long buffer;
+
+    /**
+     * The number of bits in the buffer, always fewer than 8.
+     */
+    private int bufferLength;
+
+    /**
+     * The position of the first chunk when it became the first chunk, or when the mark was set.
+     */
+    private int headStart;
+
+    private boolean marked;
+
+    private long markBuffer;
+
+    private int markBufferLength;
+
+    /**
+     * The chunks entirely consumed since the mark was set, in order, to rewind on reset.
+     */
+    private final List<ByteBuffer> consumedSinceMark = new ArrayList<>();
+
+    /**
+     * The positions to rewind the chunks of {@link #consumedSinceMark} to.
+     */
+    private final List<Integer> consumedStarts = new ArrayList<>();
+
+    /**
+     * Adds the remaining bytes of the specified chunk to the input of this decoder. The chunk is
+     * not copied, and its position is advanced as its bytes are read.
+     *
+     * @param chunk
+     *            the next bytes to decode, from the position to the limit of the buffer
+     */
+    public void feed(ByteBuffer chunk) {
+        if (!chunk.hasRemaining()) {
+            return;
+        }
+        if (chunks.isEmpty()) {
+            headStart = chunk.position();
+        }
+        chunks.addLast(chunk);
+        remainingBytes += chunk.remaining();
+    }
+
+    /**
+     * Returns the number of bits that can be read without feeding more input.
+     *
+     * @return the number of available bits
+     */
+    public long availableBits() {
+        return remainingBytes * Byte.SIZE + bufferLength;
+    }
+
+    /**
+     * Returns whether the specified number of bits can be read without feeding more input.
+     *
+     * @param length
+     *            the number of bits to read
+     * @return {@code true} if at least {@code length} bits are available, {@code false} if more
+     *         input is needed
+     */
+    public boolean hasBits(long length) {
+        return availableBits() >= length;
+    }
+
+    /**
+     * Reads the next bit.
+     *
+     * @return 1 or 0 depending on the read bit, or -1 if more input is needed
+     */
+    public int readBit() {
+        if (bufferLength == 0) {
+            if (remainingBytes == 0) {
+                return -1;
+            }
+            buffer = nextByte();
+            bufferLength = Byte.SIZE;
+        }
+        bufferLength--;
+        final int bit = (int) (buffer >>> bufferLength) & 1;
+        buffer &= (1L << bufferLength) - 1;
+        return bit;
+    }
+
+    /**
+     * Reads up to {@link Long#SIZE} bits as a long value. {@link #hasBits(long)} should be called
+     * first to make sure enough input is available.
+     *
+     * @param length
+     *            the number of bits to read, between 0 and {@link Long#SIZE}
+     * @return the long value of the read bits
+     * @throws IllegalStateException
+     *             if fewer than {@code length} bits are available
+     */
+    public long readBits(int length) {
+        if (length < 0 || length > Long.SIZE) {
+            throw new IllegalArgumentException("the length must be between 0 and 64 bits");
+        }
+        if (!hasBits(length)) {
+            throw new IllegalStateException("more input is needed to read " + length + " bits");
+        }
+        if (length <= bufferLength) {
+            bufferLength -= length;
+            final long value = buffer >>> bufferLength;
+            buffer &= (1L << bufferLength) - 1;
+            return value;
+        }
+        // the pending bits are fewer than 8, so whole bytes can be appended up to 64 bits
+        long value = buffer;
+        int valueLength = bufferLength;
+        while (valueLength + Byte.SIZE <= length) {
+            value = value << Byte.SIZE | nextByte();
+            valueLength += Byte.SIZE;
+        }
+        final int missing = length - valueLength;
+        if (missing == 0) {
+            buffer = 0;
+            bufferLength = 0;
+            return value;
+        }
+        final int octet = nextByte();
+        bufferLength = Byte.SIZE - missing;
+        buffer = octet & (1 << bufferLength) - 1;
+        return value << missing | octet >>> bufferLength;
+    }
+
+    /**
+     * Skips the remaining bits of the current byte, so that the next bit read is the first bit of
+     * a byte. Nothing is skipped if this decoder is already aligned.
+     */
+    public void alignToByte() {
+        buffer = 0;
+        bufferLength = 0;
+    }
+
+    /**
+     * Marks the current position, so that the next bits can be read again after a call to
+     * {@link #reset()}. Until the mark is discarded, the chunks consumed after the mark are kept by
+     * this decoder, and must not be modified.
+     */
+    public void mark() {
+        marked = true;
+        markBuffer = buffer;
+        markBufferLength = bufferLength;
+        consumedSinceMark.clear();
+        consumedStarts.clear();
+        final ByteBuffer head = chunks.peekFirst();
+        if (head != null) {
+            headStart = head.position();
+        }
+    }
+
+    /**
+     * Goes back to the position of the last mark, which remains valid. The chunks fed since the
+     * mark are kept, so that only the missing bytes need to be fed before decoding again.
+     *
+     * @throws IllegalStateException
+     *             if no mark is set
+     */
+    public void reset() {
+        if (!marked) {
+            throw new IllegalStateException("no mark is set");
+        }
+        final ByteBuffer head = chunks.peekFirst();
+        if (head != null) {
+            remainingBytes += head.position() - headStart;
+            head.position(headStart);
+        }
+        for (int i = consumedSinceMark.size() - 1; i >= 0; i--) {
+            final ByteBuffer chunk = consumedSinceMark.get(i);
+            chunk.position(consumedStarts.get(i));
+            chunks.addFirst(chunk);
+            remainingBytes += chunk.remaining();
+        }
+        if (!consumedSinceMark.isEmpty()) {
+            headStart = consumedStarts.get(0);
+        }
+        consumedSinceMark.clear();
+        consumedStarts.clear();
+        buffer = markBuffer;
+        bufferLength = markBufferLength;
+    }
+
+    /**
+     * Discards the mark, if any, so that the chunks consumed since the mark are released.
+     */
+    public void discardMark() {
+        marked = false;
+        consumedSinceMark.clear();
+        consumedStarts.clear();
+    }
+
+    /**
+     * Consumes the next byte of the first chunk, and releases the chunk if it has no remaining
+     * bytes. Ensure there are remaining bytes before calling this method.
+     *
+     * @return the next byte, as an unsigned value
+     */
+    private int nextByte() {
+        final ByteBuffer head = chunks.peekFirst();
+        final int octet = head.get() & 0xFF;
+        remainingBytes--;
+        if (!head.hasRemaining()) {
+            chunks.pollFirst();
+            if (marked) {
+                consumedSinceMark.add(head);
+                consumedStarts.add(headStart);
+            }
+            final ByteBuffer next = chunks.peekFirst();
+            if (next != null) {
+                headStart = next.position();
+            }
+        }
+        return octet;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -16,6 +17,11 @@ public class BitInputStream extends BufferedInputStream {
 
     private static final int BITS_PER_BYTE = 8;
 
+    /**
+     * The maximum number of longs read as bytes at once by {@link #readLongs(long[], int, int)}.
+     */
+    private static final int BULK_LONGS = 512;
+
     /**
      * The buffer of bits. Only the right-most bits (least significant) are used.
      */
@@ -26,6 +32,16 @@ public class BitInputStream extends BufferedInputStream {
      */
     private int bufferLength = 0;
 
+    /**
+     * The instrumented underlying stream, or {@code null} if the counters are not enabled.
+     */
+    private InstrumentedInputStream instrumented;
+
+    /**
+     * The number of bits that were already buffered when the counters were enabled.
+     */
+    private long bitsBufferedBeforeStats;
+
     /**
      * Creates a new {@link BitInputStream} reading from the specified file.
      *
@@ -134,6 +150,13 @@ public class BitInputStream extends BufferedInputStream {
         if (length > Long.SIZE) {
             throw new IllegalArgumentException("can't read more bits than the size of a long");
         }
+        if (bufferLength < length
+                && bufferLength + (length - bufferLength + BITS_PER_BYTE - 1) / BITS_PER_BYTE * BITS_PER_BYTE > Long.SIZE) {
+            // the pending bits and the new bytes would not fit in the buffer
+            final long high = readBits(length - Integer.SIZE, failOnEOF);
+            final long low = readBits(Integer.SIZE, failOnEOF);
+            return high == -1 || low == -1 ? -1 : high << Integer.SIZE | low;
+        }
         while (bufferLength < length) {
             final int octet = super.read();
             if (octet == -1) {
@@ -185,6 +208,105 @@ public class BitInputStream extends BufferedInputStream {
         return (int) pollBitsFromBuffer(1);
     }
 
+    /**
+     * Reads longs from this stream, as {@link #readLong()} would do for each of them. The bytes of
+     * the longs are read in bulk from the underlying buffer, even if this stream is not aligned on a
+     * byte boundary.
+     *
+     * @param values
+     *            the array to store the read longs into
+     * @param offset
+     *            the index in {@code values} of the first long to read
+     * @param length
+     *            the number of longs to read
+     * @throws IllegalStateException
+     *             if the end of stream is reached before all the longs could be read
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public synchronized void readLongs(long[] values, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > values.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        // the remaining bits of the current byte are always fewer than 8
+        final int pendingLength = bufferLength;
+        final long pendingMask = (1L << pendingLength) - 1;
+        final byte[] bytes = new byte[Math.min(length, BULK_LONGS) * Long.BYTES];
+        int i = 0;
+        while (i < length) {
+            final int n = Math.min(length - i, BULK_LONGS);
+            final int byteCount = n * Long.BYTES;
+            int numRead = 0;
+            while (numRead < byteCount) {
+                final int r = super.read(bytes, numRead, byteCount - numRead);
+                if (r == -1) {
+                    throw new IllegalStateException("premature end of input, cannot read the requested number of longs");
+                }
+                numRead += r;
+            }
+            int p = 0;
+            for (int k = 0; k < n; k++) {
+                long word = 0;
+                for (int j = 0; j < Long.BYTES; j++) {
+                    word = word << BITS_PER_BYTE | bytes[p++] & 0xFF;
+                }
+                // the pending bits come first, and the last bits of the word become pending
+                values[offset + i + k] = pendingLength == 0 ? word : buffer << Long.SIZE - pendingLength
+                        | word >>> pendingLength;
+                buffer = word & pendingMask;
+            }
+            i += n;
+        }
+    }
+
+    /**
+     * Skips the remaining bits of the current byte, so that the next bit read is the first bit of
+     * a byte. Nothing is skipped if this stream is already aligned.
+     */
+    public synchronized void alignToByte() {
+        pollBitsFromBuffer(bufferLength % BITS_PER_BYTE);
+    }
+
+    /**
+     * Starts counting the bits read from this stream and the operations performed on the
+     * underlying stream, and emitting a JDK Flight Recorder event for each of these operations
+     * (see {@link #getStats()}). The counters are disabled by default, in which case nothing is
+     * measured at all. Calling this method again has no effect.
+     *
+     * @throws IllegalStateException
+     *             if this stream is closed
+     */
+    public synchronized void enableStats() {
+        if (instrumented != null) {
+            return;
+        }
+        if (in == null) {
+            throw new IllegalStateException("stream closed");
+        }
+        instrumented = new InstrumentedInputStream(in);
+        in = instrumented;
+        bitsBufferedBeforeStats = (long) (count - pos) * BITS_PER_BYTE + bufferLength;
+    }
+
+    /**
+     * Returns the current values of the counters of this stream. The bits read are deduced from the
+     * bytes read from the underlying stream and the content of the buffers, so that reading bits
+     * costs nothing more when the counters are enabled.
+     *
+     * @return an immutable snapshot of the counters since {@link #enableStats()} was called
+     * @throws IllegalStateException
+     *             if the counters are not enabled
+     */
+    public synchronized BitStreamStats getStats() {
+        if (instrumented == null) {
+            throw new IllegalStateException("the stats are not enabled");
+        }
+        final long bitsNotRead = (long) (count - pos) * BITS_PER_BYTE + bufferLength;
+        final long bits = bitsBufferedBeforeStats + instrumented.bytes * BITS_PER_BYTE - bitsNotRead;
+        return new BitStreamStats(bits, instrumented.operations, instrumented.bytes, instrumented.nanos,
+                instrumented.endsOfStream);
+    }
+
     /**
      * Reads a binary String representing the next {@code length} bits in this stream.
      *
@@ -349,4 +471,73 @@ public class BitInputStream extends BufferedInputStream {
             return null;
         }
     }
+
+    /**
+     * Counts and times the operations performed on the underlying stream. The counters are only
+     * updated and read while holding the lock of the {@link BitInputStream}.
+     */
+    private static class InstrumentedInputStream extends FilterInputStream {
+
+        private long operations;
+
+        private long bytes;
+
+        private long nanos;
+
+        private long endsOfStream;
+
+        InstrumentedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            final int octet = in.read();
+            record(event, "read", octet == -1 ? -1 : 1, start);
+            return octet;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            final int numRead = in.read(b, off, len);
+            record(event, "read", numRead, start);
+            return numRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            final long skipped = in.skip(n);
+            record(event, "skip", skipped, start);
+            return skipped;
+        }
+
+        /**
+         * Updates the counters after an operation.
+         *
+         * @param event
+         *            the Flight Recorder event of the operation, may be {@code null}
+         * @param operation
+         *            the name of the operation
+         * @param count
+         *            the number of bytes transferred, or -1 if the end of stream was reached
+         * @param start
+         *            the value of {@link System#nanoTime()} before the operation
+         */
+        private void record(Object event, String operation, long count, long start) {
+            nanos += System.nanoTime() - start;
+            operations++;
+            if (count == -1) {
+                endsOfStream++;
+            } else {
+                bytes += count;
+            }
+            BitStreamEvents.commit(event, operation, Math.max(count, 0), count == -1);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package org.hildan.utils.io.binary;
 
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -11,10 +12,32 @@ import java.io.OutputStream;
  */
 public class BitOutputStream extends BufferedOutputStream {
 
+    /**
+     * The maximum number of longs converted to bytes at once by {@link #writeLongs(long[], int, int)}.
+     */
+    private static final int BULK_LONGS = 512;
+
     private long buffer = 0;
 
     private int bufferLength = 0;
 
+    /**
+     * The instrumented underlying stream, or {@code null} if the counters are not enabled.
+     */
+    private InstrumentedOutputStream instrumented;
+
+    /**
+     * The number of bits that were already buffered when the counters were enabled.
+     */
+    private long bitsBufferedBeforeStats;
+
+    /**
+     * The bits written by {@link #flush()} to complete a partial byte since the counters were
+     * enabled. They are not bits written to this stream: the written byte is padded with 0s, and
+     * its pending bits are still in the buffer.
+     */
+    private long paddingBits;
+
     /**
      * Creates a new {@link BitOutputStream} wrapping the specified {@link OutputStream}.
      *
@@ -141,11 +164,101 @@ public class BitOutputStream extends BufferedOutputStream {
         }
     }
 
+    /**
+     * Writes the specified longs to this stream, as {@link #writeLong(long)} would do for each of
+     * them. The longs are converted to bytes in bulk, and written at once to the underlying
+     * buffer, even if this stream is not aligned on a byte boundary.
+     *
+     * @param values
+     *            the array containing the longs to write
+     * @param offset
+     *            the index of the first long to write
+     * @param length
+     *            the number of longs to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public synchronized void writeLongs(long[] values, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > values.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        // the pending bits are always fewer than 8
+        final int pendingLength = bufferLength;
+        final long pendingMask = (1L << pendingLength) - 1;
+        final byte[] bytes = new byte[Math.min(length, BULK_LONGS) * Long.BYTES];
+        int i = 0;
+        while (i < length) {
+            final int n = Math.min(length - i, BULK_LONGS);
+            int p = 0;
+            for (int k = 0; k < n; k++) {
+                final long value = values[offset + i + k];
+                // the pending bits are followed by the bits of the value, and its last bits are pending
+                bytes[p++] = (byte) (buffer << Byte.SIZE - pendingLength | value >>> Long.SIZE - Byte.SIZE
+                        + pendingLength);
+                for (int j = 1; j < Long.BYTES; j++) {
+                    bytes[p++] = (byte) (value >>> Long.SIZE - Byte.SIZE * (j + 1) + pendingLength);
+                }
+                buffer = value & pendingMask;
+            }
+            super.write(bytes, 0, p);
+            i += n;
+        }
+    }
+
+    /**
+     * Writes 0s up to the next byte boundary, so that the next bit is written at the beginning of
+     * a byte. Nothing is written if this stream is already aligned.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public synchronized void alignToByte() throws IOException {
+        if (bufferLength % Byte.SIZE != 0) {
+            writeBits(0, Byte.SIZE - bufferLength % Byte.SIZE);
+        }
+    }
+
+    /**
+     * Starts counting the bits written to this stream and the operations performed on the
+     * underlying stream, and emitting a JDK Flight Recorder event for each of these operations
+     * (see {@link #getStats()}). The counters are disabled by default, in which case nothing is
+     * measured at all. Calling this method again has no effect.
+     */
+    public synchronized void enableStats() {
+        if (instrumented != null) {
+            return;
+        }
+        instrumented = new InstrumentedOutputStream(out);
+        out = instrumented;
+        bitsBufferedBeforeStats = (long) count * Byte.SIZE + bufferLength;
+    }
+
+    /**
+     * Returns the current values of the counters of this stream. The bits written are deduced from
+     * the bytes written to the underlying stream and the content of the buffers, so that writing
+     * bits costs nothing more when the counters are enabled.
+     *
+     * @return an immutable snapshot of the counters since {@link #enableStats()} was called
+     * @throws IllegalStateException
+     *             if the counters are not enabled
+     */
+    public synchronized BitStreamStats getStats() {
+        if (instrumented == null) {
+            throw new IllegalStateException("the stats are not enabled");
+        }
+        final long bitsBuffered = (long) count * Byte.SIZE + bufferLength;
+        final long bits = instrumented.bytes * Byte.SIZE + bitsBuffered - bitsBufferedBeforeStats - paddingBits;
+        return new BitStreamStats(bits, instrumented.operations, instrumented.bytes, instrumented.nanos, 0);
+    }
+
     @Override
     public synchronized void flush() throws IOException {
         writeBufferExcess();
         if (bufferLength > 0) {
             super.write((int) (buffer << 8 - bufferLength));
+            if (instrumented != null) {
+                paddingBits += Byte.SIZE;
+            }
         }
         super.flush();
     }
@@ -250,4 +363,64 @@ public class BitOutputStream extends BufferedOutputStream {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Counts and times the operations performed on the underlying stream. The counters are only
+     * updated and read while holding the lock of the {@link BitOutputStream}.
+     */
+    private static class InstrumentedOutputStream extends FilterOutputStream {
+
+        private long operations;
+
+        private long bytes;
+
+        private long nanos;
+
+        InstrumentedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            out.write(b);
+            record(event, "write", 1, start);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            out.write(b, off, len);
+            record(event, "write", len, start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final Object event = BitStreamEvents.begin();
+            final long start = System.nanoTime();
+            out.flush();
+            record(event, "flush", 0, start);
+        }
+
+        /**
+         * Updates the counters after an operation.
+         *
+         * @param event
+         *            the Flight Recorder event of the operation, may be {@code null}
+         * @param operation
+         *            the name of the operation
+         * @param count
+         *            the number of bytes written
+         * @param start
+         *            the value of {@link System#nanoTime()} before the operation
+         */
+        private void record(Object event, String operation, int count, long start) {
+            nanos += System.nanoTime() - start;
+            operations++;
+            bytes += count;
+            BitStreamEvents.commit(event, operation, count, false);
+        }
+    }
 }
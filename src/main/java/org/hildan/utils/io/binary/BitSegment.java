@@ -0,0 +1,214 @@
+package org.hildan.utils.io.binary;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An in-memory sequence of bits, written most significant bit first, as {@link BitOutputStream}
+ * does. A {@code BitSegment} is meant to be filled by a single thread, and is therefore not
+ * synchronized.
+ * <p>
+ * The bits are stored in an array of longs, the first bit being the most significant bit of the
+ * first long, and the unused bits of the last long being always 0. This way, segments can be
+ * appended to each other, or to a stream, a whole long at a time, even when they do not end on a
+ * byte boundary.
+ *
+ * @see SegmentedBitWriter
+ */
+public class BitSegment {
+
+    private long[] words;
+
+    private long bitLength;
+
+    /**
+     * Creates a new empty {@code BitSegment}.
+     */
+    public BitSegment() {
+        this(16);
+    }
+
+    /**
+     * Creates a new empty {@code BitSegment}.
+     *
+     * @param initialCapacity
+     *            the initial capacity, in longs
+     */
+    public BitSegment(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + initialCapacity);
+        }
+        words = new long[Math.max(2, initialCapacity)];
+    }
+
+    /**
+     * Returns the number of bits written to this segment.
+     *
+     * @return the length of this segment in bits
+     */
+    public long getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * Removes all the bits of this segment, so that it can be reused.
+     */
+    public void clear() {
+        Arrays.fill(words, 0, wordCount(), 0);
+        bitLength = 0;
+    }
+
+    /**
+     * Writes the specified bit to this segment.
+     *
+     * @param bit
+     *            the bit to write, as an int
+     */
+    public void writeBit(int bit) {
+        if (bit != 0 && bit != 1) {
+            throw new IllegalArgumentException("the specified bit is neither 0 nor 1");
+        }
+        writeBits(bit, 1);
+    }
+
+    /**
+     * Writes the specified bits to this segment.
+     *
+     * @param value
+     *            the value of the bits to write
+     * @param nBits
+     *            the number of bits to write. Must not exceed {@link Long#SIZE}. The least
+     *            significant (right-most) bits are taken from the input value.
+     */
+    public void writeBits(long value, int nBits) {
+        if (nBits < 0 || nBits > Long.SIZE) {
+            throw new IllegalArgumentException("cannot write " + nBits + " bits at once");
+        }
+        if (nBits == 0) {
+            return;
+        }
+        final long bits = nBits == Long.SIZE ? value : value & (1L << nBits) - 1;
+        final int index = (int) (bitLength >>> 6);
+        final int free = Long.SIZE - ((int) bitLength & 63);
+        ensureCapacity(index + 2);
+        if (nBits <= free) {
+            words[index] |= bits << free - nBits;
+        } else {
+            words[index] |= bits >>> nBits - free;
+            words[index + 1] = bits << Long.SIZE - (nBits - free);
+        }
+        bitLength += nBits;
+    }
+
+    /**
+     * Writes the specified long to this segment, on 64 bits.
+     *
+     * @param value
+     *            the long to write
+     */
+    public void writeLong(long value) {
+        writeBits(value, Long.SIZE);
+    }
+
+    /**
+     * Writes the specified longs to this segment, on 64 bits each.
+     *
+     * @param values
+     *            the array containing the longs to write
+     * @param offset
+     *            the index of the first long to write
+     * @param length
+     *            the number of longs to write
+     */
+    public void writeLongs(long[] values, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > values.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        appendWords(values, offset, length, (long) length * Long.SIZE);
+    }
+
+    /**
+     * Appends the bits of the specified segment to this segment. The bits are shifted a long at a
+     * time if this segment does not end on a long boundary.
+     *
+     * @param segment
+     *            the segment to append, which is not modified
+     */
+    public void append(BitSegment segment) {
+        // a segment appended to itself is modified while being read
+        final long[] src = segment == this ? words.clone() : segment.words;
+        appendWords(src, 0, segment.wordCount(), segment.bitLength);
+    }
+
+    /**
+     * Appends the specified number of bits from the specified longs, the unused bits of the last
+     * long being 0.
+     */
+    private void appendWords(long[] src, int offset, int length, long nBits) {
+        final int index = (int) (bitLength >>> 6);
+        final int shift = (int) bitLength & 63;
+        ensureCapacity(index + length + 1);
+        if (shift == 0) {
+            System.arraycopy(src, offset, words, index, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                final long word = src[offset + i];
+                words[index + i] |= word >>> shift;
+                words[index + i + 1] = word << Long.SIZE - shift;
+            }
+        }
+        bitLength += nBits;
+    }
+
+    /**
+     * Writes the bits of this segment to the specified stream. The stream does not need to be
+     * aligned on a byte boundary, and is not padded after the bits of this segment.
+     *
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void writeTo(BitOutputStream out) throws IOException {
+        final int fullWords = (int) (bitLength >>> 6);
+        final int remainingBits = (int) bitLength & 63;
+        out.writeLongs(words, 0, fullWords);
+        if (remainingBits > 0) {
+            out.writeBits(words[fullWords] >>> Long.SIZE - remainingBits, remainingBits);
+        }
+    }
+
+    /**
+     * Returns the bits of this segment as bytes. The last byte is padded with 0s if the length of
+     * this segment is not a multiple of 8.
+     *
+     * @return a new array containing the bytes of this segment
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[(int) ((bitLength + Byte.SIZE - 1) / Byte.SIZE)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> Long.SIZE - Byte.SIZE * ((i & 7) + 1));
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the internal array of longs, for {@link SegmentedBitWriter}.
+     */
+    long[] words() {
+        return words;
+    }
+
+    /**
+     * Returns the number of longs containing the bits of this segment.
+     */
+    int wordCount() {
+        return (int) ((bitLength + Long.SIZE - 1) >>> 6);
+    }
+
+    private void ensureCapacity(int wordCount) {
+        if (wordCount > words.length) {
+            words = Arrays.copyOf(words, Math.max(wordCount, 2 * words.length));
+        }
+    }
+}
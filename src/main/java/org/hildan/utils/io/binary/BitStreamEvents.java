@@ -0,0 +1,162 @@
+package org.hildan.utils.io.binary;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits a JDK Flight Recorder event for each operation performed on the underlying stream of an
+ * instrumented bit stream. The event is named {@value #EVENT_NAME}, and has the fields
+ * {@code operation} ("read", "skip", "write" or "flush"), {@code bytes} and {@code endOfStream},
+ * its duration being the time spent in the operation.
+ * <p>
+ * The Flight Recorder API only exists since Java 9, and this project targets Java 8, so the event
+ * type is defined dynamically by reflection. On older runtimes, or if the definition fails, no
+ * event is emitted. The events are only created while a recording enables them, so that the
+ * instrumented streams do not pay for the events the rest of the time.
+ */
+final class BitStreamEvents {
+
+    static final String EVENT_NAME = "org.hildan.utils.io.binary.BitStreamIO";
+
+    private static final int OPERATION = 0;
+
+    private static final int BYTES = 1;
+
+    private static final int END_OF_STREAM = 2;
+
+    private static final Object FACTORY;
+
+    /**
+     * The {@code jdk.jfr.EventType} of the events, to check whether they are enabled.
+     */
+    private static final Object EVENT_TYPE;
+
+    private static final Method IS_ENABLED;
+
+    private static final Method NEW_EVENT;
+
+    private static final Method BEGIN;
+
+    private static final Method END;
+
+    private static final Method SHOULD_COMMIT;
+
+    private static final Method SET;
+
+    private static final Method COMMIT;
+
+    static {
+        Object factory = null;
+        Object eventType = null;
+        Method isEnabled = null;
+        Method newEvent = null;
+        Method begin = null;
+        Method end = null;
+        Method shouldCommit = null;
+        Method set = null;
+        Method commit = null;
+        try {
+            final Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            final Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+            final Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class,
+                    String.class);
+            final List<?> annotations = Arrays.asList(
+                    annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME),
+                    annotation.newInstance(Class.forName("jdk.jfr.Label"), "Bit Stream I/O"),
+                    annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"I/O", "Bit Streams"}),
+                    annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), false));
+            // the order of the fields must match OPERATION, BYTES and END_OF_STREAM
+            final List<?> fields = Arrays.asList(field.newInstance(String.class, "operation"),
+                    field.newInstance(long.class, "bytes"), field.newInstance(boolean.class, "endOfStream"));
+            final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            eventType = factoryClass.getMethod("getEventType").invoke(factory);
+            isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            newEvent = factoryClass.getMethod("newEvent");
+            begin = eventClass.getMethod("begin");
+            end = eventClass.getMethod("end");
+            shouldCommit = eventClass.getMethod("shouldCommit");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+        } catch (final ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Flight Recorder not available
+            factory = null;
+        }
+        FACTORY = factory;
+        EVENT_TYPE = eventType;
+        IS_ENABLED = isEnabled;
+        NEW_EVENT = newEvent;
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    private BitStreamEvents() {
+    }
+
+    /**
+     * Returns whether the events can be emitted on this runtime.
+     *
+     * @return {@code true} if the Flight Recorder API is available
+     */
+    static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Starts timing a new event, if a recording enables the events.
+     *
+     * @return the new event, to give to {@link #commit(Object, String, long, boolean)}, or
+     *         {@code null} if the events are not available or not enabled
+     */
+    static Object begin() {
+        if (FACTORY == null) {
+            return null;
+        }
+        try {
+            if (!(Boolean) IS_ENABLED.invoke(EVENT_TYPE)) {
+                return null;
+            }
+            final Object event = NEW_EVENT.invoke(FACTORY);
+            BEGIN.invoke(event);
+            return event;
+        } catch (final ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ends the specified event, and commits it if it is enabled and long enough for the current
+     * recordings.
+     *
+     * @param event
+     *            the event returned by {@link #begin()}, may be {@code null}
+     * @param operation
+     *            the name of the operation performed on the underlying stream
+     * @param bytes
+     *            the number of bytes transferred
+     * @param endOfStream
+     *            whether the end of the underlying stream was reached
+     */
+    static void commit(Object event, String operation, long bytes, boolean endOfStream) {
+        if (event == null) {
+            return;
+        }
+        try {
+            END.invoke(event);
+            if ((Boolean) SHOULD_COMMIT.invoke(event)) {
+                SET.invoke(event, OPERATION, operation);
+                SET.invoke(event, BYTES, bytes);
+                SET.invoke(event, END_OF_STREAM, endOfStream);
+                COMMIT.invoke(event);
+            }
+        } catch (final ReflectiveOperationException e) {
+            // the event is lost, but the I/O must not fail because of it
+        }
+    }
+}
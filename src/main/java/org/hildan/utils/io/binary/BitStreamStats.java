@@ -0,0 +1,85 @@
+package org.hildan.utils.io.binary;
+
+/**
+ * An immutable snapshot of the counters of a {@link BitInputStream} or a {@link BitOutputStream},
+ * separating the bits exchanged with the user of the stream from the I/O performed on the
+ * underlying stream.
+ *
+ * @see BitInputStream#enableStats()
+ * @see BitOutputStream#enableStats()
+ */
+public class BitStreamStats {
+
+    private final long bits;
+
+    private final long underlyingOperations;
+
+    private final long underlyingBytes;
+
+    private final long blockingNanos;
+
+    private final long endsOfStream;
+
+    BitStreamStats(long bits, long underlyingOperations, long underlyingBytes, long blockingNanos, long endsOfStream) {
+        this.bits = bits;
+        this.underlyingOperations = underlyingOperations;
+        this.underlyingBytes = underlyingBytes;
+        this.blockingNanos = blockingNanos;
+        this.endsOfStream = endsOfStream;
+    }
+
+    /**
+     * Returns the number of bits read from or written to the bit stream since the counters were
+     * enabled. For an input stream, this is the net number of bits consumed: bits read again
+     * after a {@link BitInputStream#reset()} are not counted twice.
+     *
+     * @return the number of bits read or written
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns the number of calls to the underlying stream: the refills of the buffer for an
+     * input stream, and the flushes of the buffer for an output stream.
+     *
+     * @return the number of operations on the underlying stream
+     */
+    public long getUnderlyingOperations() {
+        return underlyingOperations;
+    }
+
+    /**
+     * Returns the number of bytes read from or written to the underlying stream.
+     *
+     * @return the number of bytes exchanged with the underlying stream
+     */
+    public long getUnderlyingBytes() {
+        return underlyingBytes;
+    }
+
+    /**
+     * Returns the time spent waiting for the underlying stream.
+     *
+     * @return the cumulated duration of the operations on the underlying stream, in nanoseconds
+     */
+    public long getBlockingNanos() {
+        return blockingNanos;
+    }
+
+    /**
+     * Returns the number of times the end of the underlying stream was reached. This is always 0
+     * for an output stream.
+     *
+     * @return the number of reads of the underlying stream that returned the end of stream
+     */
+    public long getEndsOfStream() {
+        return endsOfStream;
+    }
+
+    @Override
+    public String toString() {
+        return "bits=" + bits + ", underlyingOperations=" + underlyingOperations + ", underlyingBytes="
+                + underlyingBytes + ", blockingNanos=" + blockingNanos + ", endsOfStream=" + endsOfStream;
+    }
+}
@@ -0,0 +1,1198 @@
+package org.hildan.utils.io.binary;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, in the manner of Roaring bitmaps. This is a compact
+ * alternative to {@link BitSet} for sparse or clustered values.
+ * <p>
+ * The values are split in chunks of 65536 values sharing the same 16 high bits. Each non-empty
+ * chunk is stored in the container that fits its content:
+ * <ul>
+ * <li>a sorted array of 16-bit values, for chunks of at most 4096 values,</li>
+ * <li>a bitmap of 1024 longs, for denser chunks,</li>
+ * <li>a list of runs of consecutive values, for chunks converted by {@link #runOptimize()} or
+ * filled by {@link #add(int, int)}.</li>
+ * </ul>
+ * The operations {@link #and(CompressedBitmap)}, {@link #or(CompressedBitmap)} and
+ * {@link #andNot(CompressedBitmap)} only combine the containers of the chunks present in both
+ * operands, using word operations between bitmaps and merges or lookups for arrays.
+ * <p>
+ * The serialized form written by {@link #writeTo(BitOutputStream)} does not depend on the
+ * platform. It starts on a byte boundary, with the number of containers as an int. Each container
+ * then has a 5-byte header (the 16 high bits of its chunk, its type on 8 bits, and its cardinality
+ * or number of runs minus one on 16 bits), followed by its content as longs, which are copied in
+ * bulk by {@link BitOutputStream#writeLongs(long[], int, int)}. The 16-bit values of arrays and
+ * runs are packed 4 per long.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class CompressedBitmap {
+
+    /**
+     * The number of low bits of the values stored in the containers.
+     */
+    private static final int CHUNK_BITS = 16;
+
+    private static final int LOW_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int BITMAP_WORDS = CHUNK_SIZE / Long.SIZE;
+
+    /**
+     * The maximum number of values of an array container. A bitmap container is smaller beyond.
+     */
+    private static final int MAX_ARRAY_CARDINALITY = 4096;
+
+    /**
+     * The maximum number of containers, the values being non-negative ints.
+     */
+    private static final int MAX_CONTAINERS = 1 << Integer.SIZE - 1 - CHUNK_BITS;
+
+    private static final int TYPE_ARRAY = 0;
+
+    private static final int TYPE_BITMAP = 1;
+
+    private static final int TYPE_RUN = 2;
+
+    /**
+     * The 16 high bits of the values of each container, in increasing order.
+     */
+    private char[] keys;
+
+    private Container[] containers;
+
+    private int size;
+
+    /**
+     * Creates a new empty {@code CompressedBitmap}.
+     */
+    public CompressedBitmap() {
+        this(4);
+    }
+
+    private CompressedBitmap(int capacity) {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * Creates a new {@code CompressedBitmap} containing the specified values.
+     *
+     * @param values
+     *            the values to add, in any order
+     * @return a new bitmap containing the specified values
+     * @throws IndexOutOfBoundsException
+     *             if one of the values is negative
+     */
+    public static CompressedBitmap of(int... values) {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        for (final int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Creates a new {@code CompressedBitmap} containing the indexes of the bits set in the specified
+     * {@link BitSet}. Each chunk of the {@link BitSet} is converted as a whole.
+     *
+     * @param bits
+     *            the {@link BitSet} to convert
+     * @return a new bitmap containing the same values
+     */
+    public static CompressedBitmap fromBitSet(BitSet bits) {
+        final long[] words = bits.toLongArray();
+        final CompressedBitmap bitmap = new CompressedBitmap((words.length + BITMAP_WORDS - 1) / BITMAP_WORDS);
+        for (int offset = 0; offset < words.length; offset += BITMAP_WORDS) {
+            final int end = Math.min(words.length, offset + BITMAP_WORDS);
+            int cardinality = 0;
+            for (int i = offset; i < end; i++) {
+                cardinality += Long.bitCount(words[i]);
+            }
+            if (cardinality == 0) {
+                continue;
+            }
+            final BitmapContainer container = new BitmapContainer();
+            System.arraycopy(words, offset, container.words, 0, end - offset);
+            container.cardinality = cardinality;
+            bitmap.append((char) (offset / BITMAP_WORDS), container.shrink());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a new {@link BitSet} containing the values of this bitmap.
+     *
+     * @return a new {@link BitSet} with the bits of the values of this bitmap set
+     */
+    public BitSet toBitSet() {
+        if (size == 0) {
+            return new BitSet();
+        }
+        final long[] words = new long[(keys[size - 1] + 1) * BITMAP_WORDS];
+        for (int i = 0; i < size; i++) {
+            containers[i].setBits(words, keys[i] * BITMAP_WORDS);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Adds the specified value to this bitmap.
+     *
+     * @param value
+     *            the value to add
+     * @throws IndexOutOfBoundsException
+     *             if the value is negative
+     */
+    public void add(int value) {
+        checkValue(value);
+        final char key = (char) (value >>> CHUNK_BITS);
+        final int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0) {
+            containers[i] = containers[i].add(value & LOW_MASK);
+        } else {
+            insert(-i - 1, key, new ArrayContainer(4).add(value & LOW_MASK));
+        }
+    }
+
+    /**
+     * Adds the values from {@code fromValue} (inclusive) to {@code toValue} (exclusive) to this
+     * bitmap. The chunks that were empty are stored as runs.
+     *
+     * @param fromValue
+     *            the first value to add
+     * @param toValue
+     *            the value after the last value to add
+     * @throws IndexOutOfBoundsException
+     *             if {@code fromValue} is negative, or greater than {@code toValue}
+     */
+    public void add(int fromValue, int toValue) {
+        checkValue(fromValue);
+        if (fromValue > toValue) {
+            throw new IndexOutOfBoundsException("fromValue: " + fromValue + " > toValue: " + toValue);
+        }
+        if (fromValue == toValue) {
+            return;
+        }
+        final int lastValue = toValue - 1;
+        for (int key = fromValue >>> CHUNK_BITS; key <= lastValue >>> CHUNK_BITS; key++) {
+            final int start = key == fromValue >>> CHUNK_BITS ? fromValue & LOW_MASK : 0;
+            final int last = key == lastValue >>> CHUNK_BITS ? lastValue & LOW_MASK : LOW_MASK;
+            final Container run = new RunContainer(new char[] {(char) start, (char) (last - start)}, 1);
+            final int i = Arrays.binarySearch(keys, 0, size, (char) key);
+            if (i >= 0) {
+                containers[i] = or(containers[i], run);
+            } else {
+                insert(-i - 1, (char) key, run);
+            }
+        }
+    }
+
+    /**
+     * Removes the specified value from this bitmap.
+     *
+     * @param value
+     *            the value to remove
+     * @return {@code true} if the value was present in this bitmap
+     */
+    public boolean remove(int value) {
+        if (!contains(value)) {
+            return false;
+        }
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> CHUNK_BITS));
+        final Container container = containers[i].remove(value & LOW_MASK);
+        if (container.cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            containers[--size] = null;
+        } else {
+            containers[i] = container;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the specified value is in this bitmap.
+     *
+     * @param value
+     *            the value to look for
+     * @return {@code true} if the value is in this bitmap, {@code false} otherwise, including when
+     *         it is negative
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> CHUNK_BITS));
+        return i >= 0 && containers[i].contains(value & LOW_MASK);
+    }
+
+    /**
+     * Returns the number of values in this bitmap.
+     *
+     * @return the number of values in this bitmap
+     */
+    public long cardinality() {
+        long cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns whether this bitmap contains no values.
+     *
+     * @return {@code true} if this bitmap is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the intersection of this bitmap and the specified bitmap. Neither bitmap is modified.
+     *
+     * @param other
+     *            the bitmap to intersect with this one
+     * @return a new bitmap containing the values present in both bitmaps
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(Math.max(1, Math.min(size, other.size)));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Container container = and(containers[i], other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the union of this bitmap and the specified bitmap. Neither bitmap is modified.
+     *
+     * @param other
+     *            the bitmap to merge with this one
+     * @return a new bitmap containing the values present in at least one of the bitmaps
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(Math.max(1, size + other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the difference of this bitmap and the specified bitmap. Neither bitmap is modified.
+     *
+     * @param other
+     *            the bitmap containing the values to exclude
+     * @return a new bitmap containing the values of this bitmap that are not in {@code other}
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap(Math.max(1, size));
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j < other.size && other.keys[j] == keys[i]) {
+                final Container container = andNot(containers[i], other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(keys[i], container);
+                }
+            } else {
+                result.append(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts the containers that are smaller as runs of consecutive values. This is worth
+     * calling before serializing bitmaps made of long ranges.
+     *
+     * @return {@code true} if at least one container was converted
+     */
+    public boolean runOptimize() {
+        boolean changed = false;
+        for (int i = 0; i < size; i++) {
+            final Container container = containers[i];
+            if (container instanceof RunContainer) {
+                continue;
+            }
+            final int runCount = container.runCount();
+            // sizes in bytes of the serialized content
+            final int runSize = runCount * 2 * Character.BYTES;
+            final int currentSize = container instanceof ArrayContainer ? container.cardinality() * Character.BYTES
+                    : BITMAP_WORDS * Long.BYTES;
+            if (runSize < currentSize) {
+                containers[i] = container.toRuns(runCount);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Calls the specified action for each value of this bitmap, in increasing order.
+     *
+     * @param action
+     *            the action to call for each value
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << CHUNK_BITS, action);
+        }
+    }
+
+    /**
+     * Returns the values of this bitmap as an array.
+     *
+     * @return a new array containing the values of this bitmap, in increasing order
+     */
+    public int[] toArray() {
+        final int[] values = new int[Math.toIntExact(cardinality())];
+        final int[] index = {0};
+        forEach(value -> values[index[0]++] = value);
+        return values;
+    }
+
+    /**
+     * Writes this bitmap to the specified stream, starting on the next byte boundary. The content
+     * of the containers is copied to the stream as longs in bulk.
+     *
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void writeTo(BitOutputStream out) throws IOException {
+        out.alignToByte();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            final Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeByte((byte) container.type());
+            container.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads a bitmap written by {@link #writeTo(BitOutputStream)} from the specified stream,
+     * starting on the next byte boundary.
+     *
+     * @param in
+     *            the stream to read from
+     * @return the bitmap read from the stream
+     * @throws IllegalStateException
+     *             if the end of the stream is reached before the end of the bitmap
+     * @throws IOException
+     *             if an I/O error occurs, or if the data is not a valid bitmap
+     */
+    public static CompressedBitmap readFrom(BitInputStream in) throws IOException {
+        in.alignToByte();
+        final int size = in.readInt();
+        if (size < 0 || size > MAX_CONTAINERS) {
+            throw new IOException("invalid bitmap: " + size + " containers");
+        }
+        final CompressedBitmap bitmap = new CompressedBitmap(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            final char key = in.readChar();
+            if (key >= MAX_CONTAINERS || i > 0 && key <= bitmap.keys[i - 1]) {
+                throw new IOException("invalid bitmap: container " + (int) key + " out of order");
+            }
+            final int type = in.readByte() & 0xFF;
+            final int count = in.readChar() + 1;
+            final Container container;
+            switch (type) {
+            case TYPE_ARRAY:
+                container = ArrayContainer.readFrom(in, count);
+                break;
+            case TYPE_BITMAP:
+                container = BitmapContainer.readFrom(in, count);
+                break;
+            case TYPE_RUN:
+                container = RunContainer.readFrom(in, count);
+                break;
+            default:
+                throw new IOException("invalid bitmap: unknown container type " + type);
+            }
+            bitmap.append(key, container);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompressedBitmap)) {
+            return false;
+        }
+        final CompressedBitmap other = (CompressedBitmap) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !containers[i].sameValues(other.containers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hash = {1};
+        forEach(value -> hash[0] = 31 * hash[0] + value);
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        forEach(value -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        });
+        return sb.append('}').toString();
+    }
+
+    private static void checkValue(int value) {
+        if (value < 0) {
+            throw new IndexOutOfBoundsException("value < 0: " + value);
+        }
+    }
+
+    /**
+     * Adds a container after the last one.
+     */
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private static Container and(Container c1, Container c2) {
+        final Container a = c1.normalize();
+        final Container b = c2.normalize();
+        if (a instanceof ArrayContainer) {
+            if (b instanceof ArrayContainer) {
+                return ((ArrayContainer) a).and((ArrayContainer) b);
+            }
+            return ((ArrayContainer) a).filter((BitmapContainer) b, true);
+        }
+        if (b instanceof ArrayContainer) {
+            return ((ArrayContainer) b).filter((BitmapContainer) a, true);
+        }
+        final long[] wordsA = ((BitmapContainer) a).words;
+        final long[] wordsB = ((BitmapContainer) b).words;
+        final BitmapContainer result = new BitmapContainer();
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            final long word = wordsA[i] & wordsB[i];
+            result.words[i] = word;
+            cardinality += Long.bitCount(word);
+        }
+        result.cardinality = cardinality;
+        return result.shrink();
+    }
+
+    private static Container or(Container c1, Container c2) {
+        final Container a = c1.normalize();
+        final Container b = c2.normalize();
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer) {
+            final ArrayContainer arrayA = (ArrayContainer) a;
+            final ArrayContainer arrayB = (ArrayContainer) b;
+            if (arrayA.cardinality + arrayB.cardinality <= MAX_ARRAY_CARDINALITY) {
+                return arrayA.or(arrayB);
+            }
+            return arrayA.toBitmap().addAll(arrayB).shrink();
+        }
+        if (a instanceof ArrayContainer) {
+            return ((BitmapContainer) b).copy().addAll((ArrayContainer) a);
+        }
+        if (b instanceof ArrayContainer) {
+            return ((BitmapContainer) a).copy().addAll((ArrayContainer) b);
+        }
+        final long[] wordsA = ((BitmapContainer) a).words;
+        final long[] wordsB = ((BitmapContainer) b).words;
+        final BitmapContainer result = new BitmapContainer();
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            final long word = wordsA[i] | wordsB[i];
+            result.words[i] = word;
+            cardinality += Long.bitCount(word);
+        }
+        result.cardinality = cardinality;
+        return result;
+    }
+
+    private static Container andNot(Container c1, Container c2) {
+        final Container a = c1.normalize();
+        final Container b = c2.normalize();
+        if (a instanceof ArrayContainer) {
+            if (b instanceof ArrayContainer) {
+                return ((ArrayContainer) a).andNot((ArrayContainer) b);
+            }
+            return ((ArrayContainer) a).filter((BitmapContainer) b, false);
+        }
+        if (b instanceof ArrayContainer) {
+            return ((BitmapContainer) a).copy().removeAll((ArrayContainer) b).shrink();
+        }
+        final long[] wordsA = ((BitmapContainer) a).words;
+        final long[] wordsB = ((BitmapContainer) b).words;
+        final BitmapContainer result = new BitmapContainer();
+        int cardinality = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            final long word = wordsA[i] & ~wordsB[i];
+            result.words[i] = word;
+            cardinality += Long.bitCount(word);
+        }
+        result.cardinality = cardinality;
+        return result.shrink();
+    }
+
+    /**
+     * Writes the specified 16-bit values packed 4 per long, the first one in the most significant
+     * bits.
+     */
+    private static void writePacked(BitOutputStream out, char[] values, int count) throws IOException {
+        final long[] words = new long[(count + 3) / 4];
+        for (int i = 0; i < count; i++) {
+            words[i >>> 2] |= (long) values[i] << Long.SIZE - Character.SIZE * ((i & 3) + 1);
+        }
+        out.writeLongs(words, 0, words.length);
+    }
+
+    /**
+     * Reads 16-bit values written by {@link #writePacked(BitOutputStream, char[], int)}.
+     */
+    private static char[] readPacked(BitInputStream in, int count) throws IOException {
+        final long[] words = new long[(count + 3) / 4];
+        in.readLongs(words, 0, words.length);
+        final char[] values = new char[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (char) (words[i >>> 2] >>> Long.SIZE - Character.SIZE * ((i & 3) + 1));
+        }
+        return values;
+    }
+
+    /**
+     * The values of one chunk, as their 16 low bits.
+     */
+    private abstract static class Container {
+
+        abstract int type();
+
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        /**
+         * Adds a value, and returns the container to use from now on, which may be this one.
+         */
+        abstract Container add(int low);
+
+        /**
+         * Removes a value, and returns the container to use from now on, which may be this one.
+         */
+        abstract Container remove(int low);
+
+        abstract Container copy();
+
+        /**
+         * Returns an array or bitmap container with the same values, depending only on the
+         * cardinality. This may be this container.
+         */
+        abstract Container normalize();
+
+        /**
+         * Returns the number of runs of consecutive values.
+         */
+        abstract int runCount();
+
+        abstract void forEach(int high, IntConsumer action);
+
+        /**
+         * Sets the bits of the values of this container in the specified words.
+         */
+        abstract void setBits(long[] words, int offset);
+
+        /**
+         * Writes the count and content of this container.
+         */
+        abstract void writeTo(BitOutputStream out) throws IOException;
+
+        RunContainer toRuns(int runCount) {
+            final char[] runs = new char[2 * runCount];
+            final int[] index = {-2};
+            forEach(0, low -> {
+                final int i = index[0];
+                if (i >= 0 && runs[i] + runs[i + 1] + 1 == low) {
+                    runs[i + 1]++;
+                } else {
+                    index[0] = i + 2;
+                    runs[i + 2] = (char) low;
+                }
+            });
+            return new RunContainer(runs, runCount);
+        }
+
+        boolean sameValues(Container other) {
+            final Container a = normalize();
+            final Container b = other.normalize();
+            if (a.cardinality() != b.cardinality()) {
+                return false;
+            }
+            if (a instanceof BitmapContainer) {
+                return Arrays.equals(((BitmapContainer) a).words, ((BitmapContainer) b).words);
+            }
+            final char[] valuesA = ((ArrayContainer) a).values;
+            final char[] valuesB = ((ArrayContainer) b).values;
+            for (int i = 0; i < a.cardinality(); i++) {
+                if (valuesA[i] != valuesB[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A sorted array of at most {@value #MAX_ARRAY_CARDINALITY} values.
+     */
+    private static final class ArrayContainer extends Container {
+
+        private char[] values;
+
+        private int cardinality;
+
+        ArrayContainer(int capacity) {
+            values = new char[capacity];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        static ArrayContainer readFrom(BitInputStream in, int count) throws IOException {
+            if (count > MAX_ARRAY_CARDINALITY) {
+                throw new IOException("invalid bitmap: array container of " + count + " values");
+            }
+            final char[] values = readPacked(in, count);
+            for (int i = 1; i < count; i++) {
+                if (values[i] <= values[i - 1]) {
+                    throw new IOException("invalid bitmap: array container not sorted");
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        int type() {
+            return TYPE_ARRAY;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == MAX_ARRAY_CARDINALITY) {
+                return toBitmap().add(low);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_CARDINALITY, Math.max(4, 2 * cardinality)));
+            }
+            final int index = -i - 1;
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = (char) low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        ArrayContainer copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        Container normalize() {
+            return this;
+        }
+
+        @Override
+        int runCount() {
+            int runCount = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (i == 0 || values[i] != values[i - 1] + 1) {
+                    runCount++;
+                }
+            }
+            return runCount;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < cardinality; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        void setBits(long[] words, int offset) {
+            for (int i = 0; i < cardinality; i++) {
+                final int low = values[i];
+                words[offset + (low >>> 6)] |= 1L << low;
+            }
+        }
+
+        @Override
+        void writeTo(BitOutputStream out) throws IOException {
+            out.writeChar((char) (cardinality - 1));
+            writePacked(out, values, cardinality);
+        }
+
+        BitmapContainer toBitmap() {
+            final BitmapContainer bitmap = new BitmapContainer();
+            setBits(bitmap.words, 0);
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        /**
+         * Returns the values of this container that are, or are not, in the specified bitmap.
+         */
+        ArrayContainer filter(BitmapContainer bitmap, boolean present) {
+            final ArrayContainer result = new ArrayContainer(cardinality);
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                final char low = values[i];
+                if (bitmap.contains(low) == present) {
+                    result.values[n++] = low;
+                }
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        ArrayContainer and(ArrayContainer other) {
+            final ArrayContainer small = cardinality <= other.cardinality ? this : other;
+            final ArrayContainer large = small == this ? other : this;
+            final ArrayContainer result = new ArrayContainer(small.cardinality);
+            int n = 0;
+            if (small.cardinality * 32 < large.cardinality) {
+                // binary searches in the large array are cheaper than a full merge
+                int from = 0;
+                for (int i = 0; i < small.cardinality && from < large.cardinality; i++) {
+                    final int j = Arrays.binarySearch(large.values, from, large.cardinality, small.values[i]);
+                    if (j >= 0) {
+                        result.values[n++] = small.values[i];
+                        from = j + 1;
+                    } else {
+                        from = -j - 1;
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    final char a = values[i];
+                    final char b = other.values[j];
+                    if (a < b) {
+                        i++;
+                    } else if (a > b) {
+                        j++;
+                    } else {
+                        result.values[n++] = a;
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        ArrayContainer or(ArrayContainer other) {
+            final ArrayContainer result = new ArrayContainer(cardinality + other.cardinality);
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < cardinality && j < other.cardinality) {
+                final char a = values[i];
+                final char b = other.values[j];
+                if (a <= b) {
+                    result.values[n++] = a;
+                    i++;
+                    if (a == b) {
+                        j++;
+                    }
+                } else {
+                    result.values[n++] = b;
+                    j++;
+                }
+            }
+            System.arraycopy(values, i, result.values, n, cardinality - i);
+            n += cardinality - i;
+            System.arraycopy(other.values, j, result.values, n, other.cardinality - j);
+            n += other.cardinality - j;
+            result.cardinality = n;
+            return result;
+        }
+
+        ArrayContainer andNot(ArrayContainer other) {
+            final ArrayContainer result = new ArrayContainer(cardinality);
+            int j = 0;
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                final char a = values[i];
+                while (j < other.cardinality && other.values[j] < a) {
+                    j++;
+                }
+                if (j == other.cardinality || other.values[j] != a) {
+                    result.values[n++] = a;
+                }
+            }
+            result.cardinality = n;
+            return result;
+        }
+    }
+
+    /**
+     * A bitmap of the 65536 possible values, with more than {@value #MAX_ARRAY_CARDINALITY} values.
+     */
+    private static final class BitmapContainer extends Container {
+
+        private final long[] words = new long[BITMAP_WORDS];
+
+        private int cardinality;
+
+        static BitmapContainer readFrom(BitInputStream in, int count) throws IOException {
+            final BitmapContainer bitmap = new BitmapContainer();
+            in.readLongs(bitmap.words, 0, BITMAP_WORDS);
+            for (final long word : bitmap.words) {
+                bitmap.cardinality += Long.bitCount(word);
+            }
+            if (bitmap.cardinality != count || count <= MAX_ARRAY_CARDINALITY) {
+                throw new IOException("invalid bitmap: bitmap container of " + bitmap.cardinality + " values");
+            }
+            return bitmap;
+        }
+
+        @Override
+        int type() {
+            return TYPE_BITMAP;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & 1L << low) != 0;
+        }
+
+        @Override
+        BitmapContainer add(int low) {
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return shrink();
+        }
+
+        @Override
+        BitmapContainer copy() {
+            final BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container normalize() {
+            return this;
+        }
+
+        @Override
+        int runCount() {
+            int runCount = 0;
+            long previous = 0;
+            for (final long word : words) {
+                // a run starts at each set bit whose previous bit is not set
+                runCount += Long.bitCount(word & ~(word << 1 | previous >>> Long.SIZE - 1));
+                previous = word;
+            }
+            return runCount;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | i * Long.SIZE + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void setBits(long[] dest, int offset) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                dest[offset + i] |= words[i];
+            }
+        }
+
+        @Override
+        void writeTo(BitOutputStream out) throws IOException {
+            out.writeChar((char) (cardinality - 1));
+            out.writeLongs(words, 0, BITMAP_WORDS);
+        }
+
+        /**
+         * Returns an array container with the same values if it is small enough, or this
+         * container.
+         */
+        Container shrink() {
+            if (cardinality > MAX_ARRAY_CARDINALITY) {
+                return this;
+            }
+            final char[] values = new char[cardinality];
+            final int[] index = {0};
+            forEach(0, low -> values[index[0]++] = (char) low);
+            return new ArrayContainer(values, cardinality);
+        }
+
+        BitmapContainer addAll(ArrayContainer array) {
+            for (int i = 0; i < array.cardinality; i++) {
+                add(array.values[i]);
+            }
+            return this;
+        }
+
+        BitmapContainer removeAll(ArrayContainer array) {
+            for (int i = 0; i < array.cardinality; i++) {
+                final int low = array.values[i];
+                final long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0) {
+                    words[low >>> 6] &= ~bit;
+                    cardinality--;
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Runs of consecutive values, as pairs of start value and length minus one. Run containers
+     * are never modified: adding or removing a value converts them to an array or a bitmap.
+     */
+    private static final class RunContainer extends Container {
+
+        private final char[] runs;
+
+        private final int runCount;
+
+        private final int cardinality;
+
+        RunContainer(char[] runs, int runCount) {
+            this.runs = runs;
+            this.runCount = runCount;
+            int cardinality = 0;
+            for (int i = 0; i < runCount; i++) {
+                cardinality += runs[2 * i + 1] + 1;
+            }
+            this.cardinality = cardinality;
+        }
+
+        static RunContainer readFrom(BitInputStream in, int count) throws IOException {
+            final char[] runs = readPacked(in, 2 * count);
+            int nextStart = 0;
+            for (int i = 0; i < count; i++) {
+                final int start = runs[2 * i];
+                final int end = start + runs[2 * i + 1] + 1;
+                if (start < nextStart || end > CHUNK_SIZE) {
+                    throw new IOException("invalid bitmap: run container with overlapping runs");
+                }
+                // adjacent runs would be a single run
+                nextStart = end + 1;
+            }
+            return new RunContainer(runs, count);
+        }
+
+        @Override
+        int type() {
+            return TYPE_RUN;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int lo = 0;
+            int hi = runCount - 1;
+            // finds the last run starting at or before the value
+            while (lo <= hi) {
+                final int mid = lo + hi >>> 1;
+                if (runs[2 * mid] <= low) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi >= 0 && low - runs[2 * hi] <= runs[2 * hi + 1];
+        }
+
+        @Override
+        Container add(int low) {
+            return contains(low) ? this : normalize().add(low);
+        }
+
+        @Override
+        Container remove(int low) {
+            return contains(low) ? normalize().remove(low) : this;
+        }
+
+        @Override
+        RunContainer copy() {
+            return this;
+        }
+
+        @Override
+        Container normalize() {
+            if (cardinality <= MAX_ARRAY_CARDINALITY) {
+                final char[] values = new char[cardinality];
+                final int[] index = {0};
+                forEach(0, low -> values[index[0]++] = (char) low);
+                return new ArrayContainer(values, cardinality);
+            }
+            final BitmapContainer bitmap = new BitmapContainer();
+            setBits(bitmap.words, 0);
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+
+        @Override
+        int runCount() {
+            return runCount;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < runCount; i++) {
+                final int start = high | runs[2 * i];
+                final int end = start + runs[2 * i + 1];
+                for (int value = start; value <= end; value++) {
+                    action.accept(value);
+                }
+            }
+        }
+
+        @Override
+        void setBits(long[] words, int offset) {
+            for (int i = 0; i < runCount; i++) {
+                final int from = runs[2 * i];
+                final int to = from + runs[2 * i + 1] + 1;
+                final int fromWord = offset + (from >>> 6);
+                final int toWord = offset + (to - 1 >>> 6);
+                final long firstMask = -1L << from;
+                final long lastMask = -1L >>> -to;
+                if (fromWord == toWord) {
+                    words[fromWord] |= firstMask & lastMask;
+                } else {
+                    words[fromWord] |= firstMask;
+                    Arrays.fill(words, fromWord + 1, toWord, -1L);
+                    words[toWord] |= lastMask;
+                }
+            }
+        }
+
+        @Override
+        void writeTo(BitOutputStream out) throws IOException {
+            out.writeChar((char) (runCount - 1));
+            writePacked(out, runs, 2 * runCount);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package org.hildan.utils.io.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * A decoder of raw DEFLATE data (RFC 1951), without zlib or gzip header. Unlike
+ * {@link java.util.zip.Inflater}, it reads its input through a {@link LsbFirstBitInputStream}, so
+ * that the compressed data may start at any bit position, and the position of the end of the
+ * compressed data is known exactly through {@link #getBitPosition()}.
+ * <p>
+ * The Huffman codes are decoded with lookup tables: a root table indexed by the next 9 bits (6 for
+ * distances), and sub-tables for the longer codes. The decoded bytes are kept in a window of
+ * {@value #WINDOW_SIZE} bytes followed by an output area, which is written to the output stream
+ * when it is full. Back-references that do not overlap their own output are copied with
+ * {@link System#arraycopy(Object, int, Object, int, int)}, and overlapping ones are copied by
+ * repeating the pattern in chunks of increasing size.
+ */
+public class DeflateDecoder {
+
+    /**
+     * The size of the window of previous bytes that back-references can refer to.
+     */
+    public static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int OUTPUT_SIZE = 64 * 1024;
+
+    private static final int MAX_MATCH_LENGTH = 258;
+
+    private static final int MAX_CODE_LENGTH = 15;
+
+    private static final int LITERAL_ROOT_BITS = 9;
+
+    private static final int DISTANCE_ROOT_BITS = 6;
+
+    private static final int CODE_LENGTH_ROOT_BITS = 7;
+
+    private static final int END_OF_BLOCK = 256;
+
+    /**
+     * The order in which the lengths of the code length code are stored.
+     */
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+            15};
+
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51,
+            59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+
+    private static final int[] LENGTH_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4,
+            4, 4, 4, 5, 5, 5, 5, 0};
+
+    private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+            513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+
+    private static final int[] DISTANCE_EXTRA_BITS = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9,
+            9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    private static final HuffmanTable FIXED_LITERAL_TABLE;
+
+    private static final HuffmanTable FIXED_DISTANCE_TABLE;
+
+    static {
+        final int[] literalLengths = new int[288];
+        Arrays.fill(literalLengths, 0, 144, 8);
+        Arrays.fill(literalLengths, 144, 256, 9);
+        Arrays.fill(literalLengths, 256, 280, 7);
+        Arrays.fill(literalLengths, 280, 288, 8);
+        final int[] distanceLengths = new int[30];
+        Arrays.fill(distanceLengths, 5);
+        try {
+            FIXED_LITERAL_TABLE = new HuffmanTable(literalLengths, 0, literalLengths.length, LITERAL_ROOT_BITS);
+            FIXED_DISTANCE_TABLE = new HuffmanTable(distanceLengths, 0, distanceLengths.length, DISTANCE_ROOT_BITS);
+        } catch (final ZipException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final LsbFirstBitInputStream in;
+
+    /**
+     * The window of previous bytes, followed by the bytes decoded but not written yet.
+     */
+    private final byte[] window = new byte[WINDOW_SIZE + OUTPUT_SIZE];
+
+    /**
+     * The position of the next byte to decode in {@link #window}.
+     */
+    private int position;
+
+    /**
+     * The position of the first byte not written yet in {@link #window}.
+     */
+    private int flushedPosition;
+
+    private boolean finished;
+
+    private long totalOut;
+
+    /**
+     * Creates a new {@code DeflateDecoder} reading compressed data from the current position of
+     * the specified stream.
+     *
+     * @param in
+     *            the stream to read the compressed data from
+     */
+    public DeflateDecoder(LsbFirstBitInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Creates a new {@code DeflateDecoder} reading compressed data starting at the specified bit
+     * position of the specified stream.
+     * <p>
+     * Unless it is already a {@link LsbFirstBitInputStream}, the stream is wrapped in one, which
+     * reads ahead of the compressed data. The end of the compressed data is then given by
+     * {@link #getBitPosition()}, from the current position of the stream when this decoder is
+     * created.
+     *
+     * @param in
+     *            the stream to read the compressed data from
+     * @param bitOffset
+     *            the number of bits to skip before the compressed data. Bits are numbered from the
+     *            least significant bit of each byte.
+     * @throws IOException
+     *             if an I/O error occurs while skipping the bits
+     */
+    public DeflateDecoder(InputStream in, long bitOffset) throws IOException {
+        this(in instanceof LsbFirstBitInputStream ? (LsbFirstBitInputStream) in : new LsbFirstBitInputStream(in));
+        if (this.in.skipBits(bitOffset) < bitOffset) {
+            throw new EOFException("the bit offset is beyond the end of the input");
+        }
+    }
+
+    /**
+     * Decompresses the specified raw DEFLATE data.
+     *
+     * @param data
+     *            the compressed data
+     * @return the decompressed bytes
+     * @throws IOException
+     *             if the data is not valid DEFLATE data
+     */
+    public static byte[] inflate(byte[] data) throws IOException {
+        return inflate(data, 0);
+    }
+
+    /**
+     * Decompresses the raw DEFLATE data starting at the specified bit position of the specified
+     * bytes.
+     * <p>
+     * The position of the end of the compressed data is not returned. To find it, for instance to
+     * decode concatenated members, use {@link #getBitPosition()} on a decoder created with
+     * {@link #DeflateDecoder(InputStream, long)} instead.
+     *
+     * @param data
+     *            the bytes containing the compressed data
+     * @param bitOffset
+     *            the position of the first bit of the compressed data. Bits are numbered from the
+     *            least significant bit of each byte.
+     * @return the decompressed bytes
+     * @throws IOException
+     *             if the data is not valid DEFLATE data
+     */
+    public static byte[] inflate(byte[] data, long bitOffset) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, data.length * 3));
+        new DeflateDecoder(new ByteArrayInputStream(data), bitOffset).inflate(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns whether the final block of the compressed data has been decoded.
+     *
+     * @return {@code true} if the end of the compressed data has been reached
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the number of decompressed bytes written so far.
+     *
+     * @return the number of decompressed bytes
+     */
+    public long getTotalOut() {
+        return totalOut;
+    }
+
+    /**
+     * Returns the position of the next bit of the input, which is right after the compressed data
+     * once the final block has been decoded. The position is the one of the
+     * {@link LsbFirstBitInputStream} the data is read from, so it includes the bit offset given to
+     * {@link #DeflateDecoder(InputStream, long)}.
+     *
+     * @return the number of bits consumed from the input stream
+     */
+    public long getBitPosition() {
+        return in.getBitPosition();
+    }
+
+    /**
+     * Decompresses all the remaining blocks, up to the end of the final block. The input stream is
+     * then positioned right after the compressed data, which can be known through
+     * {@link #getBitPosition()}.
+     *
+     * @param out
+     *            the stream to write the decompressed bytes to
+     * @return the number of bytes written to {@code out}
+     * @throws ZipException
+     *             if the data is not valid DEFLATE data
+     * @throws EOFException
+     *             if the input ends before the final block
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public long inflate(OutputStream out) throws IOException {
+        final long initialTotal = totalOut;
+        while (!finished) {
+            finished = readBits(1) == 1;
+            final int type = readBits(2);
+            switch (type) {
+            case 0:
+                inflateStoredBlock(out);
+                break;
+            case 1:
+                inflateBlock(out, FIXED_LITERAL_TABLE, FIXED_DISTANCE_TABLE);
+                break;
+            case 2:
+                inflateDynamicBlock(out);
+                break;
+            default:
+                throw new ZipException("invalid block type " + type);
+            }
+        }
+        flush(out);
+        return totalOut - initialTotal;
+    }
+
+    private void inflateStoredBlock(OutputStream out) throws IOException {
+        in.alignToByte();
+        final int length = readBits(16);
+        final int lengthComplement = readBits(16);
+        if ((length ^ 0xFFFF) != lengthComplement) {
+            throw new ZipException("invalid stored block length");
+        }
+        int remaining = length;
+        while (remaining > 0) {
+            if (position == window.length) {
+                slide(out);
+            }
+            final int n = in.read(window, position, Math.min(remaining, window.length - position));
+            if (n < 0) {
+                throw new EOFException("premature end of stored block");
+            }
+            position += n;
+            remaining -= n;
+        }
+    }
+
+    private void inflateDynamicBlock(OutputStream out) throws IOException {
+        final int literalCount = readBits(5) + 257;
+        final int distanceCount = readBits(5) + 1;
+        final int codeLengthCount = readBits(4) + 4;
+        final int[] codeLengthLengths = new int[CODE_LENGTH_ORDER.length];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        }
+        final HuffmanTable codeLengthTable = new HuffmanTable(codeLengthLengths, 0, codeLengthLengths.length,
+                CODE_LENGTH_ROOT_BITS);
+        // the literal and distance code lengths form a single sequence, repetitions may cross over
+        final int[] lengths = new int[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length) {
+            final int symbol = decodeSymbol(codeLengthTable);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+            final int value;
+            final int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new ZipException("invalid repetition of the previous code length");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + readBits(2);
+            } else if (symbol == 17) {
+                value = 0;
+                repeat = 3 + readBits(3);
+            } else {
+                value = 0;
+                repeat = 11 + readBits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new ZipException("too many code lengths");
+            }
+            Arrays.fill(lengths, i, i + repeat, value);
+            i += repeat;
+        }
+        if (lengths[END_OF_BLOCK] == 0) {
+            throw new ZipException("missing end-of-block code");
+        }
+        final HuffmanTable literalTable = new HuffmanTable(lengths, 0, literalCount, LITERAL_ROOT_BITS);
+        final HuffmanTable distanceTable = new HuffmanTable(lengths, literalCount, distanceCount,
+                DISTANCE_ROOT_BITS);
+        inflateBlock(out, literalTable, distanceTable);
+    }
+
+    private void inflateBlock(OutputStream out, HuffmanTable literalTable, HuffmanTable distanceTable)
+            throws IOException {
+        final byte[] window = this.window;
+        final int limit = window.length - MAX_MATCH_LENGTH;
+        while (true) {
+            if (position > limit) {
+                slide(out);
+            }
+            final int symbol = decodeSymbol(literalTable);
+            if (symbol < END_OF_BLOCK) {
+                window[position++] = (byte) symbol;
+                continue;
+            }
+            if (symbol == END_OF_BLOCK) {
+                return;
+            }
+            final int lengthCode = symbol - 257;
+            if (lengthCode >= LENGTH_BASE.length) {
+                throw new ZipException("invalid length code " + symbol);
+            }
+            final int length = LENGTH_BASE[lengthCode] + readBits(LENGTH_EXTRA_BITS[lengthCode]);
+            final int distanceCode = decodeSymbol(distanceTable);
+            if (distanceCode >= DISTANCE_BASE.length) {
+                throw new ZipException("invalid distance code " + distanceCode);
+            }
+            final int distance = DISTANCE_BASE[distanceCode] + readBits(DISTANCE_EXTRA_BITS[distanceCode]);
+            if (distance > position) {
+                throw new ZipException("invalid distance " + distance + " before the start of the data");
+            }
+            copy(distance, length);
+        }
+    }
+
+    /**
+     * Copies a back-reference to the current position of the window.
+     */
+    private void copy(int distance, int length) {
+        final byte[] window = this.window;
+        final int src = position - distance;
+        if (distance >= length) {
+            System.arraycopy(window, src, window, position, length);
+        } else if (distance == 1) {
+            Arrays.fill(window, position, position + length, window[src]);
+        } else {
+            // overlapping copy: the pattern is repeated, each copy doubling the available pattern
+            int copied = 0;
+            int chunk = distance;
+            while (copied < length) {
+                final int n = Math.min(chunk, length - copied);
+                System.arraycopy(window, src, window, position + copied, n);
+                copied += n;
+                chunk += n;
+            }
+        }
+        position += length;
+    }
+
+    /**
+     * Writes the decoded bytes that are not written yet, and moves the last {@link #WINDOW_SIZE}
+     * bytes to the beginning of the window.
+     */
+    private void slide(OutputStream out) throws IOException {
+        flush(out);
+        if (position > WINDOW_SIZE) {
+            System.arraycopy(window, position - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+            position = WINDOW_SIZE;
+            flushedPosition = WINDOW_SIZE;
+        }
+    }
+
+    private void flush(OutputStream out) throws IOException {
+        final int n = position - flushedPosition;
+        if (n > 0) {
+            out.write(window, flushedPosition, n);
+            flushedPosition = position;
+            totalOut += n;
+        }
+    }
+
+    private int readBits(int length) throws IOException {
+        if (!in.ensureBits(length)) {
+            throw new EOFException("premature end of compressed data");
+        }
+        final int bits = (int) in.peekBits(length);
+        in.dropBits(length);
+        return bits;
+    }
+
+    private int decodeSymbol(HuffmanTable table) throws IOException {
+        // near the end of the input, fewer bits than the longest code may be available
+        in.ensureBits(MAX_CODE_LENGTH);
+        final int bits = (int) in.peekBits(MAX_CODE_LENGTH);
+        int entry = table.entries[bits & table.rootMask];
+        int length = entry & HuffmanTable.LENGTH_MASK;
+        if ((entry & HuffmanTable.LINK_FLAG) != 0) {
+            final int subBits = bits >>> table.rootBits & (1 << length) - 1;
+            entry = table.entries[(entry >>> HuffmanTable.VALUE_SHIFT) + subBits];
+            length = table.rootBits + (entry & HuffmanTable.LENGTH_MASK);
+        }
+        if (entry == 0) {
+            throw new ZipException("invalid Huffman code");
+        }
+        if (length > in.bufferedBits()) {
+            throw new EOFException("premature end of compressed data");
+        }
+        in.dropBits(length);
+        return entry >>> HuffmanTable.VALUE_SHIFT;
+    }
+
+    /**
+     * A lookup table for a canonical Huffman code, indexed by the next bits of the input.
+     * <p>
+     * Each entry of the root table is either a symbol entry, containing a symbol and the length of
+     * its code, or a link entry, containing the offset of a sub-table and its number of index bits,
+     * for the codes longer than the root bits. The entries of the sub-tables contain the length of
+     * the codes minus the root bits. Unused entries, for incomplete codes, are 0.
+     */
+    private static class HuffmanTable {
+
+        static final int LENGTH_MASK = 0xF;
+
+        static final int LINK_FLAG = 0x10;
+
+        static final int VALUE_SHIFT = 5;
+
+        final int[] entries;
+
+        final int rootBits;
+
+        final int rootMask;
+
+        /**
+         * Builds the table of the canonical Huffman code defined by the specified code lengths.
+         *
+         * @param codeLengths
+         *            the array containing the code length of each symbol, 0 for unused symbols
+         * @param offset
+         *            the index of the length of the first symbol in {@code codeLengths}
+         * @param symbolCount
+         *            the number of symbols
+         * @param maxRootBits
+         *            the maximum number of bits of the root table
+         * @throws ZipException
+         *             if the lengths do not define a valid prefix code
+         */
+        HuffmanTable(int[] codeLengths, int offset, int symbolCount, int maxRootBits) throws ZipException {
+            final int[] countPerLength = new int[MAX_CODE_LENGTH + 1];
+            int maxLength = 0;
+            for (int s = 0; s < symbolCount; s++) {
+                final int length = codeLengths[offset + s];
+                countPerLength[length]++;
+                maxLength = Math.max(maxLength, length);
+            }
+            countPerLength[0] = 0;
+            // check that the code is not over-subscribed
+            int left = 1;
+            for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+                left = (left << 1) - countPerLength[len];
+                if (left < 0) {
+                    throw new ZipException("over-subscribed Huffman code");
+                }
+            }
+            rootBits = Math.max(1, Math.min(maxRootBits, maxLength));
+            rootMask = (1 << rootBits) - 1;
+            // first canonical code of each length
+            final int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+            for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+                nextCode[len + 1] = nextCode[len] + countPerLength[len] << 1;
+            }
+            final int[] codes = new int[symbolCount];
+            for (int s = 0; s < symbolCount; s++) {
+                final int length = codeLengths[offset + s];
+                if (length != 0) {
+                    codes[s] = nextCode[length]++;
+                }
+            }
+            // size of the sub-table of each root prefix, from the longest code with that prefix
+            final int[] subBitsPerPrefix = new int[1 << rootBits];
+            for (int s = 0; s < symbolCount; s++) {
+                final int length = codeLengths[offset + s];
+                if (length > rootBits) {
+                    final int prefix = reverse(codes[s] >>> length - rootBits, rootBits);
+                    subBitsPerPrefix[prefix] = Math.max(subBitsPerPrefix[prefix], length - rootBits);
+                }
+            }
+            int size = 1 << rootBits;
+            final int[] subOffsets = new int[1 << rootBits];
+            for (int prefix = 0; prefix < subBitsPerPrefix.length; prefix++) {
+                if (subBitsPerPrefix[prefix] > 0) {
+                    subOffsets[prefix] = size;
+                    size += 1 << subBitsPerPrefix[prefix];
+                }
+            }
+            entries = new int[size];
+            for (int prefix = 0; prefix < subBitsPerPrefix.length; prefix++) {
+                if (subBitsPerPrefix[prefix] > 0) {
+                    entries[prefix] = subOffsets[prefix] << VALUE_SHIFT | LINK_FLAG | subBitsPerPrefix[prefix];
+                }
+            }
+            for (int s = 0; s < symbolCount; s++) {
+                final int length = codeLengths[offset + s];
+                if (length == 0) {
+                    continue;
+                }
+                final int reversed = reverse(codes[s], length);
+                if (length <= rootBits) {
+                    final int entry = s << VALUE_SHIFT | length;
+                    for (int index = reversed; index < 1 << rootBits; index += 1 << length) {
+                        entries[index] = entry;
+                    }
+                } else {
+                    final int prefix = reversed & rootMask;
+                    final int subLength = length - rootBits;
+                    final int subBits = subBitsPerPrefix[prefix];
+                    final int entry = s << VALUE_SHIFT | subLength;
+                    final int base = subOffsets[prefix];
+                    for (int index = reversed >>> rootBits; index < 1 << subBits; index += 1 << subLength) {
+                        entries[base + index] = entry;
+                    }
+                }
+            }
+        }
+
+        private static int reverse(int code, int length) {
+            return Integer.reverse(code) >>> Integer.SIZE - length;
+        }
+    }
+}
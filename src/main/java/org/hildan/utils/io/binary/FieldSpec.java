@@ -0,0 +1,126 @@
+package org.hildan.utils.io.binary;
+
+/**
+ * Describes how a single integer field of a record is encoded in a stream of bits: either as a
+ * fixed number of bits, or as a variable number of bytes (varint). Both encodings can be signed.
+ *
+ * @see RecordSchema
+ */
+public class FieldSpec {
+
+    private final String name;
+
+    private final int width;
+
+    private final boolean signed;
+
+    private FieldSpec(String name, int width, boolean signed) {
+        if (name == null) {
+            throw new IllegalArgumentException("the name must not be null");
+        }
+        this.name = name;
+        this.width = width;
+        this.signed = signed;
+    }
+
+    /**
+     * Creates a field encoded as an unsigned value on a fixed number of bits.
+     *
+     * @param name
+     *            the name of the field in the Java class of the records
+     * @param width
+     *            the number of bits of the field, between 1 and 64
+     * @return the new field
+     */
+    public static FieldSpec unsigned(String name, int width) {
+        return new FieldSpec(name, checkWidth(width), false);
+    }
+
+    /**
+     * Creates a field encoded as a two's complement signed value on a fixed number of bits. The
+     * value is sign-extended when read.
+     *
+     * @param name
+     *            the name of the field in the Java class of the records
+     * @param width
+     *            the number of bits of the field, between 1 and 64
+     * @return the new field
+     */
+    public static FieldSpec signed(String name, int width) {
+        return new FieldSpec(name, checkWidth(width), true);
+    }
+
+    /**
+     * Creates a field encoded as an unsigned varint: groups of 7 bits, most significant group
+     * first, each preceded by a bit indicating whether another group follows. Small values take
+     * fewer bits.
+     *
+     * @param name
+     *            the name of the field in the Java class of the records
+     * @return the new field
+     */
+    public static FieldSpec varint(String name) {
+        return new FieldSpec(name, 0, false);
+    }
+
+    /**
+     * Creates a field encoded as a signed varint: the value is mapped to an unsigned value with
+     * the zigzag encoding ({@code 0, -1, 1, -2, 2...}), which is then encoded as
+     * {@link #varint(String)} does. Values close to 0 take fewer bits.
+     *
+     * @param name
+     *            the name of the field in the Java class of the records
+     * @return the new field
+     */
+    public static FieldSpec signedVarint(String name) {
+        return new FieldSpec(name, 0, true);
+    }
+
+    private static int checkWidth(int width) {
+        if (width < 1 || width > Long.SIZE) {
+            throw new IllegalArgumentException("the width must be between 1 and 64 bits");
+        }
+        return width;
+    }
+
+    /**
+     * Returns the name of the field.
+     *
+     * @return the name of the field in the Java class of the records
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of bits of the field.
+     *
+     * @return the fixed number of bits of the field, or 0 if it is a varint
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns whether the field is signed.
+     *
+     * @return {@code true} if the field may be negative
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Returns whether the field is encoded as a varint.
+     *
+     * @return {@code true} if the field has a variable number of bits
+     */
+    public boolean isVarint() {
+        return width == 0;
+    }
+
+    @Override
+    public String toString() {
+        return name + ':' + (signed ? "signed " : "unsigned ") + (isVarint() ? "varint" : width + " bits");
+    }
+}
@@ -0,0 +1,309 @@
+package org.hildan.utils.io.binary;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represents a stream of bits packed starting with the least significant bit of each byte, as in
+ * DEFLATE (RFC 1951). Values spanning several bits are also read least significant bit first. This
+ * is the counterpart of {@link BitInputStream}, which reads the most significant bits first.
+ * <p>
+ * The bits are taken from the internal buffer of the underlying {@link BufferedInputStream} up to 8
+ * bytes at a time, and can be peeked before being consumed, which is what table-driven decoders
+ * need. Unlike {@link BitInputStream}, the bit-level methods of this class are not synchronized,
+ * because they are called for every symbol of the decoded data.
+ */
+public class LsbFirstBitInputStream extends BufferedInputStream {
+
+    /**
+     * The maximum number of bits that can be peeked or read at once.
+     */
+    public static final int MAX_BITS = 56;
+
+    /**
+     * The buffer of bits. The next bit to read is the least significant one.
+     */
+    private long bitBuffer;
+
+    /**
+     * Indicates how many bits of the bit buffer are currently used.
+     */
+    private int bitCount;
+
+    /**
+     * The number of bits consumed from this stream.
+     */
+    private long bitPosition;
+
+    /**
+     * Creates a new {@link LsbFirstBitInputStream} wrapping the specified {@link InputStream}.
+     *
+     * @param in
+     *            the {@link InputStream} to wrap
+     */
+    public LsbFirstBitInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Creates a new {@link LsbFirstBitInputStream} wrapping the specified {@link InputStream}.
+     *
+     * @param in
+     *            the {@link InputStream} to wrap
+     * @param size
+     *            the buffer size for the underlying {@link BufferedInputStream}
+     */
+    public LsbFirstBitInputStream(InputStream in, int size) {
+        super(in, size);
+    }
+
+    /**
+     * Returns the number of bits consumed from this stream so far, including skipped bits.
+     *
+     * @return the position of the next bit to read, from the beginning of the stream
+     */
+    public long getBitPosition() {
+        return bitPosition;
+    }
+
+    /**
+     * Tries to make the specified number of bits available for {@link #peekBits(int)}.
+     *
+     * @param length
+     *            the number of bits needed, at most {@link #MAX_BITS}
+     * @return {@code true} if at least {@code length} bits are available, {@code false} if the end
+     *         of the stream is reached before
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public boolean ensureBits(int length) throws IOException {
+        if (bitCount >= length) {
+            return true;
+        }
+        if (length > MAX_BITS) {
+            throw new IllegalArgumentException("can't peek more than " + MAX_BITS + " bits at once");
+        }
+        refill();
+        return bitCount >= length;
+    }
+
+    /**
+     * Returns the number of bits available for {@link #peekBits(int)} without reading the
+     * underlying stream.
+     *
+     * @return the number of buffered bits
+     */
+    public int bufferedBits() {
+        return bitCount;
+    }
+
+    /**
+     * Returns the next bits of this stream, without consuming them. If fewer bits are available,
+     * the missing bits are zeros.
+     *
+     * @param length
+     *            the number of bits to peek, which should have been made available by
+     *            {@link #ensureBits(int)}
+     * @return the next {@code length} bits, the first one being the least significant
+     */
+    public long peekBits(int length) {
+        return bitBuffer & (1L << length) - 1;
+    }
+
+    /**
+     * Consumes bits that have been made available by {@link #ensureBits(int)}.
+     *
+     * @param length
+     *            the number of bits to consume, at most {@link #bufferedBits()}
+     */
+    public void dropBits(int length) {
+        assert length <= bitCount : "dropping bits that are not buffered";
+        bitBuffer >>>= length;
+        bitCount -= length;
+        bitPosition += length;
+    }
+
+    /**
+     * Reads up to {@link #MAX_BITS} bits as a long value.
+     *
+     * @param length
+     *            the number of bits to read
+     * @return the value of the read bits, the first one being the least significant
+     * @throws IllegalStateException
+     *             if the end of stream is reached before the specified number of bits could be read
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public long readBits(int length) throws IOException {
+        if (!ensureBits(length)) {
+            throw new IllegalStateException("premature end of input, cannot read the requested number of bits");
+        }
+        final long bits = peekBits(length);
+        dropBits(length);
+        return bits;
+    }
+
+    /**
+     * Reads the next bit from this stream.
+     *
+     * @return 1 or 0 depending on the read bit, or -1 if the end of stream was reached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public int readBit() throws IOException {
+        if (!ensureBits(1)) {
+            return -1;
+        }
+        final int bit = (int) bitBuffer & 1;
+        dropBits(1);
+        return bit;
+    }
+
+    /**
+     * Skips the specified number of bits.
+     *
+     * @param length
+     *            the number of bits to skip
+     * @return the number of bits actually skipped, which is less than {@code length} only if the
+     *         end of the stream is reached
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public long skipBits(long length) throws IOException {
+        long remaining = length;
+        // whole bytes are skipped in the underlying stream when the bit buffer is empty
+        while (remaining > 0) {
+            if (bitCount == 0 && remaining >= Byte.SIZE) {
+                final long skipped = super.skip(remaining / Byte.SIZE);
+                if (skipped > 0) {
+                    remaining -= skipped * Byte.SIZE;
+                    bitPosition += skipped * Byte.SIZE;
+                    continue;
+                }
+            }
+            if (!ensureBits(1)) {
+                break;
+            }
+            final int n = (int) Math.min(remaining, bitCount);
+            dropBits(n);
+            remaining -= n;
+        }
+        return length - remaining;
+    }
+
+    /**
+     * Skips the remaining bits of the current byte, so that the next bit read is the first bit of
+     * a byte.
+     */
+    public void alignToByte() {
+        dropBits(bitCount % Byte.SIZE);
+    }
+
+    /**
+     * Fills the bit buffer with as many whole bytes as possible.
+     */
+    private void refill() throws IOException {
+        while (bitCount <= MAX_BITS) {
+            final byte[] bytes = buf;
+            if (bytes != null && pos < count) {
+                int p = pos;
+                final int end = Math.min(count, p + (Long.SIZE - bitCount) / Byte.SIZE);
+                while (p < end) {
+                    bitBuffer |= (bytes[p++] & 0xFFL) << bitCount;
+                    bitCount += Byte.SIZE;
+                }
+                pos = p;
+            } else {
+                // the underlying buffer is empty, reading one byte refills it
+                final int octet = super.read();
+                if (octet == -1) {
+                    return;
+                }
+                bitBuffer |= (long) octet << bitCount;
+                bitCount += Byte.SIZE;
+            }
+        }
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return bitCount / Byte.SIZE + super.available();
+    }
+
+    /**
+     * Reads the next 8 bits from this stream. If less than 8 bits are available because the end of
+     * the stream has been reached, the value -1 is returned.
+     *
+     * @see InputStream#read()
+     */
+    @Override
+    public synchronized int read() throws IOException {
+        if (!ensureBits(Byte.SIZE)) {
+            return -1;
+        }
+        final int octet = (int) peekBits(Byte.SIZE);
+        dropBits(Byte.SIZE);
+        return octet;
+    }
+
+    /**
+     * Reads bytes made of the next groups of 8 bits from this stream. If this stream is aligned on
+     * a byte boundary, the bytes are copied in bulk from the underlying stream.
+     *
+     * @see InputStream#read(byte[], int, int)
+     */
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        // the buffered bits are always whole bytes when this stream is aligned
+        while (n < len && bitCount > 0) {
+            final int octet = read();
+            if (octet == -1) {
+                return n == 0 ? -1 : n;
+            }
+            b[off + n++] = (byte) octet;
+        }
+        if (n < len) {
+            final int numRead = super.read(b, off + n, len - n);
+            if (numRead > 0) {
+                n += numRead;
+                bitPosition += (long) numRead * Byte.SIZE;
+            } else if (n == 0) {
+                return -1;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        return skipBits(n * Byte.SIZE) / Byte.SIZE;
+    }
+
+    /**
+     * Marks are not supported, because of the bit buffer.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
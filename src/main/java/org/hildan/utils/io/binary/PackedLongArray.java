@@ -0,0 +1,485 @@
+package org.hildan.utils.io.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A fixed-size array of unsigned values of the same number of bits, packed next to each other in
+ * longs. An array of 20-bit values takes about a third of the memory of a {@code long[]}, and each
+ * value can still be read or written in constant time.
+ * <p>
+ * The values are packed most significant bit first, as in {@link BitOutputStream}: the first
+ * value is in the most significant bits of the first long, and a value may span two longs. The
+ * longs are stored either in a {@code long[]} on the heap, or in a direct {@link ByteBuffer}
+ * outside of the heap, for large arrays that should not weigh on the garbage collector.
+ * <p>
+ * The serialized form written by {@link #writeTo(BitOutputStream)} is the number of bits per value
+ * on 8 bits and the size of the array as a long, followed by the packed longs themselves, which
+ * do not depend on the storage or on the platform.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class PackedLongArray {
+
+    /**
+     * The maximum number of longs of the storage, limited by the capacity of a direct
+     * {@link ByteBuffer}.
+     */
+    private static final int MAX_WORDS = Integer.MAX_VALUE / Long.BYTES;
+
+    /**
+     * The number of longs copied at once between a direct storage and a stream.
+     */
+    private static final int COPY_BUFFER_SIZE = 1024;
+
+    private final long size;
+
+    private final int bitsPerValue;
+
+    private final long mask;
+
+    private final LongBuffer words;
+
+    private final int wordCount;
+
+    /**
+     * Creates a new {@code PackedLongArray} on the heap, filled with 0s.
+     *
+     * @param size
+     *            the number of values of the array
+     * @param bitsPerValue
+     *            the number of bits of each value, between 1 and 64
+     * @throws IllegalArgumentException
+     *             if the number of bits is invalid, or if the array would be too large
+     */
+    public PackedLongArray(long size, int bitsPerValue) {
+        this(size, bitsPerValue, false);
+    }
+
+    private PackedLongArray(long size, int bitsPerValue, boolean direct) {
+        if (bitsPerValue < 1 || bitsPerValue > Long.SIZE) {
+            throw new IllegalArgumentException("the number of bits per value must be between 1 and 64");
+        }
+        if (size < 0 || size > (long) MAX_WORDS * Long.SIZE / bitsPerValue) {
+            throw new IllegalArgumentException("invalid size " + size + " for " + bitsPerValue + "-bit values");
+        }
+        this.size = size;
+        this.bitsPerValue = bitsPerValue;
+        this.mask = bitsPerValue == Long.SIZE ? -1L : (1L << bitsPerValue) - 1;
+        this.wordCount = (int) ((size * bitsPerValue + Long.SIZE - 1) / Long.SIZE);
+        if (direct) {
+            this.words = ByteBuffer.allocateDirect(wordCount * Long.BYTES).order(ByteOrder.nativeOrder())
+                    .asLongBuffer();
+        } else {
+            this.words = LongBuffer.wrap(new long[wordCount]);
+        }
+    }
+
+    /**
+     * Creates a new {@code PackedLongArray} stored in a direct {@link ByteBuffer}, filled with 0s.
+     *
+     * @param size
+     *            the number of values of the array
+     * @param bitsPerValue
+     *            the number of bits of each value, between 1 and 64
+     * @return the new array
+     * @throws IllegalArgumentException
+     *             if the number of bits is invalid, or if the array would be too large
+     */
+    public static PackedLongArray allocateDirect(long size, int bitsPerValue) {
+        return new PackedLongArray(size, bitsPerValue, true);
+    }
+
+    /**
+     * Returns the number of bits needed to store the specified value.
+     *
+     * @param maxValue
+     *            the largest value to store, as an unsigned long
+     * @return the number of bits per value to use for an array holding values up to
+     *         {@code maxValue}, at least 1
+     */
+    public static int bitsRequired(long maxValue) {
+        return Math.max(1, Long.SIZE - Long.numberOfLeadingZeros(maxValue));
+    }
+
+    /**
+     * Returns the number of values of this array.
+     *
+     * @return the size of this array
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bits of each value.
+     *
+     * @return the number of bits per value
+     */
+    public int getBitsPerValue() {
+        return bitsPerValue;
+    }
+
+    /**
+     * Returns whether this array is stored outside of the heap.
+     *
+     * @return {@code true} if the values are stored in a direct {@link ByteBuffer}
+     */
+    public boolean isDirect() {
+        return words.isDirect();
+    }
+
+    /**
+     * Returns the value at the specified index.
+     *
+     * @param index
+     *            the index of the value
+     * @return the value at {@code index}
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of bounds
+     */
+    public long get(long index) {
+        checkIndex(index);
+        final long bitPosition = index * bitsPerValue;
+        final int word = (int) (bitPosition >>> 6);
+        final int shift = (int) bitPosition & 63;
+        final int spill = shift + bitsPerValue - Long.SIZE;
+        final long high = words.get(word) << shift >>> Long.SIZE - bitsPerValue;
+        if (spill <= 0) {
+            return high;
+        }
+        return high | words.get(word + 1) >>> Long.SIZE - spill;
+    }
+
+    /**
+     * Sets the value at the specified index.
+     *
+     * @param index
+     *            the index of the value
+     * @param value
+     *            the new value, which must fit in the number of bits per value of this array
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of bounds
+     * @throws IllegalArgumentException
+     *             if the value does not fit in the number of bits per value
+     */
+    public void set(long index, long value) {
+        checkIndex(index);
+        checkValue(value);
+        final long bitPosition = index * bitsPerValue;
+        final int word = (int) (bitPosition >>> 6);
+        final int shift = (int) bitPosition & 63;
+        final int spill = shift + bitsPerValue - Long.SIZE;
+        if (spill <= 0) {
+            words.put(word, words.get(word) & ~(mask << -spill) | value << -spill);
+        } else {
+            words.put(word, words.get(word) & ~(mask >>> spill) | value >>> spill);
+            words.put(word + 1, words.get(word + 1) & ~(mask << Long.SIZE - spill) | value << Long.SIZE - spill);
+        }
+    }
+
+    /**
+     * Reads consecutive values into the specified array.
+     *
+     * @param index
+     *            the index of the first value to read
+     * @param dest
+     *            the array to store the values into
+     * @param offset
+     *            the index in {@code dest} of the first value
+     * @param length
+     *            the number of values to read
+     * @throws IndexOutOfBoundsException
+     *             if the range is out of the bounds of this array or of {@code dest}
+     */
+    public void get(long index, long[] dest, int offset, int length) {
+        checkRange(index, length);
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = get(index + i);
+        }
+    }
+
+    /**
+     * Sets consecutive values from the specified array.
+     *
+     * @param index
+     *            the index of the first value to set
+     * @param src
+     *            the array containing the new values
+     * @param offset
+     *            the index in {@code src} of the first value
+     * @param length
+     *            the number of values to set
+     * @throws IndexOutOfBoundsException
+     *             if the range is out of the bounds of this array or of {@code src}
+     * @throws IllegalArgumentException
+     *             if a value does not fit in the number of bits per value, in which case the
+     *             previous values have been set
+     */
+    public void set(long index, long[] src, int offset, int length) {
+        checkRange(index, length);
+        if (offset < 0 || length < 0 || offset > src.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = 0; i < length; i++) {
+            set(index + i, src[offset + i]);
+        }
+    }
+
+    /**
+     * Sets the values from {@code fromIndex} (inclusive) to {@code toIndex} (exclusive) to the
+     * specified value. The longs are filled with a repeated pattern, and only the values at both
+     * ends of the range are set one by one.
+     *
+     * @param fromIndex
+     *            the index of the first value to set
+     * @param toIndex
+     *            the index after the last value to set
+     * @param value
+     *            the value to set, which must fit in the number of bits per value of this array
+     * @throws IndexOutOfBoundsException
+     *             if the range is out of bounds
+     * @throws IllegalArgumentException
+     *             if the value does not fit in the number of bits per value
+     */
+    public void fill(long fromIndex, long toIndex, long value) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > size) {
+            throw new IndexOutOfBoundsException("invalid range [" + fromIndex + ", " + toIndex + ")");
+        }
+        checkValue(value);
+        // the bit pattern repeats itself every period of values, which is a whole number of longs
+        final int valuesPerPeriod = Long.SIZE / gcd(bitsPerValue, Long.SIZE);
+        final int wordsPerPeriod = valuesPerPeriod * bitsPerValue / Long.SIZE;
+        long i = fromIndex;
+        while (i < toIndex && i * bitsPerValue % Long.SIZE != 0) {
+            set(i++, value);
+        }
+        if (toIndex - i < 2L * valuesPerPeriod) {
+            while (i < toIndex) {
+                set(i++, value);
+            }
+            return;
+        }
+        // the first period is set value by value, then copied a long at a time
+        final long periodStart = i;
+        for (int k = 0; k < valuesPerPeriod; k++) {
+            set(i++, value);
+        }
+        final int firstWord = (int) (periodStart * bitsPerValue / Long.SIZE);
+        final long periods = (toIndex - periodStart) / valuesPerPeriod;
+        for (long p = 1; p < periods; p++) {
+            final int word = firstWord + (int) p * wordsPerPeriod;
+            for (int k = 0; k < wordsPerPeriod; k++) {
+                words.put(word + k, words.get(firstWord + k));
+            }
+        }
+        i = periodStart + periods * valuesPerPeriod;
+        while (i < toIndex) {
+            set(i++, value);
+        }
+    }
+
+    /**
+     * Copies values from the specified array into this array, as {@link System#arraycopy} would.
+     * The arrays may be the same, and may have different numbers of bits per value. When both
+     * arrays have the same number of bits per value and the ranges are at the same position
+     * within their longs, the longs are copied directly.
+     *
+     * @param src
+     *            the array to copy the values from
+     * @param srcIndex
+     *            the index in {@code src} of the first value to copy
+     * @param destIndex
+     *            the index in this array of the first value to copy
+     * @param length
+     *            the number of values to copy
+     * @throws IndexOutOfBoundsException
+     *             if a range is out of bounds
+     * @throws IllegalArgumentException
+     *             if a value of {@code src} does not fit in the number of bits per value of this
+     *             array, in which case some values may have been copied
+     */
+    public void copyFrom(PackedLongArray src, long srcIndex, long destIndex, long length) {
+        src.checkRange(srcIndex, length);
+        checkRange(destIndex, length);
+        if (src.bitsPerValue == bitsPerValue && src != this
+                && (srcIndex * bitsPerValue - destIndex * bitsPerValue) % Long.SIZE == 0) {
+            copyAligned(src, srcIndex, destIndex, length);
+        } else if (src == this && srcIndex < destIndex) {
+            // the values are copied backwards, so that the overlapping values are read first
+            for (long i = length - 1; i >= 0; i--) {
+                set(destIndex + i, src.get(srcIndex + i));
+            }
+        } else {
+            for (long i = 0; i < length; i++) {
+                set(destIndex + i, src.get(srcIndex + i));
+            }
+        }
+    }
+
+    /**
+     * Copies values from another array with the same bit layout, a long at a time except at both
+     * ends.
+     */
+    private void copyAligned(PackedLongArray src, long srcIndex, long destIndex, long length) {
+        long i = 0;
+        while (i < length && (destIndex + i) * bitsPerValue % Long.SIZE != 0) {
+            set(destIndex + i, src.get(srcIndex + i));
+            i++;
+        }
+        final long startBit = (destIndex + i) * bitsPerValue;
+        final long fullWords = (length - i) * bitsPerValue / Long.SIZE;
+        if (fullWords > 0) {
+            final LongBuffer from = src.words.duplicate();
+            from.position((int) ((srcIndex + i) * bitsPerValue / Long.SIZE)).limit(from.position() + (int) fullWords);
+            final LongBuffer to = words.duplicate();
+            to.position((int) (startBit / Long.SIZE));
+            to.put(from);
+        }
+        i += fullWords * Long.SIZE / bitsPerValue;
+        while (i < length) {
+            set(destIndex + i, src.get(srcIndex + i));
+            i++;
+        }
+    }
+
+    /**
+     * Writes this array to the specified stream. The packed longs are written in bulk.
+     *
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void writeTo(BitOutputStream out) throws IOException {
+        out.writeBits(bitsPerValue, Byte.SIZE);
+        out.writeLong(size);
+        if (words.hasArray()) {
+            out.writeLongs(words.array(), words.arrayOffset(), wordCount);
+            return;
+        }
+        final long[] buffer = new long[Math.min(wordCount, COPY_BUFFER_SIZE)];
+        final LongBuffer source = words.duplicate();
+        source.clear();
+        while (source.hasRemaining()) {
+            final int n = Math.min(buffer.length, source.remaining());
+            source.get(buffer, 0, n);
+            out.writeLongs(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Reads an array written by {@link #writeTo(BitOutputStream)} into a new array on the heap.
+     * <p>
+     * The storage is allocated for the size read from the stream. Data from an untrusted source
+     * should be read with {@link #readFrom(BitInputStream, boolean, long)} instead.
+     *
+     * @param in
+     *            the stream to read from
+     * @return the new array
+     * @throws IllegalStateException
+     *             if the end of the stream is reached before the end of the array
+     * @throws IOException
+     *             if an I/O error occurs, or if the data is not a valid array
+     */
+    public static PackedLongArray readFrom(BitInputStream in) throws IOException {
+        return readFrom(in, false);
+    }
+
+    /**
+     * Reads an array written by {@link #writeTo(BitOutputStream)} into a new array.
+     * <p>
+     * The storage is allocated for the size read from the stream. Data from an untrusted source
+     * should be read with {@link #readFrom(BitInputStream, boolean, long)} instead.
+     *
+     * @param in
+     *            the stream to read from
+     * @param direct
+     *            whether to store the new array in a direct {@link ByteBuffer}
+     * @return the new array
+     * @throws IllegalStateException
+     *             if the end of the stream is reached before the end of the array
+     * @throws IOException
+     *             if an I/O error occurs, or if the data is not a valid array
+     */
+    public static PackedLongArray readFrom(BitInputStream in, boolean direct) throws IOException {
+        return readFrom(in, direct, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads an array written by {@link #writeTo(BitOutputStream)} into a new array, if it has at
+     * most the specified number of values. The size is checked before the storage is allocated, so
+     * that a corrupt size cannot exhaust the memory.
+     *
+     * @param in
+     *            the stream to read from
+     * @param direct
+     *            whether to store the new array in a direct {@link ByteBuffer}
+     * @param maxSize
+     *            the maximum number of values of the array
+     * @return the new array
+     * @throws IllegalStateException
+     *             if the end of the stream is reached before the end of the array
+     * @throws IOException
+     *             if an I/O error occurs, if the data is not a valid array, or if the array has more
+     *             than {@code maxSize} values
+     */
+    public static PackedLongArray readFrom(BitInputStream in, boolean direct, long maxSize) throws IOException {
+        final int bitsPerValue = (int) in.readBits(Byte.SIZE);
+        final long size = in.readLong();
+        if (size > maxSize) {
+            throw new IOException("invalid packed array: " + size + " values, more than the maximum " + maxSize);
+        }
+        final PackedLongArray array;
+        try {
+            array = new PackedLongArray(size, bitsPerValue, direct);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("invalid packed array: " + e.getMessage(), e);
+        }
+        if (array.words.hasArray()) {
+            in.readLongs(array.words.array(), array.words.arrayOffset(), array.wordCount);
+        } else {
+            final long[] buffer = new long[Math.min(array.wordCount, COPY_BUFFER_SIZE)];
+            final LongBuffer dest = array.words.duplicate();
+            dest.clear();
+            while (dest.hasRemaining()) {
+                final int n = Math.min(buffer.length, dest.remaining());
+                in.readLongs(buffer, 0, n);
+                dest.put(buffer, 0, n);
+            }
+        }
+        final int unusedBits = (int) ((long) array.wordCount * Long.SIZE - size * bitsPerValue);
+        if (unusedBits > 0 && array.words.get(array.wordCount - 1) << Long.SIZE - unusedBits != 0) {
+            throw new IOException("invalid packed array: the padding bits are not 0");
+        }
+        return array;
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private void checkRange(long index, long length) {
+        if (index < 0 || length < 0 || index > size - length) {
+            throw new IndexOutOfBoundsException("range [" + index + ", " + index + " + " + length
+                    + ") out of bounds for size " + size);
+        }
+    }
+
+    private void checkValue(long value) {
+        if ((value & ~mask) != 0) {
+            throw new IllegalArgumentException("value " + value + " does not fit in " + bitsPerValue + " bits");
+        }
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
@@ -0,0 +1,298 @@
+package org.hildan.utils.io.binary;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A codec for sequences of longs, such as sorted timestamps or IDs, that are much more compact as
+ * differences between consecutive values than as 64-bit values.
+ * <p>
+ * The differences between consecutive values are encoded by blocks of {@value #BLOCK_SIZE}. In
+ * each block, the minimum difference is written as the reference of the block (frame of
+ * reference), and the offsets of the differences from this reference are bit-packed with the
+ * width minimizing the size of the block. The offsets that do not fit in this width are
+ * exceptions (patched frame of reference, or PFOR): their low bits are packed with the others,
+ * and their high bits are written after the header of the block, with their positions. This way,
+ * a few large gaps do not widen a whole block.
+ * <p>
+ * The packed bits of each block are written as longs, most significant bits first, using the bulk
+ * methods {@link BitOutputStream#writeLongs(long[], int, int)} and
+ * {@link BitInputStream#readLongs(long[], int, int)}. A full block of width {@code w} is exactly
+ * {@code 2 * w} longs, which are unpacked block by block into the decoded array.
+ * <p>
+ * Any sequence can be encoded, but only non-decreasing sequences (or sequences with bounded
+ * differences) are actually compressed. The differences are computed with the overflow semantics
+ * of longs, so the decoded values are always exactly the encoded ones.
+ */
+public class PforDeltaCodec {
+
+    /**
+     * The number of differences encoded in each block.
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * The number of bits of the position of an exception in its block.
+     */
+    private static final int POSITION_BITS = 7;
+
+    /**
+     * The number of bits of the header fields of a block, apart from its reference.
+     */
+    private static final int FIELD_BITS = 8;
+
+    /**
+     * The maximum number of values allocated by {@link #read(BitInputStream)} before any block is
+     * decoded. The length is read from the stream, so larger arrays only grow as the blocks are
+     * actually decoded.
+     */
+    private static final int MAX_INITIAL_LENGTH = 64 * BLOCK_SIZE;
+
+    /**
+     * Writes the specified values to the specified stream.
+     *
+     * @param out
+     *            the stream to write to
+     * @param values
+     *            the values to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void write(BitOutputStream out, long[] values) throws IOException {
+        write(out, values, 0, values.length);
+    }
+
+    /**
+     * Writes the specified values to the specified stream. The encoded data starts with the number
+     * of values as an int, followed by the first value as a long, and by the blocks of
+     * differences.
+     *
+     * @param out
+     *            the stream to write to
+     * @param values
+     *            the array containing the values to write
+     * @param offset
+     *            the index of the first value to write
+     * @param length
+     *            the number of values to write
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void write(BitOutputStream out, long[] values, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > values.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        out.writeInt(length);
+        if (length == 0) {
+            return;
+        }
+        out.writeLong(values[offset]);
+        final long[] offsets = new long[BLOCK_SIZE];
+        final long[] packed = new long[2 * BLOCK_SIZE];
+        final int[] lengthCounts = new int[Long.SIZE + 1];
+        for (int start = offset + 1; start < offset + length; start += BLOCK_SIZE) {
+            final int n = Math.min(BLOCK_SIZE, offset + length - start);
+            long reference = Long.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                final long delta = values[start + i] - values[start + i - 1];
+                offsets[i] = delta;
+                reference = Math.min(reference, delta);
+            }
+            Arrays.fill(lengthCounts, 0);
+            for (int i = 0; i < n; i++) {
+                offsets[i] -= reference;
+                lengthCounts[Long.SIZE - Long.numberOfLeadingZeros(offsets[i])]++;
+            }
+            writeBlock(out, offsets, n, reference, lengthCounts, packed);
+        }
+    }
+
+    /**
+     * Writes one block, choosing the width that minimizes its size.
+     *
+     * @param offsets
+     *            the offsets of the differences from the reference, as unsigned longs
+     * @param n
+     *            the number of differences in the block
+     * @param lengthCounts
+     *            the number of offsets of each bit length
+     * @param packed
+     *            a buffer for the packed offsets
+     */
+    private static void writeBlock(BitOutputStream out, long[] offsets, int n, long reference, int[] lengthCounts,
+            long[] packed) throws IOException {
+        int maxLength = Long.SIZE;
+        while (maxLength > 0 && lengthCounts[maxLength] == 0) {
+            maxLength--;
+        }
+        int width = maxLength;
+        long bestSize = (long) n * maxLength;
+        int exceptionCount = 0;
+        int exceptions = 0;
+        for (int w = maxLength - 1; w >= 0; w--) {
+            exceptions += lengthCounts[w + 1];
+            final long size = (long) n * w + FIELD_BITS + (long) exceptions * (POSITION_BITS + maxLength - w);
+            if (size < bestSize) {
+                bestSize = size;
+                width = w;
+                exceptionCount = exceptions;
+            }
+        }
+        out.writeBits(width, FIELD_BITS);
+        out.writeBits(exceptionCount, FIELD_BITS);
+        out.writeLong(reference);
+        if (exceptionCount > 0) {
+            final int highWidth = maxLength - width;
+            out.writeBits(highWidth, FIELD_BITS);
+            for (int i = 0; i < n; i++) {
+                final long high = offsets[i] >>> width;
+                if (high != 0) {
+                    out.writeBits(i, POSITION_BITS);
+                    out.writeBits(high, highWidth);
+                }
+            }
+        }
+        final int packedLength = packedLength(n, width);
+        Arrays.fill(packed, 0, packedLength, 0);
+        pack(offsets, n, width, packed);
+        out.writeLongs(packed, 0, packedLength);
+    }
+
+    /**
+     * Reads values written by {@link #write(BitOutputStream, long[], int, int)} from the
+     * specified stream.
+     * <p>
+     * The decoded array grows as the blocks are read, so that an invalid length does not allocate
+     * more memory than the data actually present in the stream.
+     *
+     * @param in
+     *            the stream to read from
+     * @return a new array containing the decoded values
+     * @throws IllegalStateException
+     *             if the end of the stream is reached before the end of the encoded values
+     * @throws IOException
+     *             if an I/O error occurs, or if the encoded data is invalid
+     */
+    public static long[] read(BitInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("invalid encoded longs: negative length " + length);
+        }
+        long[] values = new long[Math.min(length, MAX_INITIAL_LENGTH)];
+        if (length == 0) {
+            return values;
+        }
+        values[0] = in.readLong();
+        final long[] packed = new long[2 * BLOCK_SIZE];
+        for (int start = 1; start < length; start += BLOCK_SIZE) {
+            final int n = Math.min(BLOCK_SIZE, length - start);
+            if (values.length < start + n) {
+                // the final capacity is exactly the length
+                values = Arrays.copyOf(values, (int) Math.min(length, 2L * values.length));
+            }
+            readBlock(in, values, start, n, packed);
+        }
+        return values;
+    }
+
+    /**
+     * Decodes one block into the specified array, following the previous values.
+     */
+    private static void readBlock(BitInputStream in, long[] values, int start, int n, long[] packed)
+            throws IOException {
+        final int width = (int) in.readBits(FIELD_BITS);
+        final int exceptionCount = (int) in.readBits(FIELD_BITS);
+        final long reference = in.readLong();
+        if (width > Long.SIZE || exceptionCount > n) {
+            throw new IOException("invalid encoded longs: block of width " + width + " with " + exceptionCount
+                    + " exceptions");
+        }
+        int[] positions = null;
+        long[] highs = null;
+        if (exceptionCount > 0) {
+            final int highWidth = (int) in.readBits(FIELD_BITS);
+            if (highWidth == 0 || width + highWidth > Long.SIZE) {
+                throw new IOException("invalid encoded longs: exceptions of width " + highWidth);
+            }
+            positions = new int[exceptionCount];
+            highs = new long[exceptionCount];
+            for (int e = 0; e < exceptionCount; e++) {
+                positions[e] = (int) in.readBits(POSITION_BITS);
+                highs[e] = in.readBits(highWidth);
+                if (positions[e] >= n) {
+                    throw new IOException("invalid encoded longs: exception at position " + positions[e]);
+                }
+            }
+        }
+        final int packedLength = packedLength(n, width);
+        in.readLongs(packed, 0, packedLength);
+        // the offsets are unpacked in place, then patched and summed
+        unpack(packed, n, width, values, start);
+        for (int e = 0; e < exceptionCount; e++) {
+            values[start + positions[e]] |= highs[e] << width;
+        }
+        long previous = values[start - 1];
+        for (int i = start; i < start + n; i++) {
+            previous += reference + values[i];
+            values[i] = previous;
+        }
+    }
+
+    /**
+     * Returns the number of longs needed to pack the specified number of values of the specified
+     * width.
+     */
+    private static int packedLength(int n, int width) {
+        return (n * width + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Packs the low {@code width} bits of the specified values, most significant bits first.
+     */
+    private static void pack(long[] values, int n, int width, long[] packed) {
+        if (width == 0) {
+            return;
+        }
+        final long mask = width == Long.SIZE ? -1L : (1L << width) - 1;
+        int bitPosition = 0;
+        for (int i = 0; i < n; i++) {
+            final long value = values[i] & mask;
+            final int word = bitPosition >>> 6;
+            final int shift = bitPosition & 63;
+            final int spill = shift + width - Long.SIZE;
+            if (spill <= 0) {
+                packed[word] |= value << -spill;
+            } else {
+                packed[word] |= value >>> spill;
+                packed[word + 1] |= value << Long.SIZE - spill;
+            }
+            bitPosition += width;
+        }
+    }
+
+    /**
+     * Unpacks values packed by {@link #pack(long[], int, int, long[])} into the specified array.
+     */
+    private static void unpack(long[] packed, int n, int width, long[] values, int start) {
+        if (width == 0) {
+            Arrays.fill(values, start, start + n, 0);
+            return;
+        }
+        if (width == Long.SIZE) {
+            System.arraycopy(packed, 0, values, start, n);
+            return;
+        }
+        int bitPosition = 0;
+        for (int i = start; i < start + n; i++) {
+            final int word = bitPosition >>> 6;
+            final int shift = bitPosition & 63;
+            final int spill = shift + width - Long.SIZE;
+            if (spill <= 0) {
+                values[i] = packed[word] << shift >>> Long.SIZE - width;
+            } else {
+                values[i] = packed[word] << shift >>> Long.SIZE - width | packed[word + 1] >>> Long.SIZE - spill;
+            }
+            bitPosition += width;
+        }
+    }
+}
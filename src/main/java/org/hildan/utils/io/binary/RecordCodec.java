@@ -0,0 +1,510 @@
+package org.hildan.utils.io.binary;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes the records described by a {@link RecordSchema} as instances of a Java class.
+ * A codec is obtained with {@link RecordSchema#compile(Class)}.
+ * <p>
+ * Each field of the schema is bound to the field of the class with the same name, which may be
+ * private, and must be of type {@code long}, {@code int}, {@code short}, {@code byte},
+ * {@code char} or {@code boolean}, and must be able to hold all the values of the schema field:
+ * <ul>
+ * <li>a fixed-width field may not have more bits than its Java field, such as 32 for an
+ * {@code int},</li>
+ * <li>a varint field must be a {@code long},</li>
+ * <li>a {@code char} or {@code boolean} field cannot be signed.</li>
+ * </ul>
+ * An unsigned field as wide as its signed Java field, such as an unsigned 32-bit field in an
+ * {@code int}, is stored with the same bits, and is zero-extended when written back. The codec is
+ * compiled once into a chain of method handles
+ * reading or writing all the fields in order, so that no reflection nor interpretation of the
+ * schema happens per field afterwards.
+ * <p>
+ * The records can be decoded:
+ * <ul>
+ * <li>into a reused mutable instance (a flyweight), with {@link #read(BitInputStream, Object)},
+ * which allocates nothing,</li>
+ * <li>into a new instance with {@link #read(BitInputStream)}, using the no-arg constructor of the
+ * class, or the canonical constructor of a record class (Java 16 and later). In a record class,
+ * every component must be a field of the schema.</li>
+ * </ul>
+ * A codec is thread-safe, provided each thread uses its own streams and flyweights.
+ *
+ * @param <T>
+ *            the type of the records
+ */
+public class RecordCodec<T> {
+
+    private static final int VARINT_GROUP_BITS = 7;
+
+    private static final int VARINT_GROUP_MASK = (1 << VARINT_GROUP_BITS) - 1;
+
+    private static final int VARINT_CONTINUATION = 1 << VARINT_GROUP_BITS;
+
+    private static final int MAX_VARINT_GROUPS = (Long.SIZE + VARINT_GROUP_BITS - 1) / VARINT_GROUP_BITS;
+
+    private static final MethodHandle READ_FIXED;
+
+    private static final MethodHandle READ_VARINT;
+
+    private static final MethodHandle WRITE_FIXED;
+
+    private static final MethodHandle WRITE_VARINT;
+
+    private static final MethodHandle INT_TO_UNSIGNED;
+
+    private static final MethodHandle SHORT_TO_UNSIGNED;
+
+    private static final MethodHandle BYTE_TO_UNSIGNED;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            READ_FIXED = lookup.findStatic(RecordCodec.class, "readFixed",
+                    MethodType.methodType(long.class, int.class, boolean.class, BitInputStream.class));
+            READ_VARINT = lookup.findStatic(RecordCodec.class, "readVarint",
+                    MethodType.methodType(long.class, boolean.class, BitInputStream.class));
+            WRITE_FIXED = lookup.findStatic(RecordCodec.class, "writeFixed",
+                    MethodType.methodType(void.class, int.class, boolean.class, BitOutputStream.class, long.class));
+            WRITE_VARINT = lookup.findStatic(RecordCodec.class, "writeVarint",
+                    MethodType.methodType(void.class, boolean.class, BitOutputStream.class, long.class));
+            INT_TO_UNSIGNED = lookup.findStatic(Integer.class, "toUnsignedLong",
+                    MethodType.methodType(long.class, int.class));
+            SHORT_TO_UNSIGNED = lookup.findStatic(Short.class, "toUnsignedLong",
+                    MethodType.methodType(long.class, short.class));
+            BYTE_TO_UNSIGNED = lookup.findStatic(Byte.class, "toUnsignedLong",
+                    MethodType.methodType(long.class, byte.class));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final RecordSchema schema;
+
+    private final Class<T> type;
+
+    /**
+     * Writes all the fields: {@code (BitOutputStream, Object)void}.
+     */
+    private final MethodHandle writeFields;
+
+    /**
+     * Reads all the fields into an existing instance: {@code (Object, BitInputStream)void}, or
+     * {@code null} for record classes.
+     */
+    private final MethodHandle readFields;
+
+    /**
+     * Creates an empty instance: {@code ()Object}, or {@code null} if the class is a record class
+     * or has no no-arg constructor.
+     */
+    private final MethodHandle newInstance;
+
+    /**
+     * Reads all the fields into an array ordered as the components of a record class:
+     * {@code (long[], BitInputStream)void}, or {@code null} if the class is not a record class.
+     */
+    private final MethodHandle readComponents;
+
+    /**
+     * Creates a record from its components: {@code (long[])Object}, or {@code null} if the class
+     * is not a record class.
+     */
+    private final MethodHandle newRecord;
+
+    private final int componentCount;
+
+    RecordCodec(RecordSchema schema, Class<T> type) {
+        this.schema = schema;
+        this.type = type;
+        final List<FieldSpec> specs = schema.getFields();
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final Field[] fields = new Field[specs.size()];
+        final MethodHandle[] writeSteps = new MethodHandle[specs.size()];
+        for (int i = 0; i < fields.length; i++) {
+            final Field field = findField(type, specs.get(i).getName());
+            checkCapacity(specs.get(i), field, type);
+            fields[i] = field;
+            final MethodHandle getter = unreflect(() -> lookup.unreflectGetter(field));
+            writeSteps[i] = MethodHandles.filterArguments(writer(specs.get(i)), 1, toLongGetter(getter, specs.get(i)));
+        }
+        this.writeFields = sequence(writeSteps);
+
+        final String[] components = getRecordComponentNames(type);
+        if (components == null) {
+            final MethodHandle[] readSteps = new MethodHandle[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (Modifier.isFinal(fields[i].getModifiers())) {
+                    throw new IllegalArgumentException("the field '" + fields[i].getName() + "' of " + type.getName()
+                            + " is final");
+                }
+                final Field field = fields[i];
+                final MethodHandle setter = unreflect(() -> lookup.unreflectSetter(field));
+                readSteps[i] = MethodHandles.filterArguments(MethodHandles.explicitCastArguments(setter,
+                        MethodType.methodType(void.class, Object.class, long.class)), 1, reader(specs.get(i)));
+            }
+            this.readFields = sequence(readSteps);
+            this.newInstance = findNoArgConstructor(lookup, type);
+            this.readComponents = null;
+            this.newRecord = null;
+            this.componentCount = 0;
+        } else {
+            final List<String> componentList = Arrays.asList(components);
+            final MethodHandle[] readSteps = new MethodHandle[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                final int slot = componentList.indexOf(fields[i].getName());
+                if (slot < 0) {
+                    throw new IllegalArgumentException("'" + fields[i].getName() + "' is not a component of "
+                            + type.getName());
+                }
+                final MethodHandle store = MethodHandles.insertArguments(
+                        MethodHandles.arrayElementSetter(long[].class), 1, slot);
+                readSteps[i] = MethodHandles.filterArguments(store, 1, reader(specs.get(i)));
+            }
+            if (fields.length != components.length) {
+                throw new IllegalArgumentException("the components of " + type.getName() + " must all be fields of "
+                        + schema);
+            }
+            this.readFields = null;
+            this.newInstance = null;
+            this.readComponents = sequence(readSteps);
+            this.newRecord = findCanonicalConstructor(lookup, type, components);
+            this.componentCount = components.length;
+        }
+    }
+
+    /**
+     * Returns the schema of the records.
+     *
+     * @return the schema this codec was compiled from
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the class of the records.
+     *
+     * @return the class this codec was compiled for
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Writes the fields of the specified record to the specified stream.
+     *
+     * @param out
+     *            the stream to write to
+     * @param record
+     *            the record to write
+     * @throws IllegalArgumentException
+     *             if the value of a fixed-width field does not fit in its number of bits
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void write(BitOutputStream out, T record) throws IOException {
+        try {
+            writeFields.invokeExact(out, (Object) record);
+        } catch (final IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next record from the specified stream into the specified instance, which can be
+     * reused for each record.
+     *
+     * @param in
+     *            the stream to read from
+     * @param target
+     *            the instance to set the fields of
+     * @throws UnsupportedOperationException
+     *             if the class of the records is a record class, which is immutable
+     * @throws IllegalStateException
+     *             if the end of stream is reached before the end of the record
+     * @throws IOException
+     *             if an I/O error occurs, or if a varint is too long
+     */
+    public void read(BitInputStream in, T target) throws IOException {
+        if (readFields == null) {
+            throw new UnsupportedOperationException(type.getName() + " is immutable");
+        }
+        try {
+            readFields.invokeExact((Object) target, in);
+        } catch (final IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next record from the specified stream into a new instance.
+     *
+     * @param in
+     *            the stream to read from
+     * @return the new record
+     * @throws UnsupportedOperationException
+     *             if the class of the records has no no-arg constructor and is not a record class
+     * @throws IllegalStateException
+     *             if the end of stream is reached before the end of the record
+     * @throws IOException
+     *             if an I/O error occurs, or if a varint is too long
+     */
+    @SuppressWarnings("unchecked")
+    public T read(BitInputStream in) throws IOException {
+        try {
+            if (newRecord != null) {
+                final long[] components = new long[componentCount];
+                readComponents.invokeExact(components, in);
+                return (T) (Object) newRecord.invokeExact(components);
+            }
+            if (newInstance == null) {
+                throw new UnsupportedOperationException(type.getName() + " has no no-arg constructor");
+            }
+            final Object record = (Object) newInstance.invokeExact();
+            readFields.invokeExact(record, in);
+            return (T) record;
+        } catch (final IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a handle reading the specified field: {@code (BitInputStream)long}.
+     */
+    private static MethodHandle reader(FieldSpec spec) {
+        if (spec.isVarint()) {
+            return MethodHandles.insertArguments(READ_VARINT, 0, spec.isSigned());
+        }
+        return MethodHandles.insertArguments(READ_FIXED, 0, spec.getWidth(), spec.isSigned());
+    }
+
+    /**
+     * Returns a handle writing the specified field: {@code (BitOutputStream, long)void}.
+     */
+    private static MethodHandle writer(FieldSpec spec) {
+        if (spec.isVarint()) {
+            return MethodHandles.insertArguments(WRITE_VARINT, 0, spec.isSigned());
+        }
+        return MethodHandles.insertArguments(WRITE_FIXED, 0, spec.getWidth(), spec.isSigned());
+    }
+
+    /**
+     * Returns the specified getter as a handle {@code (Object)long}. For unsigned fields, the
+     * values of {@code int}, {@code short} and {@code byte} fields are zero-extended, so that a
+     * value read from a field as wide as the Java field is written back unchanged.
+     */
+    private static MethodHandle toLongGetter(MethodHandle getter, FieldSpec spec) {
+        MethodHandle handle = getter;
+        final Class<?> fieldType = getter.type().returnType();
+        if (!spec.isSigned()) {
+            if (fieldType == int.class) {
+                handle = MethodHandles.filterReturnValue(handle, INT_TO_UNSIGNED);
+            } else if (fieldType == short.class) {
+                handle = MethodHandles.filterReturnValue(handle, SHORT_TO_UNSIGNED);
+            } else if (fieldType == byte.class) {
+                handle = MethodHandles.filterReturnValue(handle, BYTE_TO_UNSIGNED);
+            }
+        }
+        return MethodHandles.explicitCastArguments(handle, MethodType.methodType(long.class, Object.class));
+    }
+
+    /**
+     * Combines handles with the same parameters and no return value into a handle calling them
+     * in order.
+     */
+    private static MethodHandle sequence(MethodHandle[] steps) {
+        MethodHandle handle = steps[steps.length - 1];
+        for (int i = steps.length - 2; i >= 0; i--) {
+            handle = MethodHandles.foldArguments(handle, steps[i]);
+        }
+        return handle;
+    }
+
+    private static long readFixed(int width, boolean signed, BitInputStream in) throws IOException {
+        final long bits = in.readBits(width);
+        return signed ? bits << Long.SIZE - width >> Long.SIZE - width : bits;
+    }
+
+    private static long readVarint(boolean signed, BitInputStream in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < MAX_VARINT_GROUPS; i++) {
+            final int group = (int) in.readBits(Byte.SIZE);
+            if (value >>> Long.SIZE - VARINT_GROUP_BITS != 0) {
+                throw new IOException("invalid varint: the value does not fit in " + Long.SIZE + " bits");
+            }
+            value = value << VARINT_GROUP_BITS | group & VARINT_GROUP_MASK;
+            if ((group & VARINT_CONTINUATION) == 0) {
+                return signed ? value >>> 1 ^ -(value & 1) : value;
+            }
+        }
+        throw new IOException("invalid varint: more than " + MAX_VARINT_GROUPS + " bytes");
+    }
+
+    private static void writeFixed(int width, boolean signed, BitOutputStream out, long value) throws IOException {
+        final int unused = Long.SIZE - width;
+        final boolean fits = signed ? value << unused >> unused == value : unused == 0 || value >>> width == 0;
+        if (!fits) {
+            throw new IllegalArgumentException("value " + value + " does not fit in " + width
+                    + (signed ? " signed bits" : " unsigned bits"));
+        }
+        out.writeBits(value, width);
+    }
+
+    private static void writeVarint(boolean signed, BitOutputStream out, long value) throws IOException {
+        final long bits = signed ? value << 1 ^ value >> Long.SIZE - 1 : value;
+        final int length = Long.SIZE - Long.numberOfLeadingZeros(bits);
+        final int groups = Math.max(1, (length + VARINT_GROUP_BITS - 1) / VARINT_GROUP_BITS);
+        for (int i = groups - 1; i >= 0; i--) {
+            final long group = bits >>> VARINT_GROUP_BITS * i & VARINT_GROUP_MASK;
+            out.writeBits(i > 0 ? group | VARINT_CONTINUATION : group, Byte.SIZE);
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                final Field field = c.getDeclaredField(name);
+                final Class<?> fieldType = field.getType();
+                if (fieldType != long.class && fieldType != int.class && fieldType != short.class
+                        && fieldType != byte.class && fieldType != char.class && fieldType != boolean.class) {
+                    throw new IllegalArgumentException("the field '" + name + "' of " + type.getName()
+                            + " is not an integer");
+                }
+                if (Modifier.isStatic(field.getModifiers())) {
+                    throw new IllegalArgumentException("the field '" + name + "' of " + type.getName() + " is static");
+                }
+                field.setAccessible(true);
+                return field;
+            } catch (final NoSuchFieldException e) {
+                // looks in the superclass
+            }
+        }
+        throw new IllegalArgumentException("no field '" + name + "' in " + type.getName());
+    }
+
+    /**
+     * Checks that the specified Java field can hold all the values of the specified schema field,
+     * so that the records are read and written back unchanged.
+     */
+    private static void checkCapacity(FieldSpec spec, Field field, Class<?> type) {
+        final Class<?> fieldType = field.getType();
+        if (fieldType == long.class) {
+            return;
+        }
+        final String description = "the field '" + field.getName() + "' of " + type.getName() + " is a " + fieldType;
+        if (spec.isVarint()) {
+            throw new IllegalArgumentException(description + ", a varint requires a long");
+        }
+        if (spec.isSigned() && (fieldType == char.class || fieldType == boolean.class)) {
+            throw new IllegalArgumentException(description + ", which cannot hold signed values");
+        }
+        final int bits;
+        if (fieldType == int.class) {
+            bits = Integer.SIZE;
+        } else if (fieldType == short.class) {
+            bits = Short.SIZE;
+        } else if (fieldType == char.class) {
+            bits = Character.SIZE;
+        } else if (fieldType == byte.class) {
+            bits = Byte.SIZE;
+        } else {
+            bits = 1;
+        }
+        if (spec.getWidth() > bits) {
+            throw new IllegalArgumentException(description + ", which cannot hold " + spec.getWidth() + " bits");
+        }
+    }
+
+    /**
+     * Returns the names of the components of the specified record class, in order, or
+     * {@code null} if it is not a record class. Records only exist since Java 16, so they are
+     * detected by reflection.
+     */
+    private static String[] getRecordComponentNames(Class<?> type) {
+        final Object[] components;
+        try {
+            components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+            if (components == null) {
+                return null;
+            }
+            final String[] names = new String[components.length];
+            for (int i = 0; i < components.length; i++) {
+                names[i] = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+            }
+            return names;
+        } catch (final NoSuchMethodException e) {
+            // before Java 16
+            return null;
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("cannot read the components of " + type.getName(), e);
+        }
+    }
+
+    private static MethodHandle findNoArgConstructor(MethodHandles.Lookup lookup, Class<?> type) {
+        final Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+        if (Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        constructor.setAccessible(true);
+        final MethodHandle handle = unreflect(() -> lookup.unreflectConstructor(constructor));
+        return handle.asType(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * Returns a handle creating a record from its components: {@code (long[])Object}.
+     */
+    private static MethodHandle findCanonicalConstructor(MethodHandles.Lookup lookup, Class<?> type,
+            String[] components) {
+        final Constructor<?> constructor;
+        try {
+            // each component is stored in a private field of the same name and type
+            final Class<?>[] parameterTypes = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                parameterTypes[i] = type.getDeclaredField(components[i]).getType();
+            }
+            constructor = type.getDeclaredConstructor(parameterTypes);
+        } catch (final NoSuchFieldException | NoSuchMethodException e) {
+            throw new IllegalArgumentException("no canonical constructor in " + type.getName(), e);
+        }
+        constructor.setAccessible(true);
+        final MethodHandle handle = unreflect(() -> lookup.unreflectConstructor(constructor));
+        final Class<?>[] longs = new Class<?>[components.length];
+        Arrays.fill(longs, long.class);
+        return MethodHandles.explicitCastArguments(handle, MethodType.methodType(Object.class, longs))
+                .asSpreader(long[].class, components.length);
+    }
+
+    private interface Unreflection {
+        MethodHandle get() throws IllegalAccessException;
+    }
+
+    private static MethodHandle unreflect(Unreflection unreflection) {
+        try {
+            return unreflection.get();
+        } catch (final IllegalAccessException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+}
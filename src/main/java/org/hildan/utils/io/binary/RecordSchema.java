@@ -0,0 +1,88 @@
+package org.hildan.utils.io.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A declarative description of a binary record: the sequence of {@link FieldSpec}s encoded one
+ * after the other in a stream of bits, without any alignment. A schema is compiled into a
+ * {@link RecordCodec} for a given Java class, which then reads and writes the records without
+ * per-field interpretation of the schema.
+ */
+public class RecordSchema {
+
+    private final List<FieldSpec> fields;
+
+    /**
+     * Creates a new {@code RecordSchema} made of the specified fields.
+     *
+     * @param fields
+     *            the fields of the records, in the order they are encoded
+     */
+    public RecordSchema(FieldSpec... fields) {
+        this(Arrays.asList(fields));
+    }
+
+    /**
+     * Creates a new {@code RecordSchema} made of the specified fields.
+     *
+     * @param fields
+     *            the fields of the records, in the order they are encoded
+     */
+    public RecordSchema(List<FieldSpec> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("at least one field is required");
+        }
+        final Set<String> names = new HashSet<>();
+        for (final FieldSpec field : fields) {
+            if (!names.add(field.getName())) {
+                throw new IllegalArgumentException("duplicate field '" + field.getName() + "'");
+            }
+        }
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+    }
+
+    /**
+     * Returns the fields of this schema.
+     *
+     * @return an unmodifiable list of the fields, in the order they are encoded
+     */
+    public List<FieldSpec> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the number of fields of the records described by this schema.
+     *
+     * @return the number of fields of this schema
+     */
+    public int size() {
+        return fields.size();
+    }
+
+    /**
+     * Compiles this schema into a codec for the specified class. See {@link RecordCodec} for the
+     * requirements on the class.
+     *
+     * @param type
+     *            the class of the records
+     * @param <T>
+     *            the type of the records
+     * @return a codec reading and writing instances of {@code type}
+     * @throws IllegalArgumentException
+     *             if a field of this schema does not match an integer field of the class, or if
+     *             the integer field cannot hold all the values of the schema field
+     */
+    public <T> RecordCodec<T> compile(Class<T> type) {
+        return new RecordCodec<>(this, type);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordSchema" + fields;
+    }
+}
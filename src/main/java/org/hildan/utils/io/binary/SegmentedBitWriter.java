@@ -0,0 +1,274 @@
+package org.hildan.utils.io.binary;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a single stream of bits made of {@link BitSegment}s that may be encoded concurrently.
+ * Unlike {@link BitOutputStream}, whose methods all synchronize on the same stream, each thread
+ * encodes its part of the data into its own segment, without any locking, and the segments are
+ * then concatenated in order.
+ * <p>
+ * The segments are concatenated at the bit level: a segment starts right after the last bit of
+ * the previous one, even if that bit is in the middle of a byte. The bits are shifted a long at a
+ * time, and written to the destination in large batches. The resulting bits are the same as if
+ * all the segments had been written to a single {@link BitOutputStream}, and can be read with a
+ * {@link BitInputStream}.
+ * <p>
+ * The last byte is padded with 0s when this writer is closed.
+ */
+public class SegmentedBitWriter implements Flushable, Closeable {
+
+    /**
+     * The size of the batches written to the destination.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of segments per thread of the pool used by
+     * {@link #encode(List, BiConsumer)}, to balance uneven items.
+     */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    /**
+     * The stream to write to, or {@code null} if writing to {@link #channel}.
+     */
+    private final OutputStream out;
+
+    /**
+     * The channel to write to, or {@code null} if writing to {@link #out}.
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * The bytes not written to the destination yet, in write mode.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The bits of the current incomplete long, in the most significant bits.
+     */
+    private long pending;
+
+    private int pendingLength;
+
+    private long bitPosition;
+
+    private boolean closed;
+
+    /**
+     * Creates a new {@code SegmentedBitWriter} writing to the specified stream.
+     *
+     * @param out
+     *            the stream to write to, which is closed when this writer is closed
+     */
+    public SegmentedBitWriter(OutputStream out) {
+        this.out = out;
+        this.channel = null;
+    }
+
+    /**
+     * Creates a new {@code SegmentedBitWriter} writing to the specified channel.
+     *
+     * @param channel
+     *            the channel to write to, in blocking mode. It is closed when this writer is
+     *            closed.
+     */
+    public SegmentedBitWriter(WritableByteChannel channel) {
+        this.out = null;
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the number of bits written so far, including the bits that are not flushed yet.
+     *
+     * @return the position of the next bit to write
+     */
+    public synchronized long getBitPosition() {
+        return bitPosition;
+    }
+
+    /**
+     * Encodes the specified items in parallel, and writes them in order. The items are split in
+     * contiguous ranges, each range being encoded into its own segment by a thread of the common
+     * {@link ForkJoinPool}.
+     *
+     * @param items
+     *            the items to encode, in a list with fast random access
+     * @param encoder
+     *            the function writing an item to a segment, which is called concurrently for
+     *            different segments
+     * @param <T>
+     *            the type of the items
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public <T> void encode(List<T> items, BiConsumer<? super T, ? super BitSegment> encoder) throws IOException {
+        final int size = items.size();
+        final int segmentCount = Math.min(size, ForkJoinPool.getCommonPoolParallelism() * SEGMENTS_PER_THREAD);
+        final BitSegment[] segments = new BitSegment[segmentCount];
+        IntStream.range(0, segmentCount).parallel().forEach(s -> {
+            final int from = (int) ((long) size * s / segmentCount);
+            final int to = (int) ((long) size * (s + 1) / segmentCount);
+            final BitSegment segment = new BitSegment();
+            for (int i = from; i < to; i++) {
+                encoder.accept(items.get(i), segment);
+            }
+            segments[s] = segment;
+        });
+        for (final BitSegment segment : segments) {
+            write(segment);
+        }
+    }
+
+    /**
+     * Writes the bits of the specified segment after the bits written so far.
+     *
+     * @param segment
+     *            the segment to write, which is not modified
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public synchronized void write(BitSegment segment) throws IOException {
+        ensureOpen();
+        final long[] words = segment.words();
+        final int fullWords = (int) (segment.getBitLength() >>> 6);
+        final int remainingBits = (int) segment.getBitLength() & 63;
+        if (pendingLength == 0) {
+            for (int i = 0; i < fullWords; i++) {
+                putLong(words[i]);
+            }
+        } else {
+            final int shift = pendingLength;
+            long carry = pending;
+            for (int i = 0; i < fullWords; i++) {
+                final long word = words[i];
+                putLong(carry | word >>> shift);
+                carry = word << Long.SIZE - shift;
+            }
+            pending = carry;
+        }
+        if (remainingBits > 0) {
+            appendPending(words[fullWords], remainingBits);
+        }
+        bitPosition += segment.getBitLength();
+    }
+
+    /**
+     * Appends bits to the pending bits, writing the pending long if it is complete.
+     *
+     * @param bits
+     *            the bits to append, in the most significant bits, the other bits being 0
+     * @param length
+     *            the number of bits to append, less than 64
+     */
+    private void appendPending(long bits, int length) throws IOException {
+        pending |= bits >>> pendingLength;
+        final int total = pendingLength + length;
+        if (total < Long.SIZE) {
+            pendingLength = total;
+            return;
+        }
+        putLong(pending);
+        // pendingLength is not 0 here, because length < 64
+        pending = bits << Long.SIZE - pendingLength;
+        pendingLength = total - Long.SIZE;
+    }
+
+    private void putLong(long value) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            writeBuffer();
+        }
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes the content of the buffer to the destination, and clears it.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        if (channel != null) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes all the complete bytes written so far to the destination. The bits of an incomplete
+     * byte are kept until the next bits are written, or until this writer is closed.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        flushBytes();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Moves the complete bytes of the pending bits to the buffer, and writes the buffer.
+     */
+    private void flushBytes() throws IOException {
+        while (pendingLength >= Byte.SIZE) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            buffer.put((byte) (pending >>> Long.SIZE - Byte.SIZE));
+            pending <<= Byte.SIZE;
+            pendingLength -= Byte.SIZE;
+        }
+        writeBuffer();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Writes the remaining bits, padding the last byte with 0s, and closes the destination.
+     *
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (pendingLength % Byte.SIZE != 0) {
+                // the padding bits of the pending long are already 0
+                pendingLength += Byte.SIZE - pendingLength % Byte.SIZE;
+            }
+            flushBytes();
+            if (out != null) {
+                out.flush();
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            } else {
+                out.close();
+            }
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package org.hildan.utils.io.extractor;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An {@code Extractor} provides methods to parse easily a text file. It is especially useful when
  * parsing an HTML page containing a table.
+ * <p>
+ * The content can either be extracted step by step using the {@code extractNext*} methods, or
+ * declaratively as a lazy sequence of {@link Row}s described by a {@link RowSpec}.
  */
-public abstract class Extractor {
-
-    private final String source;
+public class Extractor implements Closeable {
 
     private final BufferedReader reader;
 
@@ -21,7 +31,26 @@ public abstract class Extractor {
     private String line;
 
     /**
-     * Creates a new Extractor for the specified resource file.
+     * Whether the first line has been read. It is only read by the first search, so that a
+     * listener set after the creation of this extractor is notified of it.
+     */
+    private boolean started;
+
+    private ExtractorListener listener;
+
+    /**
+     * The number of lines read while a listener is set.
+     */
+    private int linesRead;
+
+    /**
+     * The number of characters examined by the searches while a listener is set.
+     */
+    private long charsScanned;
+
+    /**
+     * Creates a new Extractor for the specified resource file. The resource is looked up using
+     * {@link Class#getResourceAsStream(String)} on the actual class of this {@code Extractor}.
      *
      * @param resourceFile
      *            The file to parse.
@@ -29,14 +58,30 @@ public abstract class Extractor {
      *             If an I/O error occurs.
      */
     public Extractor(String resourceFile) throws IOException {
-        this.source = resourceFile;
-        final InputStream is = getClass().getResourceAsStream(source);
+        final InputStream is = getClass().getResourceAsStream(resourceFile);
         if (is == null) {
-            throw new FileNotFoundException("Couldn't find the file " + source);
+            throw new FileNotFoundException("Couldn't find the file " + resourceFile);
         }
         reader = new BufferedReader(new InputStreamReader(is));
         eof = false;
-        nextLine();
+    }
+
+    /**
+     * Creates a new Extractor parsing the content of the specified {@link Reader}.
+     *
+     * @param source
+     *            The reader to parse. It is wrapped in a {@link BufferedReader} if it is not one
+     *            already.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public Extractor(Reader source) throws IOException {
+        if (source instanceof BufferedReader) {
+            reader = (BufferedReader) source;
+        } else {
+            reader = new BufferedReader(source);
+        }
+        eof = false;
     }
 
     /**
@@ -53,6 +98,9 @@ public abstract class Extractor {
             line = reader.readLine();
             if (line == null) {
                 eof = true;
+            } else if (listener != null) {
+                linesRead++;
+                listener.lineRead(line.length());
             }
             return !eof;
         } catch (final IOException e) {
@@ -64,13 +112,96 @@ public abstract class Extractor {
         }
     }
 
+    /**
+     * Reads the first line, if it has not been read yet.
+     *
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            nextLine();
+        }
+    }
+
+    /**
+     * Sets the listener to notify of the lines read and of the searches performed by this
+     * extractor. When no listener is set, no measurement is performed.
+     *
+     * @param listener
+     *            the listener to notify, or {@code null} to disable the notifications
+     */
+    public void setListener(ExtractorListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Closes the underlying reader.
+     *
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Returns a lazy {@link Iterator} over the rows described by the specified {@link RowSpec}.
+     * Each row is only extracted when requested, so that the memory usage does not depend on the
+     * size of the source. The iteration ends at the first incomplete row.
+     * <p>
+     * I/O errors occurring during the iteration are thrown as {@link UncheckedIOException}s.
+     *
+     * @param spec
+     *            the description of the rows to extract
+     * @return an iterator over the remaining rows of the source
+     */
+    public Iterator<Row> rowIterator(RowSpec spec) {
+        return new RowIterator(spec);
+    }
+
+    /**
+     * Returns a lazy sequential {@link Stream} of the rows described by the specified
+     * {@link RowSpec}. Each row is only extracted when the stream pulls it, so short-circuiting
+     * operations such as {@link Stream#limit(long)} or {@link Stream#findFirst()} stop reading the
+     * source as soon as possible. Closing the stream closes this {@code Extractor}.
+     * <p>
+     * I/O errors occurring while the stream is consumed are thrown as
+     * {@link UncheckedIOException}s.
+     *
+     * @param spec
+     *            the description of the rows to extract
+     * @return a stream of the remaining rows of the source
+     */
+    public Stream<Row> rows(RowSpec spec) {
+        final Spliterator<Row> spliterator = Spliterators.spliteratorUnknownSize(rowIterator(spec),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
     /**
      * Returns whether the end of the file has been reached.
      *
      * @return {@code true} if the end of the file has been reached, meaning that there are no more
      *         lines to read.
+     * @throws UncheckedIOException
+     *             If no search has been performed yet, and an I/O error occurs while reading the
+     *             first line.
      */
     public boolean isEofReached() {
+        try {
+            start();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return eof;
     }
 
@@ -111,6 +242,24 @@ public abstract class Extractor {
      *             If an I/O error occurs.
      */
     public String extractNextBetween(String prefix, String suffix, boolean searchNextLines) throws IOException {
+        if (listener == null) {
+            return searchBetween(prefix, suffix, searchNextLines);
+        }
+        final int linesBefore = linesRead;
+        final long charsBefore = charsScanned;
+        final long start = System.nanoTime();
+        final String result = searchBetween(prefix, suffix, searchNextLines);
+        final long duration = System.nanoTime() - start;
+        notifySearchEnded(FieldRule.between(prefix, suffix), result, linesBefore, charsBefore, duration);
+        return result;
+    }
+
+    /**
+     * Implements {@link #extractNextBetween(String, String, boolean)}, without notifying the
+     * listener.
+     */
+    private String searchBetween(String prefix, String suffix, boolean searchNextLines) throws IOException {
+        start();
         String result = null;
         while ((result = currentLineExtractBetween(prefix, suffix)) == null) {
             if (!searchNextLines) {
@@ -156,8 +305,24 @@ public abstract class Extractor {
      *             If an I/O error occurs.
      */
     public String extractNextAfter(String prefix, boolean searchNextLines) throws IOException {
+        if (listener == null) {
+            return searchAfter(prefix, searchNextLines);
+        }
+        final int linesBefore = linesRead;
+        final long charsBefore = charsScanned;
+        final long start = System.nanoTime();
+        final String result = searchAfter(prefix, searchNextLines);
+        final long duration = System.nanoTime() - start;
+        notifySearchEnded(FieldRule.after(prefix), result, linesBefore, charsBefore, duration);
+        return result;
+    }
+
+    /**
+     * Implements {@link #extractNextAfter(String, boolean)}, without notifying the listener.
+     */
+    private String searchAfter(String prefix, boolean searchNextLines) throws IOException {
+        start();
         String result = null;
-        ;
         while ((result = currentLineExtractAfter(prefix)) == null) {
             if (!searchNextLines) {
                 return null;
@@ -170,6 +335,32 @@ public abstract class Extractor {
         return result;
     }
 
+    /**
+     * Notifies the listener of the end of a search.
+     *
+     * @param rule
+     *            the searched rule
+     * @param result
+     *            the result of the search
+     * @param linesBefore
+     *            the value of {@link #linesRead} before the search
+     * @param charsBefore
+     *            the value of {@link #charsScanned} before the search
+     * @param duration
+     *            the duration of the search, in nanoseconds
+     */
+    private void notifySearchEnded(FieldRule rule, String result, int linesBefore, long charsBefore, long duration) {
+        final ExtractorListener.Outcome outcome;
+        if (result != null) {
+            outcome = ExtractorListener.Outcome.MATCH;
+        } else if (eof) {
+            outcome = ExtractorListener.Outcome.EOF;
+        } else {
+            outcome = ExtractorListener.Outcome.MISS;
+        }
+        listener.searchEnded(rule, outcome, linesRead - linesBefore, charsScanned - charsBefore, duration);
+    }
+
     /**
      * Extracts the content between the next occurrence of {@code prefix} and the end of the current
      * line. If {@code prefix} is found, then this method consumes the current line.
@@ -185,8 +376,14 @@ public abstract class Extractor {
         }
         final int i = line.indexOf(prefix);
         if (i == -1) {
+            if (listener != null) {
+                charsScanned += line.length();
+            }
             return null;
         }
+        if (listener != null) {
+            charsScanned += i + prefix.length();
+        }
         final String res = line.substring(i + prefix.length());
         // consumes the end of the line
         line = "";
@@ -204,7 +401,8 @@ public abstract class Extractor {
      * @param suffix
      *            The {@link String} following the part that has to be extracted.
      * @return The content between {@code prefix} and {@code suffix}, or {@code null} if one of
-     *         {@code prefix} and {@code suffix} is not found in the current line.
+     *         {@code prefix} and {@code suffix} is not found in the current line. In this case,
+     *         the current line is entirely consumed.
      */
     private String currentLineExtractBetween(String prefix, String suffix) {
         line = currentLineExtractAfter(prefix);
@@ -212,9 +410,56 @@ public abstract class Extractor {
             return null;
         }
         final int i = line.indexOf(suffix);
+        if (i == -1) {
+            // the field is incomplete, nothing can be extracted from this line anymore
+            line = null;
+            return null;
+        }
+        if (listener != null) {
+            charsScanned += i + suffix.length();
+        }
         final String res = line.substring(0, i);
         // consumes the line up to the end of the returned part
         line = line.substring(i);
         return res;
     }
+
+    /**
+     * An {@link Iterator} extracting the rows on demand.
+     */
+    private class RowIterator implements Iterator<Row> {
+
+        private final RowSpec spec;
+
+        private Row next;
+
+        private boolean done;
+
+        RowIterator(RowSpec spec) {
+            this.spec = spec;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = spec.extractRow(Extractor.this);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Row row = next;
+            next = null;
+            return row;
+        }
+    }
 }
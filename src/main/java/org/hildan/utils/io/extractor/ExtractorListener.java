@@ -0,0 +1,59 @@
+package org.hildan.utils.io.extractor;
+
+/**
+ * A listener notified of the work done by an {@link Extractor}, for monitoring purposes. All
+ * methods do nothing by default.
+ * <p>
+ * When no listener is set on an {@code Extractor}, no timing measurement is performed at all.
+ * Listeners shared between several extractors (for instance through a {@link ParallelExtractor})
+ * must be thread-safe.
+ *
+ * @see ExtractorStats
+ */
+public interface ExtractorListener {
+
+    /**
+     * The outcome of a search for a {@link FieldRule}.
+     */
+    enum Outcome {
+        /**
+         * The content was found.
+         */
+        MATCH,
+        /**
+         * The content was not found in the current line, and the next lines were not searched.
+         */
+        MISS,
+        /**
+         * The content was not found before the end of the source.
+         */
+        EOF
+    }
+
+    /**
+     * Called each time a line is read from the source.
+     *
+     * @param length
+     *            the number of characters of the line, excluding the line terminator
+     */
+    default void lineRead(int length) {
+    }
+
+    /**
+     * Called at the end of each search performed by one of the {@code extractNext*} methods of the
+     * {@link Extractor}.
+     *
+     * @param rule
+     *            the rule describing the searched content
+     * @param outcome
+     *            the outcome of the search
+     * @param linesRead
+     *            the number of lines read from the source during this search
+     * @param charsScanned
+     *            the number of characters examined during this search
+     * @param durationNanos
+     *            the duration of the search, in nanoseconds
+     */
+    default void searchEnded(FieldRule rule, Outcome outcome, int linesRead, long charsScanned, long durationNanos) {
+    }
+}
@@ -0,0 +1,232 @@
+package org.hildan.utils.io.extractor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe {@link ExtractorListener} accumulating counters about the work done by one or
+ * several {@link Extractor}s, globally and per {@link FieldRule}. The current values can be
+ * retrieved at any time as an immutable {@link Snapshot}.
+ */
+public class ExtractorStats implements ExtractorListener {
+
+    private final LongAdder linesRead = new LongAdder();
+
+    private final LongAdder charsRead = new LongAdder();
+
+    private final Map<FieldRule, RuleCounters> rules = new ConcurrentHashMap<>();
+
+    @Override
+    public void lineRead(int length) {
+        linesRead.increment();
+        charsRead.add(length);
+    }
+
+    @Override
+    public void searchEnded(FieldRule rule, Outcome outcome, int linesRead, long charsScanned, long durationNanos) {
+        RuleCounters counters = rules.get(rule);
+        if (counters == null) {
+            counters = rules.computeIfAbsent(rule, r -> new RuleCounters());
+        }
+        counters.add(outcome, linesRead, charsScanned, durationNanos);
+    }
+
+    /**
+     * Resets all the counters to zero.
+     */
+    public void reset() {
+        linesRead.reset();
+        charsRead.reset();
+        rules.clear();
+    }
+
+    /**
+     * Returns the current values of the counters. The snapshot is not atomic with respect to
+     * concurrent updates, but each counter is consistent.
+     *
+     * @return an immutable snapshot of the counters
+     */
+    public Snapshot snapshot() {
+        final Map<FieldRule, Snapshot> perRule = new LinkedHashMap<>();
+        long matches = 0;
+        long misses = 0;
+        long eofSearches = 0;
+        long charsScanned = 0;
+        long scanNanos = 0;
+        for (final Map.Entry<FieldRule, RuleCounters> entry : rules.entrySet()) {
+            final Snapshot ruleSnapshot = entry.getValue().snapshot();
+            perRule.put(entry.getKey(), ruleSnapshot);
+            matches += ruleSnapshot.matches;
+            misses += ruleSnapshot.misses;
+            eofSearches += ruleSnapshot.eofSearches;
+            charsScanned += ruleSnapshot.charsScanned;
+            scanNanos += ruleSnapshot.scanNanos;
+        }
+        return new Snapshot(linesRead.sum(), charsRead.sum(), charsScanned, matches, misses, eofSearches, scanNanos,
+                Collections.unmodifiableMap(perRule));
+    }
+
+    /**
+     * The counters of a single rule.
+     */
+    private static class RuleCounters {
+
+        private final LongAdder linesRead = new LongAdder();
+
+        private final LongAdder charsScanned = new LongAdder();
+
+        private final LongAdder matches = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private final LongAdder eofSearches = new LongAdder();
+
+        private final LongAdder scanNanos = new LongAdder();
+
+        void add(Outcome outcome, int lines, long chars, long nanos) {
+            switch (outcome) {
+            case MATCH:
+                matches.increment();
+                break;
+            case MISS:
+                misses.increment();
+                break;
+            case EOF:
+                eofSearches.increment();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown outcome " + outcome);
+            }
+            linesRead.add(lines);
+            charsScanned.add(chars);
+            scanNanos.add(nanos);
+        }
+
+        Snapshot snapshot() {
+            final long lines = linesRead.sum();
+            return new Snapshot(lines, -1, charsScanned.sum(), matches.sum(), misses.sum(), eofSearches.sum(),
+                    scanNanos.sum(), Collections.<FieldRule, Snapshot> emptyMap());
+        }
+    }
+
+    /**
+     * An immutable view of the counters at a given point in time, either global or for a single
+     * rule.
+     */
+    public static class Snapshot {
+
+        private final long linesRead;
+
+        private final long charsRead;
+
+        private final long charsScanned;
+
+        private final long matches;
+
+        private final long misses;
+
+        private final long eofSearches;
+
+        private final long scanNanos;
+
+        private final Map<FieldRule, Snapshot> perRule;
+
+        Snapshot(long linesRead, long charsRead, long charsScanned, long matches, long misses, long eofSearches,
+                long scanNanos, Map<FieldRule, Snapshot> perRule) {
+            this.linesRead = linesRead;
+            this.charsRead = charsRead;
+            this.charsScanned = charsScanned;
+            this.matches = matches;
+            this.misses = misses;
+            this.eofSearches = eofSearches;
+            this.scanNanos = scanNanos;
+            this.perRule = perRule;
+        }
+
+        /**
+         * Returns the number of lines read from the sources. For a rule, this is the number of
+         * lines read while searching for this rule.
+         *
+         * @return the number of lines read
+         */
+        public long getLinesRead() {
+            return linesRead;
+        }
+
+        /**
+         * Returns the number of characters read from the sources, excluding line terminators.
+         *
+         * @return the number of characters read, or -1 for the snapshot of a single rule
+         */
+        public long getCharsRead() {
+            return charsRead;
+        }
+
+        /**
+         * Returns the number of characters examined while searching for prefixes and suffixes.
+         *
+         * @return the number of characters scanned
+         */
+        public long getCharsScanned() {
+            return charsScanned;
+        }
+
+        /**
+         * Returns the number of searches that found their content.
+         *
+         * @return the number of matches
+         */
+        public long getMatches() {
+            return matches;
+        }
+
+        /**
+         * Returns the number of searches limited to the current line that did not find their
+         * content.
+         *
+         * @return the number of misses
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of searches that reached the end of the source without finding their
+         * content.
+         *
+         * @return the number of searches terminated by the end of the source
+         */
+        public long getEofSearches() {
+            return eofSearches;
+        }
+
+        /**
+         * Returns the total time spent searching.
+         *
+         * @return the cumulated duration of the searches, in nanoseconds
+         */
+        public long getScanNanos() {
+            return scanNanos;
+        }
+
+        /**
+         * Returns the snapshots of each rule that has been searched.
+         *
+         * @return an unmodifiable map of the snapshots per rule, empty for the snapshot of a single
+         *         rule
+         */
+        public Map<FieldRule, Snapshot> getPerRule() {
+            return perRule;
+        }
+
+        @Override
+        public String toString() {
+            return "linesRead=" + linesRead + ", charsRead=" + charsRead + ", charsScanned=" + charsScanned
+                    + ", matches=" + matches + ", misses=" + misses + ", eofSearches=" + eofSearches + ", scanNanos="
+                    + scanNanos;
+        }
+    }
+}
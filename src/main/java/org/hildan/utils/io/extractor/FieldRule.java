@@ -0,0 +1,114 @@
+package org.hildan.utils.io.extractor;
+
+import java.io.IOException;
+
+/**
+ * Describes how to extract a single field using an {@link Extractor}: either the content between a
+ * prefix and a suffix, or the content between a prefix and the end of the line.
+ */
+public class FieldRule {
+
+    private final String prefix;
+
+    private final String suffix;
+
+    private FieldRule(String prefix, String suffix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("the prefix must not be null");
+        }
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Creates a rule extracting the content between the next occurrence of {@code prefix} and the
+     * next occurrence of {@code suffix}.
+     *
+     * @param prefix
+     *            The {@link String} preceding the part that has to be extracted.
+     * @param suffix
+     *            The {@link String} following the part that has to be extracted.
+     * @return the new rule
+     * @see Extractor#extractNextBetween(String, String)
+     */
+    public static FieldRule between(String prefix, String suffix) {
+        if (suffix == null) {
+            throw new IllegalArgumentException("the suffix must not be null");
+        }
+        return new FieldRule(prefix, suffix);
+    }
+
+    /**
+     * Creates a rule extracting the content between the next occurrence of {@code prefix} and the
+     * end of the line.
+     *
+     * @param prefix
+     *            The {@link String} preceding the part that has to be extracted.
+     * @return the new rule
+     * @see Extractor#extractNextAfter(String)
+     */
+    public static FieldRule after(String prefix) {
+        return new FieldRule(prefix, null);
+    }
+
+    /**
+     * Returns the {@link String} preceding the extracted content.
+     *
+     * @return the prefix of this rule
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the {@link String} following the extracted content.
+     *
+     * @return the suffix of this rule, or {@code null} if the content goes up to the end of the
+     *         line
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Applies this rule to the specified {@link Extractor}, searching the next lines if necessary.
+     *
+     * @param extractor
+     *            the {@link Extractor} to extract the content from
+     * @return the extracted content, or {@code null} if no occurrence is found in the remaining
+     *         lines of the source
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public String extract(Extractor extractor) throws IOException {
+        if (suffix == null) {
+            return extractor.extractNextAfter(prefix);
+        }
+        return extractor.extractNextBetween(prefix, suffix);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FieldRule)) {
+            return false;
+        }
+        final FieldRule other = (FieldRule) obj;
+        return prefix.equals(other.prefix) && (suffix == null ? other.suffix == null : suffix.equals(other.suffix));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * prefix.hashCode() + (suffix == null ? 0 : suffix.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        if (suffix == null) {
+            return "after '" + prefix + "'";
+        }
+        return "between '" + prefix + "' and '" + suffix + "'";
+    }
+}
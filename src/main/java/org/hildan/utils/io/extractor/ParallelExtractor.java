@@ -0,0 +1,328 @@
+package org.hildan.utils.io.extractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.hildan.utils.io.FileChunks;
+
+/**
+ * A {@code ParallelExtractor} extracts the rows described by a {@link RowSpec} from a large file
+ * using several threads. The file is split into chunks ending on a record delimiter (such as
+ * {@code "</tr>"} or a line separator), and each chunk is parsed by its own {@link Extractor} in a
+ * {@link ForkJoinPool}. The rows are then returned in document order.
+ * <p>
+ * Each row is made of the values extracted by applying all the rules in sequence, exactly as a
+ * sequential {@link Extractor} would do with successive calls. Rows must therefore not span
+ * several records. The delimiter is searched on its encoded bytes, so the charset of the file must
+ * be ASCII-compatible (UTF-8, ISO-8859-1, US-ASCII...).
+ */
+public class ParallelExtractor {
+
+    /**
+     * The default approximate size of the chunks, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final Path file;
+
+    private final Charset charset;
+
+    private final byte[] delimiter;
+
+    private final RowSpec spec;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    private volatile ExtractorListener listener;
+
+    /**
+     * Creates a new {@code ParallelExtractor} using the common {@link ForkJoinPool} and chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param file
+     *            the file to parse
+     * @param charset
+     *            the charset of the file, which has to be ASCII-compatible
+     * @param recordDelimiter
+     *            the {@link String} marking the end of a record, chunks only end right after it
+     * @param rules
+     *            the rules to apply in sequence to extract each row
+     */
+    public ParallelExtractor(Path file, Charset charset, String recordDelimiter, List<FieldRule> rules) {
+        this(file, charset, recordDelimiter, new RowSpec(rules));
+    }
+
+    /**
+     * Creates a new {@code ParallelExtractor} using the common {@link ForkJoinPool} and chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} bytes.
+     *
+     * @param file
+     *            the file to parse
+     * @param charset
+     *            the charset of the file, which has to be ASCII-compatible
+     * @param recordDelimiter
+     *            the {@link String} marking the end of a record, chunks only end right after it
+     * @param spec
+     *            the description of the rows to extract
+     */
+    public ParallelExtractor(Path file, Charset charset, String recordDelimiter, RowSpec spec) {
+        this(file, charset, recordDelimiter, spec, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ParallelExtractor}.
+     *
+     * @param file
+     *            the file to parse
+     * @param charset
+     *            the charset of the file, which has to be ASCII-compatible
+     * @param recordDelimiter
+     *            the {@link String} marking the end of a record, chunks only end right after it
+     * @param rules
+     *            the rules to apply in sequence to extract each row
+     * @param pool
+     *            the pool to run the extraction of the chunks in
+     * @param chunkSize
+     *            the approximate size of the chunks, in bytes. The actual chunks extend up to the
+     *            end of the next record delimiter.
+     */
+    public ParallelExtractor(Path file, Charset charset, String recordDelimiter, List<FieldRule> rules,
+            ForkJoinPool pool, int chunkSize) {
+        this(file, charset, recordDelimiter, new RowSpec(rules), pool, chunkSize);
+    }
+
+    /**
+     * Creates a new {@code ParallelExtractor}.
+     *
+     * @param file
+     *            the file to parse
+     * @param charset
+     *            the charset of the file, which has to be ASCII-compatible
+     * @param recordDelimiter
+     *            the {@link String} marking the end of a record, chunks only end right after it
+     * @param spec
+     *            the description of the rows to extract
+     * @param pool
+     *            the pool to run the extraction of the chunks in
+     * @param chunkSize
+     *            the approximate size of the chunks, in bytes. The actual chunks extend up to the
+     *            end of the next record delimiter.
+     * @throws IllegalArgumentException
+     *             if the chunk size is not positive, or if the charset is not ASCII-compatible
+     */
+    public ParallelExtractor(Path file, Charset charset, String recordDelimiter, RowSpec spec, ForkJoinPool pool,
+            int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("the chunk size must be positive");
+        }
+        if (!FileChunks.isAsciiCompatible(charset)) {
+            throw new IllegalArgumentException("the charset " + charset + " is not ASCII-compatible");
+        }
+        this.file = file;
+        this.charset = charset;
+        this.delimiter = recordDelimiter.getBytes(charset);
+        this.spec = spec;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the listener to notify of the work done by the extractors of all the chunks. Since the
+     * chunks are extracted concurrently, the listener must be thread-safe, as
+     * {@link ExtractorStats} is.
+     *
+     * @param listener
+     *            the listener to notify, or {@code null} to disable the notifications
+     */
+    public void setListener(ExtractorListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a {@link Stream} of the rows of the file, in document order. The chunks are
+     * extracted in parallel, a bounded number of chunks ahead of the consumption of the stream.
+     * <p>
+     * The returned stream holds the file open, and should therefore be closed, for instance with
+     * a try-with-resources statement. I/O errors occurring while the stream is consumed are thrown
+     * as {@link UncheckedIOException}s.
+     *
+     * @return a stream of rows, each row containing one value per rule of the spec
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public Stream<String[]> rows() throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        final ChunkIterator chunks = new ChunkIterator(channel);
+        final Spliterator<List<String[]>> spliterator = Spliterators.spliteratorUnknownSize(chunks,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).flatMap(List::stream).onClose(chunks::close);
+    }
+
+    /**
+     * Calls the specified action on each row of the file, in document order, from the calling
+     * thread. The chunks are extracted in parallel.
+     *
+     * @param action
+     *            the action to perform on each row, each row containing one value per rule of
+     *            the spec
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public void forEachRow(Consumer<? super String[]> action) throws IOException {
+        try (Stream<String[]> rows = rows()) {
+            rows.forEachOrdered(action);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads the specified chunk of the file and extracts all of its rows.
+     *
+     * @param channel
+     *            the file to read from
+     * @param start
+     *            the position of the first byte of the chunk
+     * @param end
+     *            the position following the last byte of the chunk
+     * @return the rows of the chunk, in document order
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    private List<String[]> extractChunk(FileChannel channel, long start, long end) throws IOException {
+        final long length = end - start;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("record too large, no delimiter found between positions " + start + " and " + end);
+        }
+        final ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, start + bytes.position()) < 0) {
+                throw new IOException("unexpected end of file at position " + (start + bytes.position()));
+            }
+        }
+        final Reader chunk = new StringReader(new String(bytes.array(), charset));
+        final List<String[]> rows = new ArrayList<>();
+        try (Extractor extractor = new Extractor(chunk)) {
+            extractor.setListener(listener);
+            String[] row;
+            while ((row = spec.extractValues(extractor)) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The task extracting the rows of a chunk in the pool.
+     */
+    private class ChunkTask extends RecursiveTask<List<String[]>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+
+        private final long start;
+
+        private final long end;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<String[]> compute() {
+            try {
+                return extractChunk(channel, start, end);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the results of the chunks in document order, submitting the next chunks to
+     * the pool ahead of the consumption.
+     */
+    private class ChunkIterator implements Iterator<List<String[]>> {
+
+        private final FileChannel channel;
+
+        private final Deque<ForkJoinTask<List<String[]>>> pending = new ArrayDeque<>();
+
+        private final int maxPending = 2 * pool.getParallelism();
+
+        private long nextChunkStart = 0;
+
+        ChunkIterator(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Submits new chunks until enough of them are pending or the end of the file is reached.
+         */
+        private void submitChunks() {
+            try {
+                final long size = channel.size();
+                while (pending.size() < maxPending && nextChunkStart < size) {
+                    final long nominalEnd = nextChunkStart + chunkSize;
+                    final long end = nominalEnd < size ? FileChunks.nextBoundary(channel, nominalEnd, delimiter) : size;
+                    pending.add(pool.submit(new ChunkTask(channel, nextChunkStart, end)));
+                    nextChunkStart = end;
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            submitChunks();
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public List<String[]> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.poll().join();
+        }
+
+        void close() {
+            for (final ForkJoinTask<?> task : pending) {
+                task.cancel(false);
+            }
+            pending.clear();
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.hildan.utils.io.extractor;
+
+import java.util.Arrays;
+
+/**
+ * A row of values extracted by applying the rules of a {@link RowSpec}.
+ */
+public class Row {
+
+    private final String[] values;
+
+    /**
+     * Creates a new {@code Row} with the specified values.
+     *
+     * @param values
+     *            the extracted values, one per rule of the {@link RowSpec}
+     */
+    Row(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Returns the value extracted by the rule at the specified index in the {@link RowSpec}.
+     *
+     * @param index
+     *            the index of the rule in the {@link RowSpec}
+     * @return the extracted value, never {@code null}
+     */
+    public String get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the number of values in this row.
+     *
+     * @return the number of rules of the {@link RowSpec} that produced this row
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Returns the values of this row as an array.
+     *
+     * @return a new array containing the values of this row, in the order of the rules
+     */
+    public String[] toArray() {
+        return values.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Row)) {
+            return false;
+        }
+        return Arrays.equals(values, ((Row) obj).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,98 @@
+package org.hildan.utils.io.extractor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A declarative description of a row: the sequence of {@link FieldRule}s to apply to extract each
+ * of its values. The rules are applied in order, each one starting where the previous one stopped,
+ * exactly as successive calls to {@link Extractor#extractNextBetween(String, String)} would.
+ */
+public class RowSpec {
+
+    private final List<FieldRule> rules;
+
+    /**
+     * Creates a new {@code RowSpec} made of the specified rules.
+     *
+     * @param rules
+     *            the rules to apply in sequence to extract a row
+     */
+    public RowSpec(FieldRule... rules) {
+        this(Arrays.asList(rules));
+    }
+
+    /**
+     * Creates a new {@code RowSpec} made of the specified rules.
+     *
+     * @param rules
+     *            the rules to apply in sequence to extract a row
+     */
+    public RowSpec(List<FieldRule> rules) {
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("at least one rule is required");
+        }
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    /**
+     * Returns the rules of this spec.
+     *
+     * @return an unmodifiable list of the rules, in the order they are applied
+     */
+    public List<FieldRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Returns the number of values of the rows described by this spec.
+     *
+     * @return the number of rules of this spec
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Extracts the next row from the specified {@link Extractor}.
+     *
+     * @param extractor
+     *            the {@link Extractor} to extract the row from
+     * @return the next row, or {@code null} if there is no complete row left in the source
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public Row extractRow(Extractor extractor) throws IOException {
+        final String[] values = extractValues(extractor);
+        return values == null ? null : new Row(values);
+    }
+
+    /**
+     * Extracts the values of the next row from the specified {@link Extractor}.
+     *
+     * @param extractor
+     *            the {@link Extractor} to extract the row from
+     * @return the values of the next row, or {@code null} if there is no complete row left in the
+     *         source
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    String[] extractValues(Extractor extractor) throws IOException {
+        final String[] values = new String[rules.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rules.get(i).extract(extractor);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "RowSpec" + rules;
+    }
+}
@@ -0,0 +1,263 @@
+package org.hildan.utils.io.paths;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Relativizes and resolves many paths as Strings against the same base directory. This is the
+ * bulk counterpart of {@link Paths#relativize(String, String)} and
+ * {@link Paths#resolve(String, String)}, meant for large manifests of files.
+ * <p>
+ * The base directory is parsed only once. Moreover, the files of large manifests usually share a
+ * few parent directories: the relativized or resolved form of each parent directory is cached, so
+ * that only the parent of each path is looked up, and the file name is simply appended to the
+ * cached parent. The cached Strings are shared by all the paths of the same directory. Paths
+ * whose file name is empty, {@code .} or {@code ..} are fully parsed instead.
+ * <p>
+ * A {@code PathResolver} is thread-safe, and can be used from parallel streams.
+ */
+public class PathResolver {
+
+    /**
+     * The default maximum number of parent directories cached for each operation.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /**
+     * The minimum size of a list for the bulk methods to process it in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 10_000;
+
+    private final Path baseDir;
+
+    private final String baseDirString;
+
+    private final String separator;
+
+    private final int maxCacheSize;
+
+    /**
+     * The relativized parent directories, by absolute parent directory.
+     */
+    private final ConcurrentMap<String, String> relativizedParents = new ConcurrentHashMap<>();
+
+    /**
+     * The resolved parent directories, by relative parent directory.
+     */
+    private final ConcurrentMap<String, String> resolvedParents = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@code PathResolver} with the default cache size.
+     *
+     * @param baseDir
+     *            the base directory to relativize and resolve paths against
+     */
+    public PathResolver(String baseDir) {
+        this(java.nio.file.Paths.get(baseDir));
+    }
+
+    /**
+     * Creates a new {@code PathResolver} with the default cache size.
+     *
+     * @param baseDir
+     *            the base directory to relativize and resolve paths against
+     */
+    public PathResolver(Path baseDir) {
+        this(baseDir, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new {@code PathResolver}.
+     *
+     * @param baseDir
+     *            the base directory to relativize and resolve paths against
+     * @param maxCacheSize
+     *            the maximum number of parent directories cached for each operation. When it is
+     *            exceeded, the cache is cleared.
+     */
+    public PathResolver(Path baseDir, int maxCacheSize) {
+        if (maxCacheSize <= 0) {
+            throw new IllegalArgumentException("the cache size must be positive");
+        }
+        this.baseDir = baseDir;
+        this.baseDirString = baseDir.toString();
+        this.separator = baseDir.getFileSystem().getSeparator();
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Returns the base directory of this {@code PathResolver}.
+     *
+     * @return the base directory
+     */
+    public Path getBaseDir() {
+        return baseDir;
+    }
+
+    /**
+     * Converts the given absolute path to a path relative to the base directory.
+     *
+     * @param absolutePath
+     *            the absolute path to relativize
+     * @return the relative path, as {@link Paths#relativize(String, String)} would return it
+     */
+    public String relativize(String absolutePath) {
+        final int nameIndex = fileNameIndex(absolutePath);
+        if (nameIndex <= 1) {
+            // no parent, or the root as parent
+            return baseDir.relativize(java.nio.file.Paths.get(absolutePath)).toString();
+        }
+        final String parent = absolutePath.substring(0, nameIndex - 1);
+        String relativizedParent = relativizedParents.get(parent);
+        if (relativizedParent == null) {
+            relativizedParent = baseDir.relativize(java.nio.file.Paths.get(parent)).toString();
+            if (isAncestor(relativizedParent)) {
+                // the path may be on the way to the base directory, which Path.relativize shortens
+                return baseDir.relativize(java.nio.file.Paths.get(absolutePath)).toString();
+            }
+            cache(relativizedParents, parent, relativizedParent);
+        }
+        return join(relativizedParent, absolutePath.substring(nameIndex));
+    }
+
+    /**
+     * Converts the given relative path to an absolute path, based on the base directory.
+     *
+     * @param relativePath
+     *            the relative path to resolve
+     * @return the resolved absolute path, as {@link Paths#resolve(String, String)} would return
+     *         it
+     */
+    public String resolve(String relativePath) {
+        final int nameIndex = fileNameIndex(relativePath);
+        if (nameIndex < 0 || nameIndex == 1) {
+            // special file name, or the root as parent
+            return baseDir.resolve(relativePath).toString();
+        }
+        if (nameIndex == 0) {
+            return join(baseDirString, relativePath);
+        }
+        final String parent = relativePath.substring(0, nameIndex - 1);
+        String resolvedParent = resolvedParents.get(parent);
+        if (resolvedParent == null) {
+            resolvedParent = baseDir.resolve(parent).toString();
+            cache(resolvedParents, parent, resolvedParent);
+        }
+        return join(resolvedParent, relativePath.substring(nameIndex));
+    }
+
+    /**
+     * Converts the given absolute paths to paths relative to the base directory. Large lists are
+     * processed in parallel.
+     *
+     * @param absolutePaths
+     *            the absolute paths to relativize
+     * @return the relative paths, in the same order
+     */
+    public List<String> relativizeAll(List<String> absolutePaths) {
+        return relativizeAll(stream(absolutePaths)).collect(Collectors.toList());
+    }
+
+    /**
+     * Converts the given absolute paths to paths relative to the base directory. The returned
+     * stream is parallel if the given stream is.
+     *
+     * @param absolutePaths
+     *            the absolute paths to relativize
+     * @return a lazy stream of the relative paths
+     */
+    public Stream<String> relativizeAll(Stream<String> absolutePaths) {
+        return absolutePaths.map(this::relativize);
+    }
+
+    /**
+     * Converts the given relative paths to absolute paths, based on the base directory. Large
+     * lists are processed in parallel.
+     *
+     * @param relativePaths
+     *            the relative paths to resolve
+     * @return the resolved absolute paths, in the same order
+     */
+    public List<String> resolveAll(List<String> relativePaths) {
+        return resolveAll(stream(relativePaths)).collect(Collectors.toList());
+    }
+
+    /**
+     * Converts the given relative paths to absolute paths, based on the base directory. The
+     * returned stream is parallel if the given stream is.
+     *
+     * @param relativePaths
+     *            the relative paths to resolve
+     * @return a lazy stream of the resolved absolute paths
+     */
+    public Stream<String> resolveAll(Stream<String> relativePaths) {
+        return relativePaths.map(this::resolve);
+    }
+
+    private static Stream<String> stream(List<String> paths) {
+        return paths.size() >= PARALLEL_THRESHOLD ? paths.parallelStream() : paths.stream();
+    }
+
+    /**
+     * Returns the index of the file name in the specified path.
+     *
+     * @param path
+     *            the path to analyze
+     * @return the index following the last separator, or -1 if the file name is empty,
+     *         {@code .} or {@code ..}, in which case the path has to be fully parsed
+     */
+    private static int fileNameIndex(String path) {
+        int index = path.length();
+        while (index > 0) {
+            final char c = path.charAt(index - 1);
+            if (c == '/' || c == File.separatorChar) {
+                break;
+            }
+            index--;
+        }
+        final int nameLength = path.length() - index;
+        if (nameLength == 0 || path.charAt(index) == '.' && (nameLength == 1
+                || nameLength == 2 && path.charAt(index + 1) == '.')) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether the specified relative path only consists of {@code ..} names.
+     */
+    private boolean isAncestor(String relativePath) {
+        if (relativePath.isEmpty()) {
+            return false;
+        }
+        for (final String name : relativePath.split(Pattern.quote(separator))) {
+            if (!"..".equals(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void cache(ConcurrentMap<String, String> cache, String key, String value) {
+        if (cache.size() >= maxCacheSize) {
+            cache.clear();
+        }
+        cache.putIfAbsent(key, value);
+    }
+
+    private String join(String parent, String name) {
+        if (parent.isEmpty()) {
+            return name;
+        }
+        if (parent.endsWith(separator)) {
+            return parent + name;
+        }
+        return parent + separator + name;
+    }
+}
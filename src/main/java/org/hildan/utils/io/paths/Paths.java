@@ -5,14 +5,75 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class to manipulate Paths as Strings.
  */
 public class Paths {
 
+    /**
+     * The ASCII characters that are kept as is by {@link #fix(String)}.
+     */
+    private static final byte KEEP = 0;
+
+    /**
+     * The ASCII characters that are always percent-encoded by {@link #fix(String)}.
+     */
+    private static final byte ESCAPE = 1;
+
+    /**
+     * The ASCII characters that are replaced depending on the context by {@link #fix(String)}: the
+     * separator, and {@code '%'}.
+     */
+    private static final byte SPECIAL = 2;
+
+    /**
+     * How each ASCII character is handled by {@link #fix(String)}.
+     */
+    private static final byte[] ASCII_ACTIONS = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ACTIONS[c] = ESCAPE;
+        }
+        ASCII_ACTIONS[0x7F] = ESCAPE;
+        for (final char c : " \"#<>[\\]^`{|}".toCharArray()) {
+            ASCII_ACTIONS[c] = ESCAPE;
+        }
+        ASCII_ACTIONS['%'] = SPECIAL;
+        if (File.separatorChar != '/') {
+            ASCII_ACTIONS[File.separatorChar] = SPECIAL;
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The maximum length of the replacement of a non-ASCII character in {@link #fix(String)},
+     * which is a 4-byte UTF-8 sequence.
+     */
+    private static final int MAX_ESCAPED_LENGTH = 12;
+
+    private static final int REPLACEMENT_CHAR = 0xFFFD;
+
+    /**
+     * The results of {@link #getJarLocation(Class)}, by code source location, so that the classes
+     * of the same Jar are only resolved once.
+     */
+    private static final ConcurrentMap<String, Optional<String>> JAR_LOCATIONS = new ConcurrentHashMap<>();
+
     /**
      * Returns the path to the directory containing the Jar that contains the specified class.
+     * <p>
+     * The Jar is found through the {@link CodeSource} of the class, so that classes loaded by any
+     * class loader are supported, and the result is cached per code source location. If the class
+     * has no code source, like the classes of the bootstrap class loader, the location of its
+     * {@code .class} resource is used instead.
      *
      * @param clazz
      *            The class to look for.
@@ -25,21 +86,95 @@ public class Paths {
      *             If an error occurs.
      */
     public static String getJarLocation(Class<?> clazz) throws MalformedURLException, URISyntaxException {
-        String urlString = ClassLoader.getSystemClassLoader().getResource(clazz.getName().replace('.', '/') + ".class")
-                .toString();
+        final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        final URL location = codeSource == null ? null : codeSource.getLocation();
+        if (location == null) {
+            return getJarLocationFromResource(clazz);
+        }
+        final String key = location.toString();
+        Optional<String> jarLocation = JAR_LOCATIONS.get(key);
+        if (jarLocation == null) {
+            jarLocation = Optional.ofNullable(getJarLocation(location));
+            JAR_LOCATIONS.putIfAbsent(key, jarLocation);
+        }
+        return jarLocation.orElse(null);
+    }
+
+    /**
+     * Returns the path to the directory containing the Jar at the specified code source location.
+     *
+     * @param location
+     *            The location of a code source, either a Jar file or a directory.
+     * @return The path to the parent directory of the Jar file, or {@code null} if the location is
+     *         not a Jar file.
+     * @throws MalformedURLException
+     *             If an error occurs.
+     * @throws URISyntaxException
+     *             If an error occurs.
+     */
+    private static String getJarLocation(URL location) throws MalformedURLException, URISyntaxException {
+        final String urlString = location.toString();
+        if ("jar".equals(location.getProtocol())) {
+            // nested Jar, the outermost Jar file is used
+            return getParentOfJarUrl(urlString);
+        }
+        if (!"file".equals(location.getProtocol()) || urlString.endsWith("/")) {
+            // directory of classes
+            return null;
+        }
+        return new File(location.toURI()).getParent();
+    }
+
+    /**
+     * Returns the path to the directory containing the Jar of the {@code .class} resource of the
+     * specified class.
+     *
+     * @param clazz
+     *            The class to look for.
+     * @return The path to the parent directory of the Jar file containing the specified class, or
+     *         {@code null} if the class is not in a Jar file.
+     * @throws MalformedURLException
+     *             If an error occurs.
+     * @throws URISyntaxException
+     *             If an error occurs.
+     */
+    private static String getJarLocationFromResource(Class<?> clazz) throws MalformedURLException,
+            URISyntaxException {
+        final String resourceName = clazz.getName().replace('.', '/') + ".class";
+        final ClassLoader classLoader = clazz.getClassLoader();
+        final URL url = classLoader == null ? ClassLoader.getSystemResource(resourceName)
+                : classLoader.getResource(resourceName);
+        if (url == null) {
+            return null;
+        }
+        return getParentOfJarUrl(url.toString());
+    }
+
+    /**
+     * Returns the path to the directory containing the Jar file of the specified {@code jar:} URL.
+     *
+     * @param urlString
+     *            A URL, usually of the form {@code jar:file:/path/to/file.jar!/entry}.
+     * @return The path to the parent directory of the Jar file, or {@code null} if the URL is not
+     *         a {@code jar:file:} URL.
+     * @throws MalformedURLException
+     *             If an error occurs.
+     * @throws URISyntaxException
+     *             If an error occurs.
+     */
+    private static String getParentOfJarUrl(String urlString) throws MalformedURLException, URISyntaxException {
         final int exclMarkIndex = urlString.indexOf('!');
-        if (exclMarkIndex != -1) {
-            urlString = urlString.substring(urlString.indexOf("file:"), exclMarkIndex);
-            final File file = new File(new URL(urlString).toURI());
-            return file.getParent();
-        } else {
-            System.err.println("Calling getJarLocation() while not running a Jar file.");
+        final int fileIndex = urlString.indexOf("file:");
+        if (exclMarkIndex == -1 || fileIndex == -1 || fileIndex > exclMarkIndex) {
             return null;
         }
+        final File file = new File(new URL(urlString.substring(fileIndex, exclMarkIndex)).toURI());
+        return file.getParent();
     }
 
     /**
-     * Converts the given absolute path to a path relative to the given base directory.
+     * Converts the given absolute path to a path relative to the given base directory. To
+     * relativize many paths against the same base directory, use a {@link PathResolver}.
      *
      * @param baseDir
      *            the base directory
@@ -69,7 +204,8 @@ public class Paths {
     }
 
     /**
-     * Converts the given relative path to an absolute path, based on the given base directory.
+     * Converts the given relative path to an absolute path, based on the given base directory. To
+     * resolve many paths against the same base directory, use a {@link PathResolver}.
      *
      * @param baseDir
      *            the base directory
@@ -99,52 +235,167 @@ public class Paths {
 
     /**
      * Fix problems in the URIs (spaces for instance).
+     * <p>
+     * The platform-dependent separators are replaced by slashes, and the following characters are
+     * percent-encoded, since they are not allowed in URIs:
+     * <ul>
+     * <li>control characters, spaces, and {@code " # < > [ \ ] ^ ` { | }}</li>
+     * <li>{@code %} when it does not already start an escape sequence</li>
+     * <li>non-ASCII characters, which are encoded in UTF-8</li>
+     * </ul>
+     * Windows paths such as {@code C:blah} are prefixed with a slash, and UNC paths such as
+     * {@code //blah} are prefixed with {@code file:}.
+     * <p>
+     * The URI is first scanned for a character to replace, and is returned as is if it does not need
+     * any change. Otherwise, the output is only allocated at that character, and the rest of the URI
+     * is processed in a single pass.
      *
      * @param uri
      *            The original URI.
      * @return The corrected URI.
      */
     public static String fix(String uri) {
-        // handle platform dependent strings
-        String path = uri.replace(java.io.File.separatorChar, '/');
-        // Windows fix
-        if (path.length() >= 2) {
-            final char ch1 = path.charAt(1);
-            // change "C:blah" to "/C:blah"
-            if (ch1 == ':') {
-                final char ch0 = Character.toUpperCase(path.charAt(0));
-                if (ch0 >= 'A' && ch0 <= 'Z') {
-                    path = "/" + path;
+        final String prefix = getWindowsPrefix(uri);
+        final int length = uri.length();
+        int i = indexOfNextFix(uri, 0);
+        if (i == length && prefix.isEmpty()) {
+            return uri;
+        }
+        // ASCII chars are replaced by at most 3 chars, the array only grows for non-ASCII chars
+        char[] out = new char[prefix.length() + i + (length - i) * 3];
+        prefix.getChars(0, prefix.length(), out, 0);
+        uri.getChars(0, i, out, prefix.length());
+        int o = prefix.length() + i;
+        while (i < length) {
+            final char c = uri.charAt(i++);
+            if (c < ASCII_ACTIONS.length) {
+                if (ASCII_ACTIONS[c] == ESCAPE || c == '%') {
+                    // a '%' starting an escape sequence is not a char to fix, so it never gets here
+                    o = appendEscaped(out, o, c);
+                } else {
+                    // platform-dependent separator
+                    out[o++] = '/';
                 }
+            } else {
+                final int minLength = o + MAX_ESCAPED_LENGTH + (length - i) * 3;
+                if (out.length < minLength) {
+                    out = Arrays.copyOf(out, Math.max(minLength, out.length + (out.length >> 1)));
+                }
+                final int codePoint;
+                if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(uri.charAt(i))) {
+                    codePoint = Character.toCodePoint(c, uri.charAt(i++));
+                } else if (Character.isSurrogate(c)) {
+                    codePoint = REPLACEMENT_CHAR;
+                } else {
+                    codePoint = c;
+                }
+                o = appendUtf8Escaped(out, o, codePoint);
             }
-            // change "//blah" to "file://blah"
-            else if (ch1 == '/' && path.charAt(0) == '/') {
-                path = "file:" + path;
-            }
+            // the chars kept as is are copied in bulk
+            final int next = indexOfNextFix(uri, i);
+            uri.getChars(i, next, out, o);
+            o += next - i;
+            i = next;
         }
-        // replace spaces in file names with %20.
-        // Original comment from JDK5: the following algorithm might not be
-        // very performant, but people who want to use invalid URI's have to
-        // pay the price.
-        final int pos = path.indexOf(' ');
-        if (pos >= 0) {
-            final StringBuilder sb = new StringBuilder(path.length());
-            // put characters before ' ' into the string builder
-            for (int i = 0; i < pos; i++) {
-                sb.append(path.charAt(i));
+        return new String(out, 0, o);
+    }
+
+    /**
+     * Returns the prefix to add to the specified URI to make it valid on Windows.
+     *
+     * @param uri
+     *            The original URI.
+     * @return {@code "/"} for {@code "C:blah"}, {@code "file:"} for {@code "//blah"}, or an empty
+     *         string if no prefix is needed.
+     */
+    private static String getWindowsPrefix(String uri) {
+        if (uri.length() < 2) {
+            return "";
+        }
+        final char ch1 = uri.charAt(1);
+        // change "C:blah" to "/C:blah"
+        if (ch1 == ':') {
+            final char ch0 = Character.toUpperCase(uri.charAt(0));
+            if (ch0 >= 'A' && ch0 <= 'Z') {
+                return "/";
             }
-            // and %20 for the space
-            sb.append("%20");
-            // for the remaining part, also convert ' ' to "%20".
-            for (int i = pos + 1; i < path.length(); i++) {
-                if (path.charAt(i) == ' ') {
-                    sb.append("%20");
-                } else {
-                    sb.append(path.charAt(i));
-                }
+        }
+        // change "//blah" to "file://blah"
+        else if (isSeparator(ch1) && isSeparator(uri.charAt(0))) {
+            return "file:";
+        }
+        return "";
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+    /**
+     * Returns the index of the next character of the specified URI that has to be replaced by
+     * {@link #fix(String)}.
+     *
+     * @param uri
+     *            The original URI.
+     * @param from
+     *            The index to start from.
+     * @return the index of the next character to replace, or the length of the URI if no
+     *         character has to be replaced
+     */
+    private static int indexOfNextFix(String uri, int from) {
+        final int length = uri.length();
+        for (int i = from; i < length; i++) {
+            final char c = uri.charAt(i);
+            if (c >= ASCII_ACTIONS.length || ASCII_ACTIONS[c] != KEEP && needsFix(uri, i)) {
+                return i;
             }
-            return sb.toString();
         }
-        return path;
+        return length;
+    }
+
+    /**
+     * Returns whether the character at the specified index of the URI has to be replaced.
+     */
+    private static boolean needsFix(String uri, int index) {
+        final char c = uri.charAt(index);
+        if (c >= ASCII_ACTIONS.length) {
+            return true;
+        }
+        final byte action = ASCII_ACTIONS[c];
+        return action == ESCAPE || action == SPECIAL && (c != '%' || !isEscapeSequence(uri, index));
+    }
+
+    /**
+     * Returns whether the {@code '%'} at the specified index is followed by 2 hexadecimal digits.
+     */
+    private static boolean isEscapeSequence(String uri, int index) {
+        return index + 2 < uri.length() && isHexDigit(uri.charAt(index + 1)) && isHexDigit(uri.charAt(index + 2));
+    }
+
+    private static boolean isHexDigit(char c) {
+        return c >= '0' && c <= '9' || c >= 'A' && c <= 'F' || c >= 'a' && c <= 'f';
+    }
+
+    private static int appendEscaped(char[] out, int index, int b) {
+        out[index] = '%';
+        out[index + 1] = HEX_DIGITS[b >> 4 & 0xF];
+        out[index + 2] = HEX_DIGITS[b & 0xF];
+        return index + 3;
+    }
+
+    private static int appendUtf8Escaped(char[] out, int index, int codePoint) {
+        if (codePoint < 0x800) {
+            final int o = appendEscaped(out, index, 0xC0 | codePoint >> 6);
+            return appendEscaped(out, o, 0x80 | codePoint & 0x3F);
+        }
+        if (codePoint < 0x10000) {
+            int o = appendEscaped(out, index, 0xE0 | codePoint >> 12);
+            o = appendEscaped(out, o, 0x80 | codePoint >> 6 & 0x3F);
+            return appendEscaped(out, o, 0x80 | codePoint & 0x3F);
+        }
+        int o = appendEscaped(out, index, 0xF0 | codePoint >> 18);
+        o = appendEscaped(out, o, 0x80 | codePoint >> 12 & 0x3F);
+        o = appendEscaped(out, o, 0x80 | codePoint >> 6 & 0x3F);
+        return appendEscaped(out, o, 0x80 | codePoint & 0x3F);
     }
 }
@@ -0,0 +1,408 @@
+package org.hildan.utils.io.paths;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@code TreeWalker} lists the files of a directory tree using several threads. Each directory
+ * is listed by its own task in a {@link ForkJoinPool}, so that the subdirectories are listed in
+ * parallel, and slow directories (on network mounts for instance) do not stall the whole walk.
+ * <p>
+ * The filters are applied during the traversal: the directories rejected by the directory filter
+ * are not listed at all. The attributes of each entry are read once, while its directory is open,
+ * and are given to the filters and to the action. When the file system supports it, they are read
+ * relatively to the open directory, which avoids resolving the full path of each entry.
+ * <p>
+ * The entries are reported in no particular order. Symbolic links are reported but not followed,
+ * and the root itself is not reported.
+ */
+public class TreeWalker {
+
+    private static final BiPredicate<Path, BasicFileAttributes> ALL = (path, attrs) -> true;
+
+    /**
+     * The maximum number of batches of paths waiting to be consumed from a stream.
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * The delay between checks of the closing of a stream when its queue is full, in
+     * milliseconds.
+     */
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    /**
+     * The marker of the end of the walk in the queue of a stream.
+     */
+    private static final List<Path> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Path root;
+
+    private final BiPredicate<Path, BasicFileAttributes> filter;
+
+    private final BiPredicate<Path, BasicFileAttributes> directoryFilter;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new {@code TreeWalker} reporting all the entries of the tree, using the common
+     * {@link ForkJoinPool}.
+     *
+     * @param root
+     *            the root directory of the tree
+     */
+    public TreeWalker(Path root) {
+        this(root, ALL);
+    }
+
+    /**
+     * Creates a new {@code TreeWalker} traversing all the directories of the tree, using the common
+     * {@link ForkJoinPool}.
+     *
+     * @param root
+     *            the root directory of the tree
+     * @param filter
+     *            the filter selecting the entries to report, which may be called concurrently
+     */
+    public TreeWalker(Path root, BiPredicate<Path, BasicFileAttributes> filter) {
+        this(root, filter, ALL, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new {@code TreeWalker}.
+     *
+     * @param root
+     *            the root directory of the tree
+     * @param filter
+     *            the filter selecting the entries to report, which may be called concurrently
+     * @param directoryFilter
+     *            the filter selecting the directories to traverse, which may be called
+     *            concurrently. The rejected directories are not listed at all, but may still be
+     *            reported if they match {@code filter}.
+     * @param pool
+     *            the pool to list the directories in
+     */
+    public TreeWalker(Path root, BiPredicate<Path, BasicFileAttributes> filter,
+            BiPredicate<Path, BasicFileAttributes> directoryFilter, ForkJoinPool pool) {
+        this.root = root;
+        this.filter = filter;
+        this.directoryFilter = directoryFilter;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a filter accepting the entries whose file name matches the specified glob pattern,
+     * with the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+     *
+     * @param pattern
+     *            the glob pattern to match the file names against, such as {@code "*.java"}
+     * @return a filter for the constructors of {@code TreeWalker}
+     */
+    public static BiPredicate<Path, BasicFileAttributes> glob(String pattern) {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        return (path, attrs) -> {
+            final Path name = path.getFileName();
+            return name != null && matcher.matches(name);
+        };
+    }
+
+    /**
+     * Walks the tree, and calls the specified action for each entry accepted by the filter. This
+     * method returns when the whole tree has been walked.
+     *
+     * @param action
+     *            the action to perform on each entry, which is called concurrently from the
+     *            threads of the pool
+     * @throws IOException
+     *             if a directory cannot be listed, in which case the walk is stopped
+     */
+    public void forEach(BiConsumer<Path, BasicFileAttributes> action) throws IOException {
+        try {
+            pool.invoke(new DirectoryTask(root, new Walk(action, null)));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Walks the tree, and returns the entries accepted by the filter.
+     *
+     * @return the accepted entries, in no particular order
+     * @throws IOException
+     *             if a directory cannot be listed
+     */
+    public List<Path> list() throws IOException {
+        final Queue<Path> paths = new ConcurrentLinkedQueue<>();
+        forEach((path, attrs) -> paths.add(path));
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Walks the tree in the background, and returns a lazy stream of the entries accepted by the
+     * filter, in no particular order. The walk is throttled when the entries are not consumed fast
+     * enough. The tasks waiting for the consumer are {@linkplain ForkJoinPool.ManagedBlocker managed
+     * blockers}, so that the pool runs spare threads meanwhile instead of stalling its other tasks.
+     * <p>
+     * The returned stream must be closed to stop the walk if it is not entirely consumed, for
+     * instance with a try-with-resources statement. If a directory cannot be listed, an
+     * {@link UncheckedIOException} is thrown by the stream operation consuming the entries.
+     *
+     * @return a sequential stream of the accepted entries
+     */
+    public Stream<Path> stream() {
+        final Walk walk = new Walk(null, new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+        final DirectoryTask rootTask = new DirectoryTask(root, walk);
+        pool.execute(() -> {
+            try {
+                rootTask.invoke();
+            } catch (final RuntimeException | Error e) {
+                walk.failure = e;
+            } finally {
+                walk.put(END);
+            }
+        });
+        final Iterator<Path> iterator = new WalkIterator(walk);
+        final Spliterator<Path> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(walk::close);
+    }
+
+    /**
+     * The state of one walk of the tree.
+     */
+    private static class Walk {
+
+        /**
+         * The action to perform on each accepted entry, or {@code null} if the accepted entries are
+         * put in {@link #output}.
+         */
+        private final BiConsumer<Path, BasicFileAttributes> action;
+
+        /**
+         * The batches of accepted entries, one per directory, or {@code null} if they are given to
+         * {@link #action}.
+         */
+        private final BlockingQueue<List<Path>> output;
+
+        /**
+         * Whether the tasks should stop listing directories, because of a failure or because the
+         * stream was closed.
+         */
+        private volatile boolean stopped;
+
+        /**
+         * Whether the stream was closed, in which case nothing is put in {@link #output} anymore.
+         */
+        private volatile boolean closed;
+
+        private volatile Throwable failure;
+
+        Walk(BiConsumer<Path, BasicFileAttributes> action, BlockingQueue<List<Path>> output) {
+            this.action = action;
+            this.output = output;
+        }
+
+        /**
+         * Puts the specified batch in the output queue, waiting for space if necessary, unless the
+         * stream is closed.
+         * <p>
+         * The wait is managed by the pool, which activates a spare thread meanwhile, so that a slow
+         * consumer does not take all the workers of the pool from its other tasks.
+         */
+        void put(List<Path> batch) {
+            try {
+                ForkJoinPool.managedBlock(new BatchPut(this, batch));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+
+        void close() {
+            stopped = true;
+            closed = true;
+            output.clear();
+        }
+    }
+
+    /**
+     * Puts a batch in the output queue of a walk, as a {@link ForkJoinPool.ManagedBlocker}.
+     */
+    private static class BatchPut implements ForkJoinPool.ManagedBlocker {
+
+        private final Walk walk;
+
+        private final List<Path> batch;
+
+        BatchPut(Walk walk, List<Path> batch) {
+            this.walk = walk;
+            this.batch = batch;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return walk.closed || walk.output.offer(batch);
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            // the closing of the stream is checked regularly while the queue is full
+            return walk.closed || walk.output.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A task listing one directory, and forking a new task for each of its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        private final Walk walk;
+
+        DirectoryTask(Path dir, Walk walk) {
+            this.dir = dir;
+            this.walk = walk;
+        }
+
+        @Override
+        protected void compute() {
+            final List<DirectoryTask> subtasks = new ArrayList<>();
+            final List<Path> batch = walk.output == null ? null : new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (final Path entry : entries) {
+                    if (walk.stopped) {
+                        return;
+                    }
+                    final BasicFileAttributes attrs = readAttributes(entries, entry);
+                    if (attrs == null) {
+                        // deleted since the listing
+                        continue;
+                    }
+                    if (filter.test(entry, attrs)) {
+                        if (batch == null) {
+                            walk.action.accept(entry, attrs);
+                        } else {
+                            batch.add(entry);
+                        }
+                    }
+                    if (attrs.isDirectory() && directoryFilter.test(entry, attrs)) {
+                        subtasks.add(new DirectoryTask(entry, walk));
+                    }
+                }
+            } catch (final IOException e) {
+                walk.stopped = true;
+                throw new UncheckedIOException(e);
+            }
+            if (batch != null && !batch.isEmpty()) {
+                walk.put(batch);
+            }
+            // the directory is closed before listing the subdirectories, to limit the open handles
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Reads the attributes of the specified entry, relatively to its directory if possible.
+     *
+     * @param entries
+     *            the stream listing the entry
+     * @param entry
+     *            an entry returned by {@code entries}
+     * @return the attributes of the entry, or {@code null} if it does not exist anymore
+     * @throws IOException
+     *             if the attributes cannot be read
+     */
+    private static BasicFileAttributes readAttributes(DirectoryStream<Path> entries, Path entry) throws IOException {
+        try {
+            if (entries instanceof SecureDirectoryStream) {
+                final SecureDirectoryStream<Path> secureEntries = (SecureDirectoryStream<Path>) entries;
+                return secureEntries.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class,
+                        LinkOption.NOFOLLOW_LINKS).readAttributes();
+            }
+            return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Iterates over the batches of a walk, as they are produced.
+     */
+    private static class WalkIterator implements Iterator<Path> {
+
+        private final Walk walk;
+
+        private List<Path> batch = Collections.emptyList();
+
+        private int index;
+
+        WalkIterator(Walk walk) {
+            this.walk = walk;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index >= batch.size()) {
+                if (batch == END) {
+                    return false;
+                }
+                try {
+                    batch = walk.output.take();
+                    index = 0;
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    walk.close();
+                    throw new UncheckedIOException(new InterruptedIOException("interrupted while walking the tree"));
+                }
+                if (batch == END && walk.failure != null) {
+                    final Throwable failure = walk.failure;
+                    if (failure instanceof RuntimeException) {
+                        throw (RuntimeException) failure;
+                    }
+                    throw (Error) failure;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.get(index++);
+        }
+    }
+}
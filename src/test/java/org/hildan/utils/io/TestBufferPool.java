@@ -0,0 +1,72 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestBufferPool {
+
+    @Test
+    public void testReuse() {
+        final BufferPool pool = new BufferPool(16, false, 1);
+        final ByteBuffer first = pool.acquire();
+        final ByteBuffer second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(16, first.capacity());
+        assertFalse(first.isDirect());
+        first.put((byte) 1);
+        pool.release(first);
+        // only one buffer is kept
+        pool.release(second);
+        final ByteBuffer reused = pool.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(16, reused.limit());
+        assertNotSame(first, pool.acquire());
+    }
+
+    @Test
+    public void testDirect() {
+        final BufferPool pool = new BufferPool(16, true, 2);
+        assertTrue(pool.isDirect());
+        assertTrue(pool.acquire().isDirect());
+    }
+
+    @Test
+    public void testForeignBuffers() {
+        final BufferPool pool = new BufferPool(16, false, 2);
+        final ByteBuffer[] foreign = {ByteBuffer.allocate(8), ByteBuffer.allocateDirect(16),
+                ByteBuffer.allocate(16).asReadOnlyBuffer()};
+        for (final ByteBuffer buffer : foreign) {
+            try {
+                pool.release(buffer);
+                fail("the buffer should be rejected: " + buffer);
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new BufferPool(0, false, 1);
+            fail("the buffer size must be positive");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new BufferPool(16, false, 0);
+            fail("the number of pooled buffers must be positive");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
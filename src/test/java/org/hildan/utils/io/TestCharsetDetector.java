@@ -0,0 +1,102 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCharsetDetector {
+
+    private static final Charset FALLBACK = StandardCharsets.ISO_8859_1;
+
+    private static final String LATIN_TEXT = "Voil\u00E0 un texte en fran\u00E7ais, \u00E9crit sans BOM.\r\n";
+
+    private static Charset detect(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final Charset charset = CharsetDetector.detect(buffer, FALLBACK);
+        // the buffer is left untouched
+        assertEquals(0, buffer.position());
+        assertEquals(bytes.length, buffer.limit());
+        return charset;
+    }
+
+    @Test
+    public void testUtf16WithoutBom() {
+        assertEquals(StandardCharsets.UTF_16BE, detect(LATIN_TEXT.getBytes(StandardCharsets.UTF_16BE)));
+        assertEquals(StandardCharsets.UTF_16LE, detect(LATIN_TEXT.getBytes(StandardCharsets.UTF_16LE)));
+        assertEquals(StandardCharsets.UTF_16BE, detect("ascii only".getBytes(StandardCharsets.UTF_16BE)));
+        assertEquals(StandardCharsets.UTF_16LE, detect("ascii only".getBytes(StandardCharsets.UTF_16LE)));
+        // an odd number of bytes, as when a read stops in the middle of a char
+        final byte[] bytes = LATIN_TEXT.getBytes(StandardCharsets.UTF_16LE);
+        assertEquals(StandardCharsets.UTF_16LE, CharsetDetector.detect(ByteBuffer.wrap(bytes, 0, 31), FALLBACK));
+    }
+
+    @Test
+    public void testParityFromPosition() {
+        // the parity of the positions is counted from the position of the buffer
+        final byte[] text = LATIN_TEXT.getBytes(StandardCharsets.UTF_16BE);
+        final byte[] shifted = new byte[text.length + 1];
+        System.arraycopy(text, 0, shifted, 1, text.length);
+        shifted[0] = 'x';
+        final ByteBuffer buffer = ByteBuffer.wrap(shifted);
+        buffer.position(1);
+        assertEquals(StandardCharsets.UTF_16BE, CharsetDetector.detect(buffer, FALLBACK));
+    }
+
+    @Test
+    public void testUtf8() {
+        assertEquals(StandardCharsets.UTF_8, detect(LATIN_TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(StandardCharsets.UTF_8, detect("\uD83D\uDE00 \u20AC".getBytes(StandardCharsets.UTF_8)));
+        // a sequence truncated by the end of the bytes may continue after them
+        final byte[] truncated = "ab\u20AC".getBytes(StandardCharsets.UTF_8);
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.detect(ByteBuffer.wrap(truncated, 0, 4), FALLBACK));
+    }
+
+    @Test
+    public void testFallback() {
+        assertEquals(FALLBACK, detect(new byte[0]));
+        assertEquals(FALLBACK, detect("pure ascii text, long enough to be read by words".getBytes(
+                StandardCharsets.US_ASCII)));
+        assertEquals(FALLBACK, detect(LATIN_TEXT.getBytes(StandardCharsets.ISO_8859_1)));
+        // overlong encoding, encoded surrogate, and invalid lead byte
+        assertEquals(FALLBACK, detect(new byte[] {'a', (byte) 0xC0, (byte) 0xAF}));
+        assertEquals(FALLBACK, detect(new byte[] {'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80}));
+        assertEquals(FALLBACK, detect(new byte[] {'a', (byte) 0xF8, (byte) 0x88, (byte) 0x80, (byte) 0x80}));
+    }
+
+    @Test
+    public void testAsciiWithSparseNulls() {
+        final byte[] bytes = "some text with a few NUL separators between fields, like C strings or logs"
+                .getBytes(StandardCharsets.US_ASCII);
+        for (int i = 4; i < bytes.length; i += 9) {
+            bytes[i] = 0;
+        }
+        assertEquals(FALLBACK, detect(bytes));
+        // the nulls happen to all be at even positions
+        for (int i = 0; i < bytes.length; i += 10) {
+            bytes[i] = 0;
+        }
+        assertEquals(FALLBACK, detect(bytes));
+    }
+
+    @Test
+    public void testBinaryWithNulls() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            final byte[] bytes = new byte[1024];
+            random.nextBytes(bytes);
+            for (int j = 0; j < bytes.length; j++) {
+                if (random.nextInt(3) == 0) {
+                    bytes[j] = 0;
+                }
+            }
+            assertEquals(FALLBACK, detect(bytes));
+        }
+        // zeros at every position, as in a sparse file
+        assertEquals(FALLBACK, detect(new byte[4096]));
+    }
+}
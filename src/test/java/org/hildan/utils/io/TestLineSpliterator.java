@@ -0,0 +1,125 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLineSpliterator {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("lines", ".txt");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static List<String> collect(Spliterator<String> spliterator) {
+        final List<String> lines = new ArrayList<>();
+        spliterator.forEachRemaining(lines::add);
+        return lines;
+    }
+
+    /**
+     * Splits the spliterator recursively, and returns the lines of all the parts in order.
+     */
+    private static List<String> splitAndCollect(Spliterator<String> spliterator, List<Long> sizes) {
+        final long size = spliterator.estimateSize();
+        final Spliterator<String> prefix = spliterator.trySplit();
+        if (prefix == null) {
+            sizes.add(size);
+            return collect(spliterator);
+        }
+        assertEquals(size, prefix.estimateSize() + spliterator.estimateSize());
+        final List<String> lines = splitAndCollect(prefix, sizes);
+        lines.addAll(splitAndCollect(spliterator, sizes));
+        return lines;
+    }
+
+    private List<String> write(int numLines, String terminator) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            final String line = "line " + i + " caf\u00E9";
+            lines.add(line);
+            sb.append(line).append(terminator);
+        }
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return lines;
+    }
+
+    @Test
+    public void testSplitAtLineFeeds() throws IOException {
+        for (final String terminator : new String[] {"\n", "\r\n"}) {
+            final List<String> expected = write(100000, terminator);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final List<Long> sizes = new ArrayList<>();
+                final Spliterator<String> spliterator = new LineSpliterator(channel, StandardCharsets.UTF_8, 0,
+                        channel.size());
+                assertEquals(expected, splitAndCollect(spliterator, sizes));
+                // the file is about 2 MB, and ranges under 256 KB are not split
+                assertTrue("only " + sizes.size() + " parts", sizes.size() >= 8);
+                for (final long size : sizes) {
+                    assertTrue(size < 512 * 1024);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoSplit() throws IOException {
+        // carriage returns alone are not split points
+        final List<String> expected = write(100000, "\r");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Spliterator<String> spliterator = new LineSpliterator(channel, StandardCharsets.UTF_8, 0,
+                    channel.size());
+            assertNull(spliterator.trySplit());
+            assertEquals(expected, collect(spliterator));
+        }
+        // small ranges and started traversals are not split
+        write(10, "\n");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertNull(new LineSpliterator(channel, StandardCharsets.UTF_8, 0, channel.size()).trySplit());
+        }
+        write(100000, "\n");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Spliterator<String> spliterator = new LineSpliterator(channel, StandardCharsets.UTF_8, 0,
+                    channel.size());
+            assertTrue(spliterator.tryAdvance(line -> assertEquals("line 0 caf\u00E9", line)));
+            assertNull(spliterator.trySplit());
+        }
+    }
+
+    @Test
+    public void testLongLines() throws IOException {
+        // lines longer than the blocks read from the file
+        final char[] chars = new char[200000];
+        Arrays.fill(chars, 'x');
+        final String line = new String(chars);
+        Files.write(file, (line + "\r\n" + line + "\r" + line).getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Spliterator<String> spliterator = new LineSpliterator(channel, StandardCharsets.US_ASCII, 0,
+                    channel.size());
+            assertEquals(Arrays.asList(line, line, line), collect(spliterator));
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStreams {
+
+    private static final int[] SIZES = {0, 1, 100, 8191, 8192, 8193, 100000};
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("streams");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * An {@link InputStream} returning at most a few bytes per read, and reporting a fixed number
+     * of available bytes.
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        private final int maxChunk;
+
+        private final int available;
+
+        boolean closed;
+
+        ChunkedInputStream(byte[] content, int maxChunk, int available) {
+            super(new ByteArrayInputStream(content));
+            this.maxChunk = maxChunk;
+            this.available = available;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, maxChunk));
+        }
+
+        @Override
+        public int available() {
+            return available;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    private static byte[] randomAscii(int size, long seed) {
+        final Random random = new Random(seed);
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (' ' + random.nextInt(95));
+        }
+        return bytes;
+    }
+
+    private static int[] hints(int size) {
+        return new int[] {-1, 0, 1, Math.max(size - 1, 0), size, size + 1, 10 * size + 10};
+    }
+
+    @Test
+    public void testSizeHints() throws IOException {
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            final String expected = new String(content, StandardCharsets.US_ASCII);
+            for (final int hint : hints(size)) {
+                for (final int chunk : new int[] {1, 1000, Integer.MAX_VALUE}) {
+                    final String message = "size " + size + ", hint " + hint + ", chunk " + chunk;
+                    ChunkedInputStream in = new ChunkedInputStream(content, chunk, 0);
+                    assertEquals(message, expected, Streams.toString(in, StandardCharsets.US_ASCII, hint));
+                    assertTrue(in.closed);
+                    in = new ChunkedInputStream(content, chunk, 0);
+                    assertArrayEquals(message, content, Streams.toByteArray(in, hint));
+                    assertTrue(in.closed);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAvailableAsHint() throws IOException {
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            for (final int available : hints(size)) {
+                final int reported = Math.max(available, 0);
+                final InputStream in = new ChunkedInputStream(content, 4096, reported);
+                assertArrayEquals("size " + size + ", available " + reported, content, Streams.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void testCharsets() throws IOException {
+        final String text = "h\u00E9llo \u20AC \uD83D\uDE00";
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(text, Streams.toString(new ByteArrayInputStream(utf8), StandardCharsets.UTF_8));
+        assertEquals(text, Streams.toString(new ByteArrayInputStream(utf8), "UTF-8"));
+        final byte[] utf16 = text.getBytes(StandardCharsets.UTF_16LE);
+        assertEquals(text, Streams.toString(new ByteArrayInputStream(utf16), StandardCharsets.UTF_16LE, 3));
+        try {
+            Streams.toString(new ByteArrayInputStream(utf8), "no-such-charset");
+            fail("the charset should not be found");
+        } catch (final UnsupportedEncodingException e) {
+            assertEquals("no-such-charset", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCopyStreams() throws IOException {
+        final BufferPool pool = new BufferPool(10, false, 1);
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(size, Streams.copy(new ChunkedInputStream(content, 777, 0), out));
+            assertArrayEquals(content, out.toByteArray());
+            out = new ByteArrayOutputStream();
+            assertEquals(size, Streams.copy(new ByteArrayInputStream(content), out, pool));
+            assertArrayEquals(content, out.toByteArray());
+        }
+        try {
+            Streams.copy(new ByteArrayInputStream(new byte[1]), new ByteArrayOutputStream(),
+                    new BufferPool(10, true, 1));
+            fail("direct buffers cannot be used for streams");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyChannels() throws IOException {
+        final BufferPool pool = new BufferPool(10, true, 1);
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ReadableByteChannel source = Channels.newChannel(new ChunkedInputStream(content, 333, 0));
+            assertEquals(size, Streams.copy(source, Channels.newChannel(out), pool));
+            assertArrayEquals(content, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        final byte[] content = randomAscii(100000, 1);
+        final Path file = Files.write(dir.resolve("source"), content);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            source.position(1000);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            // the copy starts at the position of the source, and moves it to the end
+            assertEquals(99000, Streams.copy(source, Channels.newChannel(out)));
+            assertEquals(100000, source.position());
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 100000), out.toByteArray());
+            assertEquals(0, Streams.transferTo(source, Channels.newChannel(out)));
+        }
+        final Path target = dir.resolve("target");
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+            assertEquals(100000, Streams.transferTo(source, targetChannel));
+        }
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void testTransferFrom() throws IOException {
+        final byte[] content = randomAscii(100000, 2);
+        final Path target = dir.resolve("target");
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'a', 'b'}));
+            final ReadableByteChannel source = Channels.newChannel(new ChunkedInputStream(content, 5000, 0));
+            // the copy starts at the position of the target, and moves it to the end
+            assertEquals(100000, Streams.copy(source, channel));
+            assertEquals(100002, channel.position());
+        }
+        final byte[] written = Files.readAllBytes(target);
+        assertEquals(100002, written.length);
+        assertArrayEquals(content, Arrays.copyOfRange(written, 2, written.length));
+    }
+
+    @Test
+    public void testCopyFile() throws IOException {
+        final byte[] content = randomAscii(100000, 3);
+        final Path file = Files.write(dir.resolve("source"), content);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(100000, Streams.copy(file, out));
+        assertArrayEquals(content, out.toByteArray());
+        final Path target = dir.resolve("target");
+        try (OutputStream fileOut = new FileOutputStream(target.toFile())) {
+            assertEquals(100000, Streams.copy(file, fileOut));
+        }
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    /**
+     * An endless {@link InputStream} counting the bytes read from it.
+     */
+    private static class EndlessInputStream extends InputStream {
+
+        long count;
+
+        @Override
+        public int read() {
+            count++;
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Arrays.fill(b, off, off + len, (byte) 'x');
+            count += len;
+            return len;
+        }
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            for (final int hint : hints(size)) {
+                final String message = "size " + size + ", hint " + hint;
+                assertArrayEquals(message, content, Streams.toByteArray(new ByteArrayInputStream(content), hint, size));
+                assertEquals(message, new String(content, StandardCharsets.US_ASCII),
+                        Streams.toString(new ByteArrayInputStream(content), StandardCharsets.US_ASCII, hint, size));
+                if (size == 0) {
+                    continue;
+                }
+                try {
+                    Streams.toByteArray(new ByteArrayInputStream(content), hint, size - 1);
+                    fail(message + ": the limit should be exceeded");
+                } catch (final SizeLimitExceededException e) {
+                    assertEquals(size - 1, e.getLimit());
+                }
+                try {
+                    Streams.toString(new ChunkedInputStream(content, 1000, 0), StandardCharsets.US_ASCII, hint,
+                            size - 1);
+                    fail(message + ": the limit should be exceeded");
+                } catch (final SizeLimitExceededException e) {
+                    assertEquals(size - 1, e.getLimit());
+                }
+            }
+        }
+        try {
+            Streams.toByteArray(new ByteArrayInputStream(new byte[0]), -1, -1);
+            fail("a negative limit should be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMaxBytesStopsReading() throws IOException {
+        for (final int hint : new int[] {-1, 10, 1000000, Integer.MAX_VALUE}) {
+            final EndlessInputStream in = new EndlessInputStream();
+            try {
+                Streams.toByteArray(in, hint, 100000);
+                fail("the limit should be exceeded");
+            } catch (final SizeLimitExceededException e) {
+                // only the byte revealing the excess is read beyond the limit
+                assertEquals(100001, in.count);
+            }
+        }
+    }
+
+    @Test
+    public void testHugeHints() throws IOException {
+        final byte[] content = randomAscii(10, 0);
+        // neither a wrong hint nor a wrong available() is allocated at once
+        assertArrayEquals(content, Streams.toByteArray(new ByteArrayInputStream(content), Integer.MAX_VALUE));
+        assertArrayEquals(content, Streams.toByteArray(new ChunkedInputStream(content, 10, Integer.MAX_VALUE)));
+        // hints larger than the initial allocation are trusted as soon as the data confirms them
+        final byte[] large = randomAscii(20 * 1024 * 1024 + 3, 0);
+        for (final int hint : new int[] {large.length - 1, large.length, large.length + 1}) {
+            assertArrayEquals(large, Streams.toByteArray(new ChunkedInputStream(large, 1 << 20, 0), hint));
+        }
+    }
+
+    private static void checkContent(byte[] expected, BufferedContent content) throws IOException {
+        assertEquals(expected.length, content.size());
+        try (InputStream in = content.openStream()) {
+            assertArrayEquals(expected, Streams.toByteArray(in));
+        }
+        // each stream is independent
+        try (InputStream first = content.openStream(); InputStream second = content.openStream()) {
+            if (expected.length > 0) {
+                assertEquals(expected[0] & 0xFF, first.read());
+                assertEquals(expected.length - 1, first.skip(Long.MAX_VALUE));
+                assertEquals(-1, first.read());
+                assertEquals(expected[0] & 0xFF, second.read());
+            } else {
+                assertEquals(-1, first.read());
+            }
+        }
+        final ByteBuffer buffer = content.asByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertArrayEquals(expected, bytes);
+        assertEquals(new String(expected, StandardCharsets.ISO_8859_1), content.toString(StandardCharsets.ISO_8859_1));
+        final CharSequence chars = content.asCharSequence();
+        assertEquals(expected.length, chars.length());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] & 0xFF, chars.charAt(i));
+        }
+        assertEquals(new String(expected, StandardCharsets.ISO_8859_1), chars.toString());
+        try {
+            chars.charAt(expected.length);
+            fail("the index should be out of range");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBufferInMemory() throws IOException {
+        for (final int size : SIZES) {
+            final byte[] expected = randomAscii(size, size);
+            try (BufferedContent content = Streams.buffer(new ByteArrayInputStream(expected), size)) {
+                assertTrue(content.isInMemory());
+                checkContent(expected, content);
+            }
+        }
+    }
+
+    @Test
+    public void testBufferSpilled() throws IOException {
+        for (final int size : SIZES) {
+            if (size == 0) {
+                continue;
+            }
+            final byte[] expected = randomAscii(size, size);
+            // non-ASCII bytes are viewed as ISO-8859-1 chars
+            expected[0] = (byte) 0xE9;
+            try (BufferedContent content = Streams.buffer(new ChunkedInputStream(expected, 1000, 0), size - 1)) {
+                assertFalse(content.isInMemory());
+                checkContent(expected, content);
+            }
+        }
+    }
+
+    @Test
+    public void testCharSequenceView() throws IOException {
+        final byte[] bytes = "key=value; other=thing".getBytes(StandardCharsets.US_ASCII);
+        try (BufferedContent content = Streams.buffer(new ByteArrayInputStream(bytes), 0)) {
+            final CharSequence chars = content.asCharSequence();
+            final CharSequence value = chars.subSequence(4, 9);
+            assertEquals("value", value.toString());
+            assertEquals("lu", value.subSequence(2, 4).toString());
+            assertTrue(Pattern.compile("other=(\\w+)").matcher(chars).find());
+        }
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("the future should fail");
+            return null;
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void testReadAllAsyncStream() throws Exception {
+        for (final int size : SIZES) {
+            final byte[] content = randomAscii(size, size);
+            final String expected = new String(content, StandardCharsets.US_ASCII);
+            final ChunkedInputStream in = new ChunkedInputStream(content, 1000, 0);
+            assertEquals(expected, Streams.readAllAsync(in, StandardCharsets.US_ASCII).get(10, TimeUnit.SECONDS));
+            assertTrue(in.closed);
+            // the read is performed by the given executor
+            final CompletableFuture<String> future = Streams.readAllAsync(new ByteArrayInputStream(content),
+                    StandardCharsets.US_ASCII, Runnable::run);
+            assertTrue(future.isDone());
+            assertEquals(expected, future.get());
+        }
+    }
+
+    @Test
+    public void testReadAllAsyncStreamFailures() throws Exception {
+        final IOException error = new IOException("broken");
+        final InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw error;
+            }
+        };
+        assertSame(error, failureOf(Streams.readAllAsync(broken, StandardCharsets.US_ASCII)));
+        final CompletableFuture<String> rejected = Streams.readAllAsync(new ByteArrayInputStream(new byte[1]),
+                StandardCharsets.US_ASCII, command -> {
+                    throw new RejectedExecutionException();
+                });
+        assertTrue(failureOf(rejected) instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testReadAllAsyncFile() throws Exception {
+        for (final int size : new int[] {0, 1, 100, 8191, 8192, 8193, 100000, 3 * 1024 * 1024 + 1}) {
+            final byte[] content = randomAscii(size, size);
+            final Path file = Files.write(dir.resolve("file" + size), content);
+            final String text = Streams.readAllAsync(file, StandardCharsets.US_ASCII).get(10, TimeUnit.SECONDS);
+            assertEquals(new String(content, StandardCharsets.US_ASCII), text);
+            // the channel is closed, so the file can be deleted on any platform
+            Files.delete(file);
+        }
+        final String text = "h\u00E9llo \u20AC \uD83D\uDE00";
+        final Path file = Files.write(dir.resolve("utf16"), text.getBytes(StandardCharsets.UTF_16BE));
+        assertEquals(text, Streams.readAllAsync(file, StandardCharsets.UTF_16BE).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReadAllAsyncMissingFile() throws Exception {
+        final CompletableFuture<String> future = Streams.readAllAsync(dir.resolve("missing"), StandardCharsets.UTF_8);
+        assertTrue(failureOf(future) instanceof NoSuchFileException);
+    }
+
+    /**
+     * Generates text made of short and long lines, with all kinds of line terminators, and some
+     * non-ASCII chars.
+     */
+    private static String randomLines(Random random, int numLines) {
+        final String[] terminators = {"\n", "\r", "\r\n", "\n\r", "\r\r\n", "\n\n"};
+        final String alphabet = "abc \u00E9\u20AC\uD83D\uDE00";
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            final int length = random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(30);
+            for (int j = 0; j < length; j++) {
+                final int index = random.nextInt(alphabet.length() - 1);
+                sb.append(alphabet.charAt(index));
+                if (Character.isHighSurrogate(alphabet.charAt(index))) {
+                    sb.append(alphabet.charAt(index + 1));
+                }
+            }
+            sb.append(terminators[random.nextInt(terminators.length)]);
+        }
+        if (random.nextBoolean()) {
+            // last line without terminator
+            sb.append("last");
+        }
+        return sb.toString();
+    }
+
+    private static List<String> readLines(byte[] bytes, Charset charset) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes),
+                charset))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static void checkForEachLine(byte[] bytes, Charset charset) throws IOException {
+        final List<String> expected = readLines(bytes, charset);
+        for (final int chunk : new int[] {1, 3, 1000, Integer.MAX_VALUE}) {
+            final List<String> actual = new ArrayList<>();
+            Streams.forEachLine(new ChunkedInputStream(bytes, chunk, 0), charset, line -> actual.add(line.toString()));
+            assertEquals("chunk " + chunk, expected, actual);
+        }
+    }
+
+    @Test
+    public void testForEachLine() throws IOException {
+        final Random random = new Random(4);
+        for (int i = 0; i < 20; i++) {
+            final String text = randomLines(random, 50);
+            checkForEachLine(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            checkForEachLine(text.getBytes(StandardCharsets.UTF_16LE), StandardCharsets.UTF_16LE);
+        }
+        checkForEachLine(new byte[0], StandardCharsets.UTF_8);
+        checkForEachLine("\r".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        checkForEachLine("\r\n".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testForEachLineTerminatorsAtBufferBoundaries() throws IOException {
+        // CR LF pairs and single terminators around every position near the buffer size
+        for (int length = 8180; length < 8200; length++) {
+            final char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            final String prefix = new String(chars);
+            for (final String end : new String[] {"\r\nnext\r\n", "\r\rnext", "\n\rnext\r", "\r"}) {
+                checkForEachLine((prefix + end + prefix).getBytes(StandardCharsets.US_ASCII), StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
+    @Test
+    public void testForEachLineSurrogatesAtBufferBoundaries() throws IOException {
+        // a surrogate pair may not fit in the last char of the buffer, also at the end of the stream
+        for (int length = 8185; length < 8195; length++) {
+            final char[] chars = new char[length];
+            Arrays.fill(chars, 'x');
+            final String prefix = new String(chars);
+            for (final String end : new String[] {"\uD83D\uDE00", "\uD83D\uDE00\n", "\n\uD83D\uDE00"}) {
+                checkForEachLine((prefix + end).getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    @Test
+    public void testForEachLineMalformedInput() throws IOException {
+        final byte[][] inputs = {
+                {'a', (byte) 0xFF, 'b', '\n', 'c'},
+                // truncated sequences, also at the end of the input
+                {'a', (byte) 0xE2, (byte) 0x82, '\n', (byte) 0xC3},
+                // unpaired surrogate encoded in UTF-8
+                {(byte) 0xED, (byte) 0xA0, (byte) 0xBD, '\r', '\n', 'z'},
+        };
+        for (final byte[] input : inputs) {
+            checkForEachLine(input, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testForEachLineView() throws IOException {
+        final List<String> views = new ArrayList<>();
+        Streams.forEachLine(new ByteArrayInputStream("abc\ndefg".getBytes(StandardCharsets.US_ASCII)),
+                StandardCharsets.US_ASCII, line -> {
+                    final String copy = line.toString();
+                    assertEquals(copy.charAt(1), line.charAt(1));
+                    assertEquals(copy.substring(1, 3), line.subSequence(1, 3).toString());
+                    try {
+                        line.charAt(line.length());
+                        fail("the index should be out of range");
+                    } catch (final IndexOutOfBoundsException e) {
+                        // expected
+                    }
+                    views.add(line.toString());
+                });
+        assertEquals(Arrays.asList("abc", "defg"), views);
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        final Random random = new Random(5);
+        final String text = randomLines(random, 2000);
+        for (final Charset charset : new Charset[] {StandardCharsets.UTF_8, StandardCharsets.UTF_16BE}) {
+            final byte[] bytes = text.getBytes(charset);
+            final Path file = Files.write(dir.resolve(charset.name()), bytes);
+            final List<String> expected = readLines(bytes, charset);
+            try (Stream<String> lines = Streams.lines(file, charset)) {
+                assertEquals(expected, lines.collect(Collectors.toList()));
+            }
+            try (Stream<String> lines = Streams.lines(file, charset)) {
+                assertEquals(expected, lines.parallel().collect(Collectors.toList()));
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestUnicodeReader {
+
+    private static final String TEXT = "h\u00E9llo \u20AC \uD83D\uDE00 w\u00F6rld";
+
+    private static byte[] concat(byte[] bom, byte[] content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bom, 0, bom.length);
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final char[] buffer = new char[7];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+
+    private static void checkBom(String charsetName, int... bom) throws IOException {
+        final byte[] bomBytes = new byte[bom.length];
+        for (int i = 0; i < bom.length; i++) {
+            bomBytes[i] = (byte) bom[i];
+        }
+        final Charset charset = Charset.forName(charsetName);
+        final byte[] bytes = concat(bomBytes, TEXT.getBytes(charset));
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(bytes), StandardCharsets.ISO_8859_1)) {
+            assertEquals(charset, reader.getCharset());
+            assertEquals(UnicodeReader.EncodingSource.BOM, reader.getEncodingSource());
+            assertEquals(TEXT, readAll(reader));
+        }
+    }
+
+    @Test
+    public void testUtf8Bom() throws IOException {
+        checkBom("UTF-8", 0xEF, 0xBB, 0xBF);
+    }
+
+    @Test
+    public void testUtf16BeBom() throws IOException {
+        checkBom("UTF-16BE", 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf16LeBom() throws IOException {
+        checkBom("UTF-16LE", 0xFF, 0xFE);
+    }
+
+    @Test
+    public void testUtf32BeBom() throws IOException {
+        checkBom("UTF-32BE", 0x00, 0x00, 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf32LeBom() throws IOException {
+        // starts like the UTF-16LE BOM
+        checkBom("UTF-32LE", 0xFF, 0xFE, 0x00, 0x00);
+    }
+
+    @Test
+    public void testWithoutBom() throws IOException {
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.ISO_8859_1)) {
+            assertEquals(StandardCharsets.UTF_8, reader.getCharset());
+            assertEquals(UnicodeReader.EncodingSource.CONTENT, reader.getEncodingSource());
+            assertEquals(TEXT, readAll(reader));
+        }
+        final String ascii = "plain ascii";
+        final byte[] asciiBytes = ascii.getBytes(StandardCharsets.US_ASCII);
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(asciiBytes), StandardCharsets.ISO_8859_1)) {
+            assertEquals(StandardCharsets.ISO_8859_1, reader.getCharset());
+            assertEquals(UnicodeReader.EncodingSource.DEFAULT, reader.getEncodingSource());
+            assertEquals(ascii, readAll(reader));
+        }
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(new byte[0]))) {
+            assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test
+    public void testUnsupportedDefaultEncoding() throws IOException {
+        final File file = File.createTempFile("unicode-reader", ".txt");
+        try {
+            Files.write(file.toPath(), TEXT.getBytes(StandardCharsets.UTF_8));
+            try {
+                new UnicodeReader(file.getPath(), "no-such-charset");
+                fail();
+            } catch (final UnsupportedEncodingException e) {
+                // OK
+            }
+            try (UnicodeReader reader = new UnicodeReader(file.getPath(), "UTF-8")) {
+                assertEquals(TEXT, readAll(reader));
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static UnicodeReader reader(String text) throws IOException {
+        return new UnicodeReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String text, int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testReadSingleChars() throws IOException {
+        try (UnicodeReader reader = reader(TEXT)) {
+            final StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                sb.append((char) c);
+            }
+            assertEquals(TEXT, sb.toString());
+            assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test
+    public void testReadCharBuffer() throws IOException {
+        final String text = repeat(TEXT, 2000);
+        // small, large, and large buffers without array
+        for (final CharBuffer buffer : new CharBuffer[] {CharBuffer.allocate(7), CharBuffer.allocate(20000),
+                ByteBuffer.allocateDirect(40000).asCharBuffer()}) {
+            try (UnicodeReader reader = reader(text)) {
+                final StringBuilder sb = new StringBuilder();
+                assertEquals(0, reader.read(CharBuffer.allocate(0)));
+                while (reader.read(buffer) != -1) {
+                    buffer.flip();
+                    sb.append(buffer);
+                    buffer.clear();
+                }
+                assertEquals(text, sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        final String text = repeat(TEXT, 2000);
+        try (UnicodeReader reader = reader(text)) {
+            assertEquals(3, reader.skip(3));
+            assertEquals(text.charAt(3), reader.read());
+            assertEquals(20000, reader.skip(20000));
+            assertEquals(text.charAt(20004), reader.read());
+            assertEquals(text.length() - 20005, reader.skip(Long.MAX_VALUE));
+            assertEquals(0, reader.skip(10));
+            assertEquals(-1, reader.read());
+            try {
+                reader.skip(-1);
+                fail("a negative skip should be rejected");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testReady() throws IOException {
+        try (UnicodeReader reader = reader("ab")) {
+            // the first bytes are read at construction
+            assertTrue(reader.ready());
+            assertEquals('a', reader.read());
+            assertTrue(reader.ready());
+            assertEquals('b', reader.read());
+            assertFalse(reader.ready());
+        }
+    }
+
+    @Test
+    public void testTransferTo() throws IOException {
+        final String text = repeat(TEXT, 2000);
+        try (UnicodeReader reader = reader(text)) {
+            assertEquals('h', reader.read());
+            final StringWriter out = new StringWriter();
+            assertEquals(text.length() - 1, reader.transferTo(out));
+            assertEquals(text.substring(1), out.toString());
+            assertEquals(0, reader.transferTo(out));
+        }
+    }
+
+    @Test
+    public void testClosed() throws IOException {
+        final UnicodeReader reader = reader(TEXT);
+        reader.close();
+        // closing twice has no effect
+        reader.close();
+        try {
+            reader.read();
+            fail("a closed reader should not be read");
+        } catch (final IOException e) {
+            // expected
+        }
+        try {
+            reader.ready();
+            fail("a closed reader should not be read");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEncodingListener() throws IOException {
+        final List<String> events = new ArrayList<>();
+        final UnicodeReader.EncodingListener listener = (reader, charset, source) -> events.add(charset.name() + " "
+                + source);
+        final byte[] withBom = concat(new byte[] {(byte) 0xFE, (byte) 0xFF}, TEXT.getBytes(StandardCharsets.UTF_16BE));
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(withBom), null, listener)) {
+            assertEquals(StandardCharsets.UTF_16BE, reader.getCharset());
+            assertEquals(Arrays.asList("UTF-16BE BOM"), events);
+        }
+        final File file = File.createTempFile("unicode-reader", ".txt");
+        try {
+            Files.write(file.toPath(), "ascii".getBytes(StandardCharsets.US_ASCII));
+            try (UnicodeReader reader = new UnicodeReader(file.toPath(), StandardCharsets.ISO_8859_1, listener)) {
+                assertEquals(StandardCharsets.ISO_8859_1, reader.getCharset());
+                assertEquals(Arrays.asList("UTF-16BE BOM", "ISO-8859-1 DEFAULT"), events);
+            }
+            try (UnicodeReader reader = new UnicodeReader(FileChannel.open(file.toPath()), StandardCharsets.UTF_8,
+                    listener)) {
+                assertEquals(StandardCharsets.UTF_8, reader.getCharset());
+                assertEquals(Arrays.asList("UTF-16BE BOM", "ISO-8859-1 DEFAULT", "UTF-8 DEFAULT"), events);
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+        // readers created without listener notify nobody
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(withBom))) {
+            assertEquals(StandardCharsets.UTF_16BE, reader.getCharset());
+            assertEquals(3, events.size());
+        }
+    }
+
+    @Test
+    public void testDetectionWindow() throws IOException {
+        final String text = "plain start, then \u00E9";
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(utf8), StandardCharsets.ISO_8859_1)) {
+            assertEquals(UnicodeReader.EncodingSource.CONTENT, reader.getEncodingSource());
+            assertEquals(text, readAll(reader));
+        }
+        // only the bytes read at construction are analyzed, which may be as few as 4
+        final InputStream slow = new FilterInputStream(new ByteArrayInputStream(utf8)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 4));
+            }
+        };
+        try (UnicodeReader reader = new UnicodeReader(slow, StandardCharsets.ISO_8859_1)) {
+            assertEquals(UnicodeReader.EncodingSource.DEFAULT, reader.getEncodingSource());
+            assertEquals(StandardCharsets.ISO_8859_1, reader.getCharset());
+        }
+    }
+
+    @Test
+    public void testUtf16WithoutBom() throws IOException {
+        final String text = "h\u00E9llo w\u00F6rld";
+        for (final Charset charset : new Charset[] {StandardCharsets.UTF_16BE, StandardCharsets.UTF_16LE}) {
+            try (UnicodeReader reader = new UnicodeReader(new ByteArrayInputStream(text.getBytes(charset)),
+                    StandardCharsets.ISO_8859_1)) {
+                assertEquals(charset, reader.getCharset());
+                assertEquals(UnicodeReader.EncodingSource.CONTENT, reader.getEncodingSource());
+                assertEquals(text, readAll(reader));
+            }
+        }
+    }
+}
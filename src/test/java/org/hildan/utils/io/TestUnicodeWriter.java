@@ -0,0 +1,131 @@
+package org.hildan.utils.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestUnicodeWriter {
+
+    private static final String TEXT = "h\u00E9llo \u20AC \uD83D\uDE00 w\u00F6rld";
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] bom, byte[] content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bom, 0, bom.length);
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] write(Charset charset, boolean writeBom, String text) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (UnicodeWriter writer = new UnicodeWriter(out, charset, writeBom)) {
+            writer.write(text);
+        }
+        return out.toByteArray();
+    }
+
+    private static void checkRoundTrip(String charsetName, String orderedCharsetName, int... bom) throws IOException {
+        final Charset charset = Charset.forName(charsetName);
+        final Charset ordered = Charset.forName(orderedCharsetName);
+        final byte[] content = TEXT.getBytes(ordered);
+
+        final byte[] withoutBom = write(charset, false, TEXT);
+        assertArrayEquals(content, withoutBom);
+        assertEquals(TEXT, new String(withoutBom, ordered));
+
+        final byte[] withBom = write(charset, true, TEXT);
+        assertArrayEquals(concat(bytes(bom), content), withBom);
+        assertEquals(TEXT, new String(withBom, bom.length, withBom.length - bom.length, ordered));
+    }
+
+    @Test
+    public void testUtf8() throws IOException {
+        checkRoundTrip("UTF-8", "UTF-8", 0xEF, 0xBB, 0xBF);
+    }
+
+    @Test
+    public void testUtf16() throws IOException {
+        checkRoundTrip("UTF-16", "UTF-16BE", 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf16Be() throws IOException {
+        checkRoundTrip("UTF-16BE", "UTF-16BE", 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf16Le() throws IOException {
+        checkRoundTrip("UTF-16LE", "UTF-16LE", 0xFF, 0xFE);
+    }
+
+    @Test
+    public void testUtf32() throws IOException {
+        checkRoundTrip("UTF-32", "UTF-32BE", 0x00, 0x00, 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf32Be() throws IOException {
+        checkRoundTrip("UTF-32BE", "UTF-32BE", 0x00, 0x00, 0xFE, 0xFF);
+    }
+
+    @Test
+    public void testUtf32Le() throws IOException {
+        checkRoundTrip("UTF-32LE", "UTF-32LE", 0xFF, 0xFE, 0x00, 0x00);
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossWrites() throws IOException {
+        final String emoji = "\uD83D\uDE00";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (UnicodeWriter writer = new UnicodeWriter(out)) {
+            writer.write("a" + emoji.charAt(0));
+            writer.flush();
+            // the high surrogate is kept until its low surrogate is written
+            assertArrayEquals(bytes('a'), out.toByteArray());
+            writer.write(emoji.charAt(1));
+            writer.write("b");
+        }
+        assertEquals("a" + emoji + "b", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSurrogatePairSplitAcrossLargeWrites() throws IOException {
+        // arrays larger than the internal buffer are encoded directly
+        final char[] first = new char[20000];
+        final char[] second = new char[20000];
+        Arrays.fill(first, 'x');
+        Arrays.fill(second, 'y');
+        first[first.length - 1] = '\uD83D';
+        second[0] = '\uDE00';
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (UnicodeWriter writer = new UnicodeWriter(out, StandardCharsets.UTF_16LE, false)) {
+            writer.write(first);
+            writer.write(second);
+        }
+        final String expected = new String(first) + new String(second);
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_16LE));
+    }
+
+    @Test
+    public void testUnpairedHighSurrogateAtClose() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (UnicodeWriter writer = new UnicodeWriter(out)) {
+            writer.write("a\uD83D");
+        }
+        assertEquals("a?", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
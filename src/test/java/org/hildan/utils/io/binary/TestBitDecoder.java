@@ -0,0 +1,142 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBitDecoder {
+
+    private static long randomValue(Random random, int width) {
+        return width == Long.SIZE ? random.nextLong() : random.nextLong() & (1L << width) - 1;
+    }
+
+    /**
+     * Splits the specified bytes into chunks of random sizes, some of them direct, some of them
+     * not starting at index 0.
+     */
+    private static List<ByteBuffer> randomChunks(Random random, byte[] bytes) {
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        int i = 0;
+        while (i < bytes.length) {
+            final int length = Math.min(bytes.length - i, 1 + random.nextInt(20));
+            final int offset = random.nextInt(3);
+            final ByteBuffer chunk = random.nextBoolean() ? ByteBuffer.allocateDirect(offset + length + 2)
+                    : ByteBuffer.allocate(offset + length + 2);
+            chunk.position(offset);
+            chunk.put(bytes, i, length);
+            chunk.flip();
+            chunk.position(offset);
+            chunks.add(chunk);
+            i += length;
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testReadAcrossChunks() throws IOException {
+        final Random random = new Random(1);
+        final int[] widths = new int[3000];
+        final long[] values = new long[widths.length];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = random.nextInt(Long.SIZE + 1);
+                values[i] = randomValue(random, widths[i]);
+                out.writeBits(values[i], widths[i]);
+            }
+            out.alignToByte();
+        }
+        final BitDecoder decoder = new BitDecoder();
+        int i = 0;
+        for (final ByteBuffer chunk : randomChunks(random, bytes.toByteArray())) {
+            decoder.feed(chunk);
+            while (i < widths.length && decoder.hasBits(widths[i])) {
+                assertEquals("value " + i, values[i], decoder.readBits(widths[i]));
+                i++;
+            }
+            // a chunk is consumed as soon as enough bits are requested
+            assertTrue(decoder.availableBits() < Long.SIZE + Byte.SIZE * chunk.remaining() + Byte.SIZE);
+        }
+        assertEquals(widths.length, i);
+        assertTrue(decoder.availableBits() < Byte.SIZE);
+    }
+
+    @Test
+    public void testReadBit() {
+        final BitDecoder decoder = new BitDecoder();
+        assertEquals(-1, decoder.readBit());
+        decoder.feed(ByteBuffer.wrap(new byte[] {(byte) 0b10110000}));
+        decoder.feed(ByteBuffer.allocate(0));
+        decoder.feed(ByteBuffer.wrap(new byte[] {(byte) 0xFF}));
+        assertEquals(1, decoder.readBit());
+        assertEquals(0, decoder.readBit());
+        assertEquals(0b11, decoder.readBits(2));
+        assertEquals(12, decoder.availableBits());
+        decoder.alignToByte();
+        assertEquals(0xFF, decoder.readBits(8));
+        assertEquals(-1, decoder.readBit());
+    }
+
+    @Test
+    public void testMarkReset() {
+        final BitDecoder decoder = new BitDecoder();
+        final ByteBuffer first = ByteBuffer.wrap(new byte[] {0x12, 0x34});
+        final ByteBuffer second = ByteBuffer.wrap(new byte[] {0x56});
+        final ByteBuffer third = ByteBuffer.wrap(new byte[] {0x78, (byte) 0x9A});
+        decoder.feed(first);
+        assertEquals(0x1, decoder.readBits(4));
+        decoder.mark();
+        decoder.feed(second);
+        // an incomplete message of 36 bits
+        assertEquals(0x23456, decoder.readBits(20));
+        assertFalse(first.hasRemaining());
+        assertFalse(decoder.hasBits(16));
+        decoder.reset();
+        assertEquals(1, first.remaining());
+        assertEquals(20, decoder.availableBits());
+        decoder.feed(third);
+        assertEquals(0x23456789AL, decoder.readBits(36));
+        decoder.reset();
+        assertEquals(0x2345, decoder.readBits(16));
+        decoder.discardMark();
+        assertEquals(0x6789A, decoder.readBits(20));
+        try {
+            decoder.reset();
+            fail();
+        } catch (final IllegalStateException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testNotEnoughInput() {
+        final BitDecoder decoder = new BitDecoder();
+        decoder.feed(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        assertTrue(decoder.hasBits(24));
+        assertFalse(decoder.hasBits(25));
+        try {
+            decoder.readBits(25);
+            fail();
+        } catch (final IllegalStateException e) {
+            // OK
+        }
+        // nothing was consumed
+        assertEquals(0x010203, decoder.readBits(24));
+        try {
+            decoder.readBits(65);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package org.hildan.utils.io.binary;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -180,4 +183,78 @@ public class TestBitInputStream {
         assertEquals(null, bisLong.readInteger());
         assertEquals(null, bisLong.readLongOrNull());
     }
+
+    @Test
+    public void testReadLongsAtAllBitOffsets() throws IOException {
+        final byte[] data = new byte[1500 * Long.BYTES + 2];
+        new Random(42).nextBytes(data);
+        for (int offset = 0; offset < 8; offset++) {
+            final long[] expected = new long[1500];
+            try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(data))) {
+                in.readBits(offset);
+                for (int i = 0; i < expected.length; i++) {
+                    for (int j = 0; j < Long.BYTES; j++) {
+                        expected[i] = expected[i] << 8 | in.readBits(8);
+                    }
+                }
+            }
+            final long[] actual = new long[1500];
+            try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(data))) {
+                in.readBits(offset);
+                in.readLongs(actual, 0, 700);
+                in.readLongs(actual, 700, 800);
+                assertEquals(data[data.length - 2] & (1 << 8 - offset) - 1, in.readBits(8 - offset));
+                in.alignToByte();
+                assertEquals(data[data.length - 1] & 0xFF, in.readBits(8));
+            }
+            assertArrayEquals("offset " + offset, expected, actual);
+        }
+    }
+
+    @Test
+    public void testReadLongsPastEnd() throws IOException {
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(new byte[20]))) {
+            in.readLongs(new long[3], 0, 3);
+            fail();
+        } catch (final IllegalStateException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testReadLongAtBitOffset() throws IOException {
+        bisShort.readBits(3);
+        assertEquals(0xD77FF8091A2B3C4DL, bisShort.readLong());
+        assertEquals(0xB, bisShort.readBits(5));
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        final byte[] bytes = new byte[100];
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes), 16)) {
+            try {
+                in.getStats();
+                fail();
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+            in.readBits(3);
+            in.enableStats();
+            assertEquals(0, in.getStats().getBits());
+            in.readBits(20);
+            in.readLongs(new long[2], 0, 2);
+            BitStreamStats stats = in.getStats();
+            assertEquals(20 + 2 * Long.SIZE, stats.getBits());
+            // the first 16 bytes were buffered before the stats were enabled
+            assertEquals(0, stats.getEndsOfStream());
+            assertEquals(stats.getUnderlyingBytes(), 16 * stats.getUnderlyingOperations());
+            while (in.readBit() != -1) {
+                // reads up to the end
+            }
+            stats = in.getStats();
+            assertEquals(bytes.length * 8 - 3, stats.getBits());
+            assertEquals(bytes.length - 16, stats.getUnderlyingBytes());
+            assertEquals(1, stats.getEndsOfStream());
+        }
+    }
 }
@@ -1,13 +1,17 @@
 package org.hildan.utils.io.binary;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -82,4 +86,76 @@ public class TestBitOutputStream {
         }
         new File(TEMP_FILE_OUT).delete();
     }
+
+    @Test
+    public void testWriteLongsAtAllBitOffsets() throws IOException {
+        final long[] values = new Random(42).longs(1500).toArray();
+        for (int offset = 0; offset < 8; offset++) {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (BitOutputStream out = new BitOutputStream(expected)) {
+                out.writeBits(0b1010101, offset);
+                for (final long value : values) {
+                    for (int i = Long.BYTES - 1; i >= 0; i--) {
+                        out.writeBits(value >>> 8 * i & 0xFF, 8);
+                    }
+                }
+                out.writeBits(0b101, 3);
+                out.alignToByte();
+            }
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            try (BitOutputStream out = new BitOutputStream(actual)) {
+                out.writeBits(0b1010101, offset);
+                out.writeLongs(values, 0, 1000);
+                out.writeLongs(values, 1000, 500);
+                out.writeBits(0b101, 3);
+                out.alignToByte();
+            }
+            assertArrayEquals("offset " + offset, expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes, 16)) {
+            try {
+                out.getStats();
+                fail();
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+            out.writeBits(5, 3);
+            out.enableStats();
+            out.writeBits(0x1234, 20);
+            assertEquals(20, out.getStats().getBits());
+            assertEquals(0, out.getStats().getUnderlyingOperations());
+            out.writeLongs(new long[] {1, 2, 3}, 0, 3);
+            out.writeBits(0, 1);
+            final BitStreamStats stats = out.getStats();
+            assertEquals(20 + 3 * Long.SIZE + 1, stats.getBits());
+            assertEquals(bytes.size(), stats.getUnderlyingBytes());
+            assertEquals(0, stats.getEndsOfStream());
+            out.alignToByte();
+            out.flush();
+            assertEquals(bytes.size(), out.getStats().getUnderlyingBytes());
+            assertEquals((3 + 20 + 3 * Long.SIZE + 1) / Byte.SIZE, bytes.size());
+        }
+    }
+
+    @Test
+    public void testStatsIgnoreFlushPadding() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.enableStats();
+            out.writeBits(0b101, 3);
+            out.flush();
+            // the partial byte is written padded with 0s
+            assertEquals(1, bytes.size());
+            assertEquals(3, out.getStats().getBits());
+            out.flush();
+            assertEquals(3, out.getStats().getBits());
+            out.writeBits(0b11, 2);
+            assertEquals(5, out.getStats().getBits());
+        }
+    }
 }
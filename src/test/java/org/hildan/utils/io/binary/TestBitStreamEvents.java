@@ -0,0 +1,100 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * The Flight Recorder API does not exist in Java 8, which this project targets, so the recordings
+ * are driven by reflection, as in {@link BitStreamEvents}.
+ */
+public class TestBitStreamEvents {
+
+    private static Object newRecording() throws ReflectiveOperationException {
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, BitStreamEvents.EVENT_NAME);
+        return recording;
+    }
+
+    private static void invoke(Object recording, String method) throws ReflectiveOperationException {
+        recording.getClass().getMethod(method).invoke(recording);
+    }
+
+    /**
+     * Stops the specified recording, and returns its events, as {@code jdk.jfr.consumer.RecordedEvent}s.
+     */
+    private static List<?> stopAndReadEvents(Object recording) throws ReflectiveOperationException,
+            IOException {
+        invoke(recording, "stop");
+        final Path file = Files.createTempFile("bit-stream-events", ".jfr");
+        try {
+            recording.getClass().getMethod("dump", Path.class).invoke(recording, file);
+            return (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class)
+                    .invoke(null, file);
+        } finally {
+            invoke(recording, "close");
+            Files.delete(file);
+        }
+    }
+
+    private static String getEventName(Object event) throws ReflectiveOperationException {
+        final Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+        return (String) eventType.getClass().getMethod("getName").invoke(eventType);
+    }
+
+    @Test
+    public void testNoEventWhenDisabled() {
+        // no recording enables the events
+        assertNull(BitStreamEvents.begin());
+        BitStreamEvents.commit(null, "read", 1, false);
+    }
+
+    @Test
+    public void testOneEventPerRefill() throws Exception {
+        assumeTrue(BitStreamEvents.isAvailable());
+        final Object recording = newRecording();
+        invoke(recording, "start");
+        final BitStreamStats stats;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(new byte[100]), 16)) {
+            in.enableStats();
+            assertNotNull(BitStreamEvents.begin());
+            while (in.readBit() != -1) {
+                // reads up to the end
+            }
+            stats = in.getStats();
+        }
+        final List<?> events = stopAndReadEvents(recording);
+        assertNull(BitStreamEvents.begin());
+
+        long count = 0;
+        long bytes = 0;
+        long endsOfStream = 0;
+        for (final Object event : events) {
+            if (!BitStreamEvents.EVENT_NAME.equals(getEventName(event))) {
+                continue;
+            }
+            final Class<?> eventClass = event.getClass();
+            assertEquals("read", eventClass.getMethod("getString", String.class).invoke(event, "operation"));
+            count++;
+            bytes += (Long) eventClass.getMethod("getLong", String.class).invoke(event, "bytes");
+            if ((Boolean) eventClass.getMethod("getBoolean", String.class).invoke(event, "endOfStream")) {
+                endsOfStream++;
+            }
+        }
+        // 7 reads filling the buffer of 16 bytes, and the read reaching the end of the stream
+        assertEquals(8, stats.getUnderlyingOperations());
+        assertEquals(stats.getUnderlyingOperations(), count);
+        assertEquals(100, bytes);
+        assertEquals(1, endsOfStream);
+    }
+}
@@ -0,0 +1,252 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCompressedBitmap {
+
+    /**
+     * Returns a set mixing sparse chunks, dense chunks and long ranges.
+     */
+    private static BitSet sampleBits(Random random) {
+        final BitSet bits = new BitSet();
+        for (int chunk = 0; chunk < 12; chunk++) {
+            final int base = random.nextInt(20) << 16;
+            switch (random.nextInt(3)) {
+            case 0:
+                for (int i = random.nextInt(5000); i > 0; i--) {
+                    bits.set(base + random.nextInt(1 << 16));
+                }
+                break;
+            case 1:
+                for (int i = 3000 + random.nextInt(40000); i > 0; i--) {
+                    bits.set(base + random.nextInt(1 << 16));
+                }
+                break;
+            default:
+                final int from = base + random.nextInt(1 << 16);
+                bits.set(from, from + random.nextInt(200000));
+                break;
+            }
+        }
+        return bits;
+    }
+
+    private static BitSet and(BitSet a, BitSet b) {
+        final BitSet result = (BitSet) a.clone();
+        result.and(b);
+        return result;
+    }
+
+    private static BitSet or(BitSet a, BitSet b) {
+        final BitSet result = (BitSet) a.clone();
+        result.or(b);
+        return result;
+    }
+
+    private static BitSet andNot(BitSet a, BitSet b) {
+        final BitSet result = (BitSet) a.clone();
+        result.andNot(b);
+        return result;
+    }
+
+    private static CompressedBitmap roundTrip(CompressedBitmap bitmap, int bitOffset) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.writeBits(1, bitOffset);
+            bitmap.writeTo(out);
+            out.writeBits(0b101, 3);
+            out.alignToByte();
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(bitOffset == 0 ? 0 : 1, in.readBits(bitOffset));
+            final CompressedBitmap result = CompressedBitmap.readFrom(in);
+            assertEquals(0b101, in.readBits(3));
+            return result;
+        }
+    }
+
+    @Test
+    public void testAddRemoveContains() {
+        final CompressedBitmap bitmap = CompressedBitmap.of(5, 1 << 20, 3, 65535, 65536);
+        assertEquals(5, bitmap.cardinality());
+        assertTrue(bitmap.contains(65535));
+        assertTrue(bitmap.contains(1 << 20));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(-1));
+        assertTrue(bitmap.remove(65536));
+        assertFalse(bitmap.remove(65536));
+        assertArrayEquals(new int[] {3, 5, 65535, 1 << 20}, bitmap.toArray());
+        assertEquals("{3, 5, 65535, 1048576}", bitmap.toString());
+        try {
+            bitmap.add(-1);
+            fail();
+        } catch (final IndexOutOfBoundsException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testGrowAndShrinkChunk() {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        final BitSet expected = new BitSet();
+        final Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            final int value = random.nextInt(1 << 17);
+            bitmap.add(value);
+            expected.set(value);
+        }
+        assertEquals(expected, bitmap.toBitSet());
+        for (int i = 0; i < 1 << 17; i += 2) {
+            assertEquals(expected.get(i), bitmap.remove(i));
+            expected.clear(i);
+        }
+        assertEquals(expected, bitmap.toBitSet());
+        assertEquals(expected.cardinality(), bitmap.cardinality());
+    }
+
+    @Test
+    public void testRanges() {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        bitmap.add(10, 10);
+        assertTrue(bitmap.isEmpty());
+        bitmap.add(7, 13);
+        bitmap.add(65530, 300000);
+        bitmap.add(70000);
+        bitmap.remove(100000);
+        final BitSet expected = new BitSet();
+        expected.set(7, 13);
+        expected.set(65530, 300000);
+        expected.clear(100000);
+        assertEquals(expected, bitmap.toBitSet());
+        assertTrue(bitmap.contains(299999));
+        assertFalse(bitmap.contains(300000));
+    }
+
+    @Test
+    public void testBitSetConversions() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            final BitSet bits = sampleBits(random);
+            final CompressedBitmap bitmap = CompressedBitmap.fromBitSet(bits);
+            assertEquals(bits, bitmap.toBitSet());
+            assertEquals(bits.cardinality(), bitmap.cardinality());
+            assertArrayEquals(bits.stream().toArray(), bitmap.toArray());
+        }
+        assertTrue(CompressedBitmap.fromBitSet(new BitSet()).isEmpty());
+        assertEquals(new BitSet(), new CompressedBitmap().toBitSet());
+    }
+
+    @Test
+    public void testSetOperations() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 30; i++) {
+            final BitSet a = sampleBits(random);
+            final BitSet b = sampleBits(random);
+            final CompressedBitmap bitmapA = CompressedBitmap.fromBitSet(a);
+            final CompressedBitmap bitmapB = CompressedBitmap.fromBitSet(b);
+            if (i % 2 == 0) {
+                bitmapA.runOptimize();
+            }
+            assertEquals(and(a, b), bitmapA.and(bitmapB).toBitSet());
+            assertEquals(or(a, b), bitmapA.or(bitmapB).toBitSet());
+            assertEquals(andNot(a, b), bitmapA.andNot(bitmapB).toBitSet());
+            assertEquals(andNot(b, a), bitmapB.andNot(bitmapA).toBitSet());
+            assertEquals(CompressedBitmap.fromBitSet(or(a, b)), bitmapB.or(bitmapA));
+            // the operands are not modified
+            assertEquals(a, bitmapA.toBitSet());
+            assertEquals(b, bitmapB.toBitSet());
+        }
+    }
+
+    @Test
+    public void testResultsAreIndependent() {
+        final CompressedBitmap a = CompressedBitmap.of(1, 2, 3);
+        final CompressedBitmap b = CompressedBitmap.of(100000);
+        final CompressedBitmap union = a.or(b);
+        union.add(4);
+        union.add(100001);
+        assertEquals(CompressedBitmap.of(1, 2, 3), a);
+        assertEquals(CompressedBitmap.of(100000), b);
+    }
+
+    @Test
+    public void testRunOptimize() throws IOException {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        bitmap.add(0, 200000);
+        bitmap.add(300000);
+        final CompressedBitmap optimized = CompressedBitmap.fromBitSet(bitmap.toBitSet());
+        assertTrue(optimized.runOptimize());
+        assertFalse(optimized.runOptimize());
+        assertEquals(bitmap, optimized);
+        assertEquals(bitmap.hashCode(), optimized.hashCode());
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(plain)) {
+            CompressedBitmap.fromBitSet(bitmap.toBitSet()).writeTo(out);
+        }
+        final ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(runs)) {
+            optimized.writeTo(out);
+        }
+        assertTrue(runs.size() < plain.size() / 100);
+        assertEquals(bitmap, roundTrip(optimized, 3));
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        final Random random = new Random(4);
+        for (int i = 0; i < 16; i++) {
+            final CompressedBitmap bitmap = CompressedBitmap.fromBitSet(sampleBits(random));
+            if (i % 4 == 0) {
+                bitmap.runOptimize();
+            }
+            assertEquals(bitmap, roundTrip(bitmap, i % 8));
+        }
+        assertEquals(new CompressedBitmap(), roundTrip(new CompressedBitmap(), 5));
+    }
+
+    @Test
+    public void testInvalidSerializedForm() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            CompressedBitmap.of(1, 2, 3, 100000).writeTo(out);
+        }
+        final byte[] data = bytes.toByteArray();
+        // swaps the keys of the containers
+        final byte[] unordered = data.clone();
+        unordered[5] = 1;
+        unordered[18] = 0;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(unordered))) {
+            CompressedBitmap.readFrom(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        // unknown container type
+        final byte[] unknownType = data.clone();
+        unknownType[6] = 7;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(unknownType))) {
+            CompressedBitmap.readFrom(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(data, 0, data.length - 1))) {
+            CompressedBitmap.readFrom(in);
+            fail();
+        } catch (final IllegalStateException e) {
+            // OK
+        }
+    }
+}
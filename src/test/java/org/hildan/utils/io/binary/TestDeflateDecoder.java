@@ -0,0 +1,216 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class TestDeflateDecoder {
+
+    private static byte[] deflate(byte[] data, int level, int strategy) {
+        final Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] sampleData(int size, long seed) {
+        final Random random = new Random(seed);
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            if (i > 10 && random.nextInt(3) == 0) {
+                // repetition of previous data, sometimes overlapping itself
+                final int distance = 1 + random.nextInt(Math.min(i, 40000));
+                final int length = Math.min(size - i, 3 + random.nextInt(300));
+                for (int j = 0; j < length; j++, i++) {
+                    data[i] = data[i - distance];
+                }
+            } else {
+                data[i++] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testAllLevelsAndStrategies() throws IOException {
+        final byte[] data = sampleData(300000, 42);
+        final int[] strategies = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+        for (int level = 0; level <= 9; level++) {
+            for (final int strategy : strategies) {
+                final byte[] deflated = deflate(data, level, strategy);
+                assertArrayEquals("level " + level + ", strategy " + strategy, data, DeflateDecoder.inflate(deflated));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyAndSmallInputs() throws IOException {
+        for (int size = 0; size < 300; size++) {
+            final byte[] data = sampleData(size, size);
+            assertArrayEquals(data, DeflateDecoder.inflate(deflate(data, Deflater.DEFAULT_COMPRESSION,
+                    Deflater.DEFAULT_STRATEGY)));
+        }
+    }
+
+    @Test
+    public void testRandomData() throws IOException {
+        final byte[] data = new byte[100000];
+        new Random(7).nextBytes(data);
+        assertArrayEquals(data, DeflateDecoder.inflate(deflate(data, 6, Deflater.DEFAULT_STRATEGY)));
+    }
+
+    @Test
+    public void testArbitraryBitOffset() throws IOException {
+        final byte[] data = sampleData(50000, 3);
+        final byte[] deflated = deflate(data, 6, Deflater.DEFAULT_STRATEGY);
+        final Random random = new Random(5);
+        for (int offset = 0; offset < 24; offset++) {
+            // the compressed bits are shifted after some random prefix bits, LSB first
+            final byte[] shifted = new byte[deflated.length + 4];
+            final int prefix = random.nextInt(1 << offset | 1) & (1 << offset) - 1;
+            long accumulator = prefix;
+            int accumulated = offset;
+            int o = 0;
+            for (final byte b : deflated) {
+                accumulator |= (b & 0xFFL) << accumulated;
+                accumulated += 8;
+                while (accumulated >= 8) {
+                    shifted[o++] = (byte) accumulator;
+                    accumulator >>>= 8;
+                    accumulated -= 8;
+                }
+            }
+            shifted[o] = (byte) accumulator;
+            assertArrayEquals("offset " + offset, data, DeflateDecoder.inflate(shifted, offset));
+        }
+    }
+
+    @Test
+    public void testEndPosition() throws IOException {
+        final byte[] data = sampleData(10000, 9);
+        final byte[] deflated = deflate(data, 9, Deflater.DEFAULT_STRATEGY);
+        final byte[] followed = Arrays.copyOf(deflated, deflated.length + 3);
+        followed[deflated.length] = 0x7F;
+        try (LsbFirstBitInputStream in = new LsbFirstBitInputStream(new ByteArrayInputStream(followed))) {
+            final DeflateDecoder decoder = new DeflateDecoder(in);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(data.length, decoder.inflate(out));
+            assertArrayEquals(data, out.toByteArray());
+            in.alignToByte();
+            assertEquals(deflated.length * 8L, in.getBitPosition());
+            assertEquals(0x7F, in.read());
+        }
+    }
+
+    /**
+     * Returns the bits of the specified members, each member starting right after the last bit of
+     * the previous one, LSB first.
+     */
+    private static byte[] concatBits(byte[][] members, long[] bitLengths) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long accumulator = 0;
+        int accumulated = 0;
+        for (int m = 0; m < members.length; m++) {
+            for (long bit = 0; bit < bitLengths[m]; bit++) {
+                accumulator |= (long) (members[m][(int) (bit / 8)] >>> (bit % 8) & 1) << accumulated++;
+                if (accumulated == 8) {
+                    out.write((int) accumulator);
+                    accumulator = 0;
+                    accumulated = 0;
+                }
+            }
+        }
+        if (accumulated > 0) {
+            out.write((int) accumulator);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException {
+        final byte[][] data = new byte[4][];
+        final byte[][] members = new byte[data.length][];
+        final long[] bitLengths = new long[data.length];
+        // stored blocks are aligned on bytes, so only the first member can be stored
+        final int[] levels = {0, 1, 9, Deflater.DEFAULT_COMPRESSION};
+        for (int m = 0; m < data.length; m++) {
+            data[m] = sampleData(100 + 3000 * m, 20 + m);
+            members[m] = deflate(data[m], levels[m], Deflater.DEFAULT_STRATEGY);
+            // the exact length of each member is given by a decoder reading it alone
+            final DeflateDecoder decoder = new DeflateDecoder(new ByteArrayInputStream(members[m]), 0);
+            decoder.inflate(new ByteArrayOutputStream());
+            bitLengths[m] = decoder.getBitPosition();
+            assertEquals(members[m].length, (bitLengths[m] + 7) / 8);
+        }
+        final byte[] concatenated = concatBits(members, bitLengths);
+
+        // a new decoder for each member, from the end position of the previous one
+        long position = 0;
+        for (int m = 0; m < data.length; m++) {
+            final DeflateDecoder decoder = new DeflateDecoder(new ByteArrayInputStream(concatenated), position);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            decoder.inflate(out);
+            assertArrayEquals("member " + m, data[m], out.toByteArray());
+            assertArrayEquals("member " + m, data[m], DeflateDecoder.inflate(concatenated, position));
+            assertEquals(position + bitLengths[m], decoder.getBitPosition());
+            position = decoder.getBitPosition();
+        }
+
+        // successive decoders sharing the same bit stream
+        try (LsbFirstBitInputStream in = new LsbFirstBitInputStream(new ByteArrayInputStream(concatenated))) {
+            position = 0;
+            for (int m = 0; m < data.length; m++) {
+                final DeflateDecoder decoder = new DeflateDecoder(in);
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                decoder.inflate(out);
+                assertArrayEquals("member " + m, data[m], out.toByteArray());
+                position += bitLengths[m];
+                assertEquals(position, decoder.getBitPosition());
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptedData() throws IOException {
+        final byte[] deflated = deflate(sampleData(10000, 11), 6, Deflater.DEFAULT_STRATEGY);
+        try {
+            DeflateDecoder.inflate(Arrays.copyOf(deflated, deflated.length / 2));
+            fail();
+        } catch (final EOFException e) {
+            // OK
+        }
+        try {
+            // block type 3 is reserved
+            DeflateDecoder.inflate(new byte[] {0x07});
+            fail();
+        } catch (final ZipException e) {
+            // OK
+        }
+        try {
+            // stored block with a wrong length complement
+            DeflateDecoder.inflate(new byte[] {0x01, 0x05, 0x00, 0x00, 0x00});
+            fail();
+        } catch (final ZipException e) {
+            // OK
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestLsbFirstBitInputStream {
+
+    private static LsbFirstBitInputStream stream(int... bytes) {
+        final byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        return new LsbFirstBitInputStream(new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void testReadBits() throws IOException {
+        try (LsbFirstBitInputStream in = stream(0xA5, 0x0F, 0xFF, 0x01)) {
+            assertEquals(1, in.readBit());
+            assertEquals(0, in.readBit());
+            assertEquals(0x1, in.readBits(2));
+            assertEquals(0xA, in.readBits(4));
+            assertEquals(8, in.getBitPosition());
+            // spans 2 bytes, least significant bits first
+            assertEquals(0xF0F, in.readBits(12));
+            assertEquals(0x1F, in.readBits(5));
+            assertEquals(0, in.readBit());
+            assertEquals(0, in.readBits(6));
+            assertEquals(-1, in.readBit());
+            try {
+                in.readBits(1);
+                fail();
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+        }
+    }
+
+    @Test
+    public void testPeekAndDrop() throws IOException {
+        try (LsbFirstBitInputStream in = stream(0x34, 0x12)) {
+            assertTrue(in.ensureBits(16));
+            assertFalse(in.ensureBits(17));
+            assertEquals(0x1234, in.peekBits(16));
+            in.dropBits(4);
+            assertEquals(0x123, in.peekBits(12));
+            assertEquals(4, in.getBitPosition());
+        }
+    }
+
+    @Test
+    public void testSkipAndAlign() throws IOException {
+        try (LsbFirstBitInputStream in = stream(0x00, 0x11, 0x22, 0x33, 0x44, 0x55)) {
+            assertEquals(12, in.skipBits(12));
+            assertEquals(0x1, in.readBits(4));
+            assertEquals(0x22, in.read());
+            in.readBits(3);
+            in.alignToByte();
+            assertEquals(32, in.getBitPosition());
+            final byte[] bytes = new byte[4];
+            assertEquals(2, in.read(bytes, 0, 4));
+            assertEquals(0x44, bytes[0]);
+            assertEquals(0x55, bytes[1]);
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skipBits(8));
+        }
+    }
+
+    @Test
+    public void testUnalignedByteRead() throws IOException {
+        try (LsbFirstBitInputStream in = stream(0xF1, 0x2F, 0x03)) {
+            assertEquals(0x1, in.readBits(4));
+            final byte[] bytes = new byte[3];
+            assertEquals(2, in.read(bytes, 0, 3));
+            assertEquals((byte) 0xFF, bytes[0]);
+            assertEquals((byte) 0x32, bytes[1]);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPackedLongArray {
+
+    private static final int[] WIDTHS = {1, 3, 7, 11, 16, 20, 33, 63, 64};
+
+    private static PackedLongArray newArray(long size, int bitsPerValue, boolean direct) {
+        return direct ? PackedLongArray.allocateDirect(size, bitsPerValue) : new PackedLongArray(size, bitsPerValue);
+    }
+
+    private static long randomValue(Random random, int bitsPerValue) {
+        return bitsPerValue == Long.SIZE ? random.nextLong() : random.nextLong() & (1L << bitsPerValue) - 1;
+    }
+
+    private static long[] toArray(PackedLongArray array) {
+        final long[] values = new long[(int) array.size()];
+        array.get(0, values, 0, values.length);
+        return values;
+    }
+
+    @Test
+    public void testGetSet() {
+        final Random random = new Random(1);
+        for (final boolean direct : new boolean[] {false, true}) {
+            for (final int bits : WIDTHS) {
+                final PackedLongArray array = newArray(1000, bits, direct);
+                assertEquals(direct, array.isDirect());
+                assertEquals(bits, array.getBitsPerValue());
+                final long[] expected = new long[1000];
+                for (int n = 0; n < 5000; n++) {
+                    final int i = random.nextInt(expected.length);
+                    expected[i] = randomValue(random, bits);
+                    array.set(i, expected[i]);
+                }
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals("width " + bits + ", index " + i, expected[i], array.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBulkGetSet() {
+        final Random random = new Random(2);
+        final PackedLongArray array = new PackedLongArray(500, 13);
+        final long[] values = new long[300];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = randomValue(random, 13);
+        }
+        array.set(150, values, 50, 250);
+        final long[] result = new long[250];
+        array.get(150, result, 0, 250);
+        assertArrayEquals(Arrays.copyOfRange(values, 50, 300), result);
+        assertEquals(0, array.get(149));
+        assertEquals(0, array.get(400));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        final PackedLongArray array = new PackedLongArray(10, 11);
+        try {
+            array.set(0, 1 << 11);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            array.set(0, -1);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            array.get(10);
+            fail();
+        } catch (final IndexOutOfBoundsException e) {
+            // OK
+        }
+        try {
+            new PackedLongArray(10, 0);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        assertEquals(1, PackedLongArray.bitsRequired(0));
+        assertEquals(11, PackedLongArray.bitsRequired(2047));
+        assertEquals(12, PackedLongArray.bitsRequired(2048));
+        assertEquals(64, PackedLongArray.bitsRequired(-1));
+    }
+
+    @Test
+    public void testFill() {
+        final Random random = new Random(3);
+        for (final int bits : WIDTHS) {
+            final PackedLongArray array = newArray(3000, bits, bits % 2 == 0);
+            final long[] expected = new long[3000];
+            for (int n = 0; n < 30; n++) {
+                final int from = random.nextInt(expected.length);
+                final int to = from + random.nextInt(expected.length - from + 1);
+                final long value = randomValue(random, bits);
+                Arrays.fill(expected, from, to, value);
+                array.fill(from, to, value);
+                assertArrayEquals("width " + bits, expected, toArray(array));
+            }
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        final Random random = new Random(4);
+        for (final int bits : WIDTHS) {
+            final PackedLongArray src = newArray(2000, bits, false);
+            final long[] srcValues = new long[2000];
+            for (int i = 0; i < srcValues.length; i++) {
+                srcValues[i] = randomValue(random, bits);
+                src.set(i, srcValues[i]);
+            }
+            final PackedLongArray dest = newArray(2000, bits, true);
+            final long[] expected = new long[2000];
+            for (int n = 0; n < 20; n++) {
+                final int length = random.nextInt(1000);
+                // aligned copies are frequent
+                final int srcIndex = random.nextInt(1000);
+                final int destIndex = n % 2 == 0 ? srcIndex : random.nextInt(1000);
+                System.arraycopy(srcValues, srcIndex, expected, destIndex, length);
+                dest.copyFrom(src, srcIndex, destIndex, length);
+                assertArrayEquals("width " + bits, expected, toArray(dest));
+                System.arraycopy(expected, srcIndex, expected, destIndex, length);
+                dest.copyFrom(dest, srcIndex, destIndex, length);
+                assertArrayEquals("width " + bits, expected, toArray(dest));
+            }
+        }
+    }
+
+    @Test
+    public void testCopyBetweenWidths() {
+        final PackedLongArray narrow = new PackedLongArray(100, 7);
+        final PackedLongArray wide = new PackedLongArray(100, 40);
+        for (int i = 0; i < 100; i++) {
+            narrow.set(i, i);
+        }
+        wide.copyFrom(narrow, 0, 0, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, wide.get(i));
+        }
+        wide.set(50, 1000);
+        try {
+            narrow.copyFrom(wide, 0, 0, 100);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        final Random random = new Random(5);
+        for (final int bits : WIDTHS) {
+            final PackedLongArray array = newArray(5000 + bits, bits, bits % 2 == 1);
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, randomValue(random, bits));
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (BitOutputStream out = new BitOutputStream(bytes)) {
+                out.writeBits(0b11, 2);
+                array.writeTo(out);
+                out.alignToByte();
+            }
+            // header, then whole longs
+            assertTrue(bytes.size() <= 10 + Long.BYTES + (array.size() * bits + 7) / 8);
+            for (final boolean direct : new boolean[] {false, true}) {
+                try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                    assertEquals(0b11, in.readBits(2));
+                    final PackedLongArray result = PackedLongArray.readFrom(in, direct);
+                    assertEquals(direct, result.isDirect());
+                    assertEquals(bits, result.getBitsPerValue());
+                    assertArrayEquals(toArray(array), toArray(result));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidSerializedForm() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.writeBits(65, 8);
+            out.writeLong(10);
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            PackedLongArray.readFrom(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        final ByteArrayOutputStream padding = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(padding)) {
+            out.writeBits(10, 8);
+            out.writeLong(3);
+            out.writeLong(1);
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(padding.toByteArray()))) {
+            PackedLongArray.readFrom(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        assertFalse(new PackedLongArray(0, 5).isDirect());
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        final PackedLongArray array = new PackedLongArray(100, 7);
+        array.set(99, 127);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            array.writeTo(out);
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(127, PackedLongArray.readFrom(in, false, 100).get(99));
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            PackedLongArray.readFrom(in, true, 99);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        // a corrupt size is rejected before the storage is allocated
+        final ByteArrayOutputStream huge = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(huge)) {
+            out.writeBits(64, 8);
+            out.writeLong(Integer.MAX_VALUE / Long.BYTES);
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(huge.toByteArray()))) {
+            PackedLongArray.readFrom(in, false, 1 << 20);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPforDeltaCodec {
+
+    /**
+     * Returns sorted timestamps in milliseconds, with small regular gaps and a few large ones.
+     */
+    private static long[] timestamps(int count, long seed) {
+        final Random random = new Random(seed);
+        final long[] values = new long[count];
+        long time = 1_500_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(100) == 0 ? random.nextInt(1_000_000) : random.nextInt(50);
+            values[i] = time;
+        }
+        return values;
+    }
+
+    private static byte[] encode(long[] values, int bitOffset) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.writeBits(0b1, bitOffset);
+            PforDeltaCodec.write(out, values);
+            out.writeBits(0b110, 3);
+            out.alignToByte();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long[] decode(byte[] data, int bitOffset) throws IOException {
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(data))) {
+            assertEquals(bitOffset == 0 ? 0 : 1, in.readBits(bitOffset));
+            final long[] values = PforDeltaCodec.read(in);
+            assertEquals(0b110, in.readBits(3));
+            return values;
+        }
+    }
+
+    @Test
+    public void testRoundTripAtAllBitOffsets() throws IOException {
+        for (int bitOffset = 0; bitOffset < 8; bitOffset++) {
+            final long[] values = timestamps(10_000 + bitOffset * 37, bitOffset);
+            assertArrayEquals("offset " + bitOffset, values, decode(encode(values, bitOffset), bitOffset));
+        }
+    }
+
+    @Test
+    public void testSmallLengths() throws IOException {
+        for (int length = 0; length < 300; length++) {
+            final long[] values = timestamps(length, length);
+            assertArrayEquals(values, decode(encode(values, 0), 0));
+        }
+    }
+
+    @Test
+    public void testUnsortedAndExtremeValues() throws IOException {
+        final Random random = new Random(3);
+        final long[] randomValues = random.longs(1000).toArray();
+        assertArrayEquals(randomValues, decode(encode(randomValues, 5), 5));
+        final long[] extremes = {Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, Long.MAX_VALUE, 1, Long.MIN_VALUE};
+        assertArrayEquals(extremes, decode(encode(extremes, 2), 2));
+        final long[] constant = new long[1000];
+        Arrays.fill(constant, -42);
+        assertArrayEquals(constant, decode(encode(constant, 0), 0));
+        final long[] decreasing = new long[500];
+        for (int i = 0; i < decreasing.length; i++) {
+            decreasing[i] = 1000 - 3L * i + random.nextInt(2);
+        }
+        assertArrayEquals(decreasing, decode(encode(decreasing, 7), 7));
+    }
+
+    @Test
+    public void testExceptionsKeepBlocksNarrow() throws IOException {
+        final long[] values = new long[100_000];
+        for (int i = 1; i < values.length; i++) {
+            // consecutive IDs with one huge jump per block
+            values[i] = values[i - 1] + (i % 128 == 0 ? 1L << 40 : 1 + i % 3);
+        }
+        final byte[] data = encode(values, 0);
+        assertArrayEquals(values, decode(data, 0));
+        assertTrue("size " + data.length, data.length * 20 < values.length * Long.BYTES);
+    }
+
+    @Test
+    public void testCompressionOfTimestamps() throws IOException {
+        final long[] values = timestamps(100_000, 42);
+        final byte[] data = encode(values, 0);
+        assertTrue("size " + data.length, data.length * 5 < values.length * Long.BYTES);
+    }
+
+    @Test
+    public void testLargeLengths() throws IOException {
+        // the decoded array grows several times, and ends at the exact length
+        for (final int length : new int[] {8192, 8193, 100_000}) {
+            final long[] values = timestamps(length, length);
+            assertArrayEquals(values, decode(encode(values, 0), 0));
+        }
+    }
+
+    @Test
+    public void testInvalidLengthDoesNotAllocate() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            PforDeltaCodec.write(out, timestamps(1000, 3));
+        }
+        final byte[] data = bytes.toByteArray();
+        // a length of 2^31 - 1 longs, followed by the blocks of 1000 values
+        data[0] = 0x7F;
+        data[1] = data[2] = data[3] = (byte) 0xFF;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(data))) {
+            PforDeltaCodec.read(in);
+            fail("the end of the stream should be reached");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriteRange() throws IOException {
+        final long[] values = timestamps(1000, 7);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            PforDeltaCodec.write(out, values, 100, 300);
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertArrayEquals(Arrays.copyOfRange(values, 100, 400), PforDeltaCodec.read(in));
+        }
+    }
+}
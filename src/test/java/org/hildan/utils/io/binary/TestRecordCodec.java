@@ -0,0 +1,352 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+public class TestRecordCodec {
+
+    private static class Base {
+        // package-private to be visible from subclasses
+        long id;
+    }
+
+    private static class Trade extends Base {
+        private int price;
+        private short quantity;
+        private byte side;
+        private boolean cancelled;
+        private char venue;
+        private long delta;
+    }
+
+    private static class Immutable {
+        private final int value = 0;
+    }
+
+    private static class NotInteger {
+        private double value;
+    }
+
+    private static class Narrow {
+        private int i;
+        private short s;
+        private byte b;
+        private char c;
+        private boolean z;
+    }
+
+    private static final RecordSchema TRADE_SCHEMA = new RecordSchema(FieldSpec.varint("id"),
+            FieldSpec.signed("price", 32), FieldSpec.unsigned("quantity", 13), FieldSpec.signed("side", 2),
+            FieldSpec.unsigned("cancelled", 1), FieldSpec.unsigned("venue", 16), FieldSpec.signedVarint("delta"));
+
+    private static Trade randomTrade(Random random) {
+        final Trade trade = new Trade();
+        trade.id = random.nextLong() >>> random.nextInt(64);
+        trade.price = random.nextInt();
+        trade.quantity = (short) random.nextInt(1 << 13);
+        trade.side = (byte) (random.nextInt(4) - 2);
+        trade.cancelled = random.nextBoolean();
+        trade.venue = (char) random.nextInt(1 << 16);
+        trade.delta = random.nextLong() >> random.nextInt(64);
+        return trade;
+    }
+
+    private static void assertTradeEquals(Trade expected, Trade actual) {
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.price, actual.price);
+        assertEquals(expected.quantity, actual.quantity);
+        assertEquals(expected.side, actual.side);
+        assertEquals(expected.cancelled, actual.cancelled);
+        assertEquals(expected.venue, actual.venue);
+        assertEquals(expected.delta, actual.delta);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final RecordCodec<Trade> codec = TRADE_SCHEMA.compile(Trade.class);
+        assertEquals(Trade.class, codec.getType());
+        final Random random = new Random(1);
+        final Trade[] trades = new Trade[1000];
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.writeBits(0b101, 3);
+            for (int i = 0; i < trades.length; i++) {
+                trades[i] = randomTrade(random);
+                codec.write(out, trades[i]);
+            }
+            out.alignToByte();
+        }
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(0b101, in.readBits(3));
+            final Trade flyweight = new Trade();
+            for (int i = 0; i < trades.length; i++) {
+                if (i % 2 == 0) {
+                    assertTradeEquals(trades[i], codec.read(in));
+                } else {
+                    codec.read(in, flyweight);
+                    assertTradeEquals(trades[i], flyweight);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVarintExtremes() throws IOException {
+        final RecordCodec<Base> unsigned = new RecordSchema(FieldSpec.varint("id")).compile(Base.class);
+        final RecordCodec<Base> signed = new RecordSchema(FieldSpec.signedVarint("id")).compile(Base.class);
+        final long[] values = {0, 1, -1, 127, 128, Long.MAX_VALUE, Long.MIN_VALUE, 300, -64, 63};
+        for (final RecordCodec<Base> codec : Arrays.asList(unsigned, signed)) {
+            for (final long value : values) {
+                final Base record = new Base();
+                record.id = value;
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (BitOutputStream out = new BitOutputStream(bytes)) {
+                    codec.write(out, record);
+                }
+                try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                    assertEquals(value, codec.read(in).id);
+                }
+            }
+        }
+        // zigzag keeps small negative values short
+        final Base record = new Base();
+        record.id = -64;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            signed.write(out, record);
+        }
+        assertEquals(1, bytes.size());
+        assertEquals(127, bytes.toByteArray()[0]);
+    }
+
+    @Test
+    public void testInvalidVarint() throws IOException {
+        final RecordCodec<Base> codec = new RecordSchema(FieldSpec.varint("id")).compile(Base.class);
+        final byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes))) {
+            codec.read(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testOverlongVarint() throws IOException {
+        final RecordCodec<Base> codec = new RecordSchema(FieldSpec.varint("id")).compile(Base.class);
+        // 10 groups hold 70 bits, the first one may only hold the 64th bit
+        final byte[] bytes = new byte[10];
+        Arrays.fill(bytes, (byte) 0xFF);
+        bytes[9] = 0x7F;
+        bytes[0] = (byte) 0x81;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes))) {
+            assertEquals(-1, codec.read(in).id);
+        }
+        bytes[0] = (byte) 0x82;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes))) {
+            codec.read(in);
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+        // leading zero groups do not count as value bits
+        final byte[] padded = new byte[10];
+        Arrays.fill(padded, (byte) 0x80);
+        padded[9] = 0x01;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(padded))) {
+            assertEquals(1, codec.read(in).id);
+        }
+    }
+
+    @Test
+    public void testValueOutOfRange() throws IOException {
+        final RecordCodec<Trade> codec = TRADE_SCHEMA.compile(Trade.class);
+        final Trade trade = new Trade();
+        try (BitOutputStream out = new BitOutputStream(new ByteArrayOutputStream())) {
+            trade.side = 2;
+            codec.write(out, trade);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try (BitOutputStream out = new BitOutputStream(new ByteArrayOutputStream())) {
+            trade.side = 0;
+            trade.quantity = -1;
+            codec.write(out, trade);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testInvalidClasses() {
+        try {
+            new RecordSchema(FieldSpec.unsigned("missing", 3)).compile(Trade.class);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            new RecordSchema(FieldSpec.unsigned("value", 3)).compile(Immutable.class);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            new RecordSchema(FieldSpec.unsigned("value", 3)).compile(NotInteger.class);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            new RecordSchema(FieldSpec.unsigned("id", 3), FieldSpec.varint("id"));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            FieldSpec.signed("id", 65);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+        assertTrue(FieldSpec.varint("id").isVarint());
+        assertFalse(FieldSpec.signed("id", 64).isVarint());
+    }
+
+    @Test
+    public void testUnsignedFullWidth() throws IOException {
+        final RecordCodec<Narrow> codec = new RecordSchema(FieldSpec.unsigned("i", 32), FieldSpec.unsigned("s", 16),
+                FieldSpec.unsigned("b", 8), FieldSpec.unsigned("c", 16), FieldSpec.unsigned("z", 1)).compile(
+                Narrow.class);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            out.writeBits(0xFFFFFFF0L, 32);
+            out.writeBits(0xFFFF, 16);
+            out.writeBits(0x80, 8);
+            out.writeBits(0xFFFE, 16);
+            out.writeBits(1, 1);
+            out.alignToByte();
+        }
+        final Narrow record;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            record = codec.read(in);
+        }
+        assertEquals(-16, record.i);
+        assertEquals(-1, record.s);
+        assertEquals(-128, record.b);
+        assertEquals('\uFFFE', record.c);
+        assertTrue(record.z);
+        // the values are zero-extended, so that they are written back unchanged
+        final ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(rewritten)) {
+            codec.write(out, record);
+            out.alignToByte();
+        }
+        assertArrayEquals(bytes.toByteArray(), rewritten.toByteArray());
+    }
+
+    @Test
+    public void testFieldsTooNarrow() {
+        final FieldSpec[] invalidSpecs = {FieldSpec.unsigned("i", 40), FieldSpec.signed("i", 33),
+                FieldSpec.unsigned("s", 17), FieldSpec.signed("b", 9), FieldSpec.unsigned("c", 17),
+                FieldSpec.signed("c", 16), FieldSpec.unsigned("z", 2), FieldSpec.signed("z", 1), FieldSpec.varint("i"),
+                FieldSpec.signedVarint("b")};
+        for (final FieldSpec spec : invalidSpecs) {
+            try {
+                new RecordSchema(spec).compile(Narrow.class);
+                fail(spec + " should not be accepted");
+            } catch (final IllegalArgumentException e) {
+                // OK
+            }
+        }
+    }
+
+    /**
+     * Compiles and loads a record class at runtime, since this project is compiled for Java 8.
+     * This test only runs on Java 16 and later.
+     */
+    @Test
+    public void testRecordClass() throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue("record classes require Java 16", isRecordSupported() && compiler != null);
+        final Path dir = Files.createTempDirectory("record-codec");
+        try {
+            final Path source = dir.resolve("Point.java");
+            Files.write(source, "public record Point(long id, int x, short y, boolean visible) {}"
+                    .getBytes(StandardCharsets.UTF_8));
+            assertEquals(0, compiler.run(null, null, null, "-d", dir.toString(), source.toString()));
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()})) {
+                checkRecordClass(loader.loadClass("Point"));
+            }
+        } finally {
+            Files.deleteIfExists(dir.resolve("Point.class"));
+            Files.deleteIfExists(dir.resolve("Point.java"));
+            Files.delete(dir);
+        }
+    }
+
+    private static boolean isRecordSupported() {
+        try {
+            Class.class.getMethod("getRecordComponents");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static <T> void checkRecordClass(Class<T> pointClass) throws Exception {
+        // the schema order differs from the order of the components
+        final RecordCodec<T> codec = new RecordSchema(FieldSpec.signed("y", 16), FieldSpec.varint("id"),
+                FieldSpec.unsigned("visible", 1), FieldSpec.unsigned("x", 32)).compile(pointClass);
+        final Constructor<T> constructor = pointClass.getConstructor(long.class, int.class, short.class,
+                boolean.class);
+        final T point = constructor.newInstance(123456789L, -2, (short) -300, true);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            codec.write(out, point);
+            out.alignToByte();
+        }
+        final T read;
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = codec.read(in);
+        }
+        assertEquals(point, read);
+        assertEquals(-2, pointClass.getMethod("x").invoke(read));
+        try (BitInputStream in = new BitInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            codec.read(in, read);
+            fail("a record class is immutable");
+        } catch (final UnsupportedOperationException e) {
+            // OK
+        }
+        try {
+            new RecordSchema(FieldSpec.varint("id"), FieldSpec.unsigned("x", 32)).compile(pointClass);
+            fail("every component must be a field of the schema");
+        } catch (final IllegalArgumentException e) {
+            // OK
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.hildan.utils.io.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestSegmentedBitWriter {
+
+    /**
+     * Random groups of bits, as pairs of value and length.
+     */
+    private static List<long[]> randomBits(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<long[]> bits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            bits.add(new long[] {random.nextLong(), random.nextInt(Long.SIZE + 1)});
+        }
+        return bits;
+    }
+
+    private static byte[] writeSequentially(List<long[]> bits) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            for (final long[] b : bits) {
+                out.writeBits(b[0], (int) b[1]);
+            }
+            out.alignToByte();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BitSegment segment(List<long[]> bits) {
+        final BitSegment segment = new BitSegment(1);
+        for (final long[] b : bits) {
+            segment.writeBits(b[0], (int) b[1]);
+        }
+        return segment;
+    }
+
+    @Test
+    public void testSegment() throws IOException {
+        final List<long[]> bits = randomBits(1000, 1);
+        final BitSegment segment = segment(bits);
+        long length = 0;
+        for (final long[] b : bits) {
+            length += b[1];
+        }
+        assertEquals(length, segment.getBitLength());
+        final byte[] expected = writeSequentially(bits);
+        assertArrayEquals(expected, segment.toByteArray());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BitOutputStream out = new BitOutputStream(bytes)) {
+            segment.writeTo(out);
+            out.alignToByte();
+        }
+        assertArrayEquals(expected, bytes.toByteArray());
+        segment.clear();
+        assertEquals(0, segment.getBitLength());
+        segment.writeBit(1);
+        assertArrayEquals(new byte[] {(byte) 0x80}, segment.toByteArray());
+    }
+
+    @Test
+    public void testAppendSegments() {
+        final List<long[]> bits = randomBits(3000, 2);
+        final BitSegment all = new BitSegment();
+        final Random random = new Random(3);
+        int i = 0;
+        while (i < bits.size()) {
+            final int n = Math.min(bits.size() - i, random.nextInt(50));
+            all.append(segment(bits.subList(i, i + n)));
+            i += n;
+        }
+        final long[] longs = random.longs(10).toArray();
+        all.writeLongs(longs, 2, 5);
+        final BitSegment expected = segment(bits);
+        for (int j = 2; j < 7; j++) {
+            expected.writeLong(longs[j]);
+        }
+        assertArrayEquals(expected.toByteArray(), all.toByteArray());
+        all.append(all);
+        final BitSegment twice = segment(bits);
+        twice.writeLongs(longs, 2, 5);
+        twice.append(expected);
+        assertArrayEquals(twice.toByteArray(), all.toByteArray());
+        assertEquals(2 * expected.getBitLength(), all.getBitLength());
+    }
+
+    @Test
+    public void testConcatenation() throws IOException {
+        final List<long[]> bits = randomBits(20000, 4);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Random random = new Random(5);
+        try (SegmentedBitWriter writer = new SegmentedBitWriter(bytes)) {
+            int i = 0;
+            while (i < bits.size()) {
+                final int n = Math.min(bits.size() - i, random.nextInt(200));
+                writer.write(segment(bits.subList(i, i + n)));
+                if (random.nextInt(10) == 0) {
+                    writer.flush();
+                }
+                i += n;
+            }
+        }
+        assertArrayEquals(writeSequentially(bits), bytes.toByteArray());
+    }
+
+    @Test
+    public void testParallelEncoding() throws IOException {
+        final List<long[]> bits = randomBits(100000, 6);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final long bitLength;
+        try (SegmentedBitWriter writer = new SegmentedBitWriter(Channels.newChannel(bytes))) {
+            writer.encode(bits, (b, segment) -> segment.writeBits(b[0], (int) b[1]));
+            bitLength = writer.getBitPosition();
+        }
+        final byte[] expected = writeSequentially(bits);
+        assertEquals(expected.length, (bitLength + 7) / 8);
+        assertArrayEquals(expected, bytes.toByteArray());
+    }
+
+    @Test
+    public void testClosed() throws IOException {
+        final SegmentedBitWriter writer = new SegmentedBitWriter(new ByteArrayOutputStream());
+        writer.close();
+        writer.close();
+        try {
+            writer.write(new BitSegment());
+            fail();
+        } catch (final IOException e) {
+            // OK
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.hildan.utils.io.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class TestExtractor {
+
+    private static final RowSpec CELL = new RowSpec(FieldRule.between("<td>", "</td>"));
+
+    private static final RowSpec NAME_AGE = new RowSpec(FieldRule.between("<name>", "</name>"),
+            FieldRule.after("age="));
+
+    /**
+     * An endless source of lines {@code <td>0</td>}, {@code <td>1</td>}...
+     */
+    private static class EndlessReader extends Reader {
+
+        private int lines;
+
+        private String pending = "";
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pending.isEmpty()) {
+                pending = "<td>" + lines++ + "</td>\n";
+            }
+            final int n = Math.min(len, pending.length());
+            pending.getChars(0, n, cbuf, off);
+            pending = pending.substring(n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<String> values(Stream<Row> rows) {
+        return rows.map(row -> row.get(0)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRows() throws IOException {
+        final String source = "<tr><name>Bob</name>\nage=42\n<name>Alice</name> age=37\n";
+        try (Stream<Row> rows = new Extractor(new StringReader(source)).rows(NAME_AGE)) {
+            final List<Row> list = rows.collect(Collectors.toList());
+            assertEquals(2, list.size());
+            assertEquals("Bob", list.get(0).get(0));
+            assertEquals("42", list.get(0).get(1));
+            assertEquals("Alice", list.get(1).get(0));
+            assertEquals("37", list.get(1).get(1));
+        }
+    }
+
+    @Test
+    public void testMissingSuffixSkipsLine() throws IOException {
+        final String source = "<td>a</td>\n<td>b\n<td>c</td>\n";
+        try (Stream<Row> rows = new Extractor(new StringReader(source)).rows(CELL)) {
+            final List<String> expected = new ArrayList<>();
+            expected.add("a");
+            expected.add("c");
+            assertEquals(expected, values(rows));
+        }
+        final Extractor extractor = new Extractor(new StringReader("<td>b\n<td>c</td>\n"));
+        assertNull(extractor.extractNextBetween("<td>", "</td>", false));
+        assertEquals("c", extractor.extractNextBetween("<td>", "</td>"));
+        extractor.close();
+    }
+
+    @Test
+    public void testIncompleteRowEndsIteration() throws IOException {
+        final String source = "<name>Bob</name> age=42\n<name>Carl</name>\n<name>Alice\n";
+        final Iterator<Row> rows = new Extractor(new StringReader(source)).rowIterator(NAME_AGE);
+        assertTrue(rows.hasNext());
+        final Row row = rows.next();
+        assertEquals("Bob", row.get(0));
+        assertEquals("42", row.get(1));
+        // Carl has no age, so the row is incomplete
+        assertFalse(rows.hasNext());
+        assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void testEmptySource() throws IOException {
+        final Extractor extractor = new Extractor(new StringReader(""));
+        assertFalse(extractor.rowIterator(CELL).hasNext());
+        assertTrue(extractor.isEofReached());
+        extractor.close();
+    }
+
+    @Test
+    public void testShortCircuit() throws IOException {
+        try (Stream<Row> rows = new Extractor(new EndlessReader()).rows(CELL)) {
+            final List<String> expected = new ArrayList<>();
+            expected.add("0");
+            expected.add("1");
+            expected.add("2");
+            assertEquals(expected, values(rows.limit(3)));
+        }
+        try (Stream<Row> rows = new Extractor(new EndlessReader()).rows(CELL)) {
+            final Optional<Row> first = rows.filter(row -> row.get(0).endsWith("7")).findFirst();
+            assertEquals("7", first.get().get(0));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.hildan.utils.io.extractor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class TestExtractorStats {
+
+    private static final FieldRule CELL = FieldRule.between("<td>", "</td>");
+
+    @Test
+    public void testCounters() throws IOException {
+        final ExtractorStats stats = new ExtractorStats();
+        try (Extractor extractor = new Extractor(new StringReader("<td>a</td>\nxx\n<td>bc</td>\n"))) {
+            // the listener is set after the creation, but before the first line is read
+            extractor.setListener(stats);
+            assertEquals("a", extractor.extractNextBetween("<td>", "</td>"));
+            assertEquals("bc", extractor.extractNextBetween("<td>", "</td>"));
+            assertEquals(null, extractor.extractNextBetween("<td>", "</td>"));
+        }
+        final ExtractorStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(3, snapshot.getLinesRead());
+        assertEquals(23, snapshot.getCharsRead());
+        // "<td>a</td>", then "</td>", "xx" and "<td>bc</td>", then "</td>"
+        assertEquals(10 + 5 + 2 + 11 + 5, snapshot.getCharsScanned());
+        assertEquals(2, snapshot.getMatches());
+        assertEquals(0, snapshot.getMisses());
+        assertEquals(1, snapshot.getEofSearches());
+        assertEquals(1, snapshot.getPerRule().size());
+        final ExtractorStats.Snapshot rule = snapshot.getPerRule().get(CELL);
+        assertEquals(2, rule.getMatches());
+        assertEquals(3, rule.getLinesRead());
+        stats.reset();
+        assertEquals(0, stats.snapshot().getLinesRead());
+    }
+
+    @Test
+    public void testMisses() throws IOException {
+        final ExtractorStats stats = new ExtractorStats();
+        try (Extractor extractor = new Extractor(new StringReader("abc\n<td>d\n"))) {
+            extractor.setListener(stats);
+            assertEquals(null, extractor.extractNextBetween("<td>", "</td>", false));
+            assertEquals(null, extractor.extractNextAfter("x", false));
+        }
+        final ExtractorStats.Snapshot snapshot = stats.snapshot();
+        assertEquals(1, snapshot.getLinesRead());
+        assertEquals(2, snapshot.getMisses());
+        assertEquals(3, snapshot.getCharsScanned());
+    }
+}
@@ -0,0 +1,146 @@
+package org.hildan.utils.io.extractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelExtractor {
+
+    private static final RowSpec ROW_SPEC = new RowSpec(FieldRule.between("<td>", "</td>"),
+            FieldRule.between("<td>", "</td>"));
+
+    private Path file;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("parallel-extractor", ".html");
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Generates rows of 2 cells with random padding, the cells of a row being sometimes on
+     * separate lines when the records are delimited by {@code </tr>}.
+     */
+    private static String generate(Random random, int rows, boolean multiLineRecords) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append("<tr>");
+            for (int p = random.nextInt(30); p > 0; p--) {
+                sb.append(' ');
+            }
+            sb.append("<td>").append(i).append("</td>");
+            if (multiLineRecords && random.nextBoolean()) {
+                sb.append('\n');
+            }
+            sb.append("<td>cell ").append(random.nextInt()).append("</td></tr>\n");
+        }
+        return sb.toString();
+    }
+
+    private static List<String[]> sequentialRows(String content) throws IOException {
+        final List<String[]> rows = new ArrayList<>();
+        try (Extractor extractor = new Extractor(new StringReader(content))) {
+            String[] row;
+            while ((row = ROW_SPEC.extractValues(extractor)) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void checkSameAsSequential(String content, String delimiter, int chunkSize) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        final List<String[]> expected = sequentialRows(content);
+        final ParallelExtractor extractor = new ParallelExtractor(file, StandardCharsets.UTF_8, delimiter, ROW_SPEC,
+                pool, chunkSize);
+        final List<String[]> actual = new ArrayList<>();
+        extractor.forEachRow(actual::add);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            // document order is kept
+            assertEquals(String.valueOf(i), actual.get(i)[0]);
+            assertArrayEquals("row " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void testLineDelimiter() throws IOException {
+        final Random random = new Random(1);
+        final String content = generate(random, 2000, false);
+        for (final int chunkSize : new int[] {1, 17, 100, 4096, 1 << 20}) {
+            checkSameAsSequential(content, "\n", chunkSize);
+        }
+    }
+
+    @Test
+    public void testRowDelimiter() throws IOException {
+        final Random random = new Random(2);
+        final String content = generate(random, 2000, true);
+        for (final int chunkSize : new int[] {1, 23, 100, 4096, 1 << 20}) {
+            checkSameAsSequential(content, "</tr>", chunkSize);
+        }
+    }
+
+    @Test
+    public void testEarlyClose() throws IOException {
+        final String content = generate(new Random(3), 5000, false);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        final ParallelExtractor extractor = new ParallelExtractor(file, StandardCharsets.UTF_8, "\n", ROW_SPEC, pool,
+                64);
+        try (Stream<String[]> rows = extractor.rows()) {
+            assertEquals("9", rows.skip(9).findFirst().get()[0]);
+        }
+        final ExtractorStats stats = new ExtractorStats();
+        extractor.setListener(stats);
+        extractor.forEachRow(row -> {
+        });
+        // every line of every chunk is counted
+        assertEquals(5000, stats.snapshot().getLinesRead());
+        assertTrue(stats.snapshot().getMatches() >= 10000);
+    }
+
+    @Test
+    public void testAsciiCompatibleCharsets() {
+        for (final String name : new String[] {"UTF-8", "US-ASCII", "ISO-8859-1", "windows-1252"}) {
+            new ParallelExtractor(file, Charset.forName(name), "\n", ROW_SPEC, pool, 64);
+        }
+        // EBCDIC encodes '\n' as a single byte other than 0x0A, and Shift_JIS uses ASCII bytes in
+        // the encoding of other chars
+        for (final String name : new String[] {"UTF-16", "UTF-16LE", "UTF-32", "IBM037", "IBM1047", "Shift_JIS"}) {
+            if (!Charset.isSupported(name)) {
+                continue;
+            }
+            try {
+                new ParallelExtractor(file, Charset.forName(name), "\n", ROW_SPEC, pool, 64);
+                fail(name + " should be rejected");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
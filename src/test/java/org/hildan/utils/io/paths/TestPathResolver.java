@@ -0,0 +1,118 @@
+package org.hildan.utils.io.paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestPathResolver {
+
+    private static final String BASE = "/a/b/c";
+
+    private static void checkRelativize(PathResolver resolver, String absolutePath) {
+        final Path abs = java.nio.file.Paths.get(absolutePath);
+        assertEquals(absolutePath, resolver.getBaseDir().relativize(abs).toString(),
+                resolver.relativize(absolutePath));
+    }
+
+    private static void checkResolve(PathResolver resolver, String relativePath) {
+        assertEquals(relativePath, resolver.getBaseDir().resolve(relativePath).toString(),
+                resolver.resolve(relativePath));
+    }
+
+    @Test
+    public void testRelativize() {
+        final PathResolver resolver = new PathResolver(BASE);
+        for (final String path : new String[] {"/a/b/c/d/e.txt", "/a/b/c/d/f.txt", "/a/b/c/e.txt", "/a/b/x/y.txt",
+                "/a/x.txt", "/z/y/x.txt", "/a/b/c//d/e.txt"}) {
+            // twice, to use the cached parent
+            checkRelativize(resolver, path);
+            checkRelativize(resolver, path);
+        }
+    }
+
+    @Test
+    public void testRelativizeAncestors() {
+        final PathResolver resolver = new PathResolver(BASE);
+        // the parents of these paths relativize to ".." names only, the paths are fully parsed
+        for (final String path : new String[] {"/a/b/c", "/a/b", "/a", "/a/b/c/d", "/a/b/d"}) {
+            checkRelativize(resolver, path);
+            checkRelativize(resolver, path);
+        }
+    }
+
+    @Test
+    public void testRootParent() {
+        final PathResolver resolver = new PathResolver(BASE);
+        checkRelativize(resolver, "/x.txt");
+        checkRelativize(resolver, "/");
+        checkResolve(resolver, "/x.txt");
+        checkResolve(resolver, "/");
+        checkResolve(resolver, "/d/e.txt");
+    }
+
+    @Test
+    public void testDotNames() {
+        final PathResolver resolver = new PathResolver(BASE);
+        for (final String path : new String[] {"/a/b/c/d/.", "/a/b/c/d/..", "/a/b/c/./e.txt", "/a/b/c/../e.txt",
+                "/a/b/c/d/"}) {
+            checkRelativize(resolver, path);
+        }
+        for (final String path : new String[] {".", "..", "", "d/.", "d/..", "./e.txt", "../e.txt", "../../d/e.txt",
+                "d/", "d//e.txt"}) {
+            checkResolve(resolver, path);
+        }
+    }
+
+    @Test
+    public void testResolve() {
+        final PathResolver resolver = new PathResolver(BASE);
+        for (final String path : new String[] {"e.txt", "d/e.txt", "d/f.txt", "d/g/h.txt", "/z/y.txt"}) {
+            checkResolve(resolver, path);
+            checkResolve(resolver, path);
+        }
+    }
+
+    @Test
+    public void testCacheClearing() {
+        final PathResolver resolver = new PathResolver(java.nio.file.Paths.get(BASE), 2);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                checkRelativize(resolver, "/a/b/c/d" + i + "/e.txt");
+                checkRelativize(resolver, "/a/x" + i + "/e.txt");
+                checkResolve(resolver, "d" + i + "/e.txt");
+                checkResolve(resolver, "../x" + i + "/e.txt");
+            }
+        }
+    }
+
+    @Test
+    public void testBulkMethods() {
+        final PathResolver resolver = new PathResolver(BASE);
+        final List<String> absolutePaths = new ArrayList<>();
+        // enough paths to be processed in parallel
+        for (int i = 0; i < 20_000; i++) {
+            absolutePaths.add("/a/b/c/d" + i % 100 + "/f" + i + ".txt");
+        }
+        final List<String> relativePaths = resolver.relativizeAll(absolutePaths);
+        assertEquals(absolutePaths.size(), relativePaths.size());
+        for (int i = 0; i < absolutePaths.size(); i++) {
+            assertEquals("d" + i % 100 + "/f" + i + ".txt", relativePaths.get(i));
+        }
+        assertEquals(absolutePaths, resolver.resolveAll(relativePaths));
+    }
+
+    @Test
+    public void testInvalidCacheSize() {
+        try {
+            new PathResolver(java.nio.file.Paths.get(BASE), 0);
+            fail("a cache size of 0 should be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.hildan.utils.io.paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.Test;
+
+public class TestPaths {
+
+    private static void checkFix(String expected, String uri) throws URISyntaxException {
+        final String fixed = Paths.fix(uri);
+        assertEquals(expected, fixed);
+        // the result is a valid URI, and fixing it again does not change it
+        new URI(fixed);
+        assertSame(fixed, Paths.fix(fixed));
+    }
+
+    @Test
+    public void testCleanUriIsReturnedAsIs() {
+        final String uri = "/data/some_dir/Sub-Dir/file.name~1.txt?q=a&b=c;d@e!$'()*+,";
+        assertSame(uri, Paths.fix(uri));
+        assertSame("", Paths.fix(""));
+    }
+
+    @Test
+    public void testEscapedAsciiChars() throws URISyntaxException {
+        checkFix("/a%20b/c%22d%23e%3Cf%3Eg", "/a b/c\"d#e<f>g");
+        checkFix("/%5B%5D%5E%60%7B%7C%7D", "/[]^`{|}");
+        checkFix("/tab%09nul%00del%7F", "/tab\tnul\0del\u007F");
+        if (File.separatorChar == '/') {
+            checkFix("/back%5Cslash", "/back\\slash");
+        } else {
+            checkFix("/back/slash", "/back\\slash");
+        }
+    }
+
+    @Test
+    public void testPercentSign() throws URISyntaxException {
+        // valid escape sequences are kept
+        checkFix("/a%20b%2fc%C3%A9", "/a%20b%2fc%C3%A9");
+        // a '%' that does not start an escape sequence is escaped
+        checkFix("/100%25", "/100%");
+        checkFix("/%25zz/%25A/%25%25", "/%zz/%A/%%");
+        checkFix("/%25g1%254", "/%g1%4");
+    }
+
+    @Test
+    public void testNonAsciiChars() throws URISyntaxException {
+        checkFix("/caf%C3%A9", "/caf\u00E9");
+        checkFix("/%E2%82%AC", "/\u20AC");
+        checkFix("/%C2%A0%C3%BF%C4%80", "/\u00A0\u00FF\u0100");
+    }
+
+    @Test
+    public void testSurrogatePairs() throws URISyntaxException {
+        checkFix("/%F0%9F%98%80/a", "/\uD83D\uDE00/a");
+        checkFix("/%F0%9F%98%80%F0%9F%98%81%20", "/\uD83D\uDE00\uD83D\uDE01 ");
+        // unpaired surrogates are replaced by U+FFFD
+        checkFix("/%EF%BF%BDa", "/\uD83Da");
+        checkFix("/a%EF%BF%BD", "/a\uDE00");
+        checkFix("/%EF%BF%BD%EF%BF%BD", "/\uDE00\uD83D");
+    }
+
+    @Test
+    public void testWindowsPrefixes() throws URISyntaxException {
+        checkFix("/C:/dir/file", "C:/dir/file");
+        checkFix("/c:/my%20dir", "c:/my dir");
+        checkFix("file://server/share", "//server/share");
+        checkFix("file://server/my%20share", "//server/my share");
+        // not a drive letter
+        assertEquals("1:/dir", Paths.fix("1:/dir"));
+        if (File.separatorChar == '\\') {
+            checkFix("/C:/dir/file", "C:\\dir\\file");
+            checkFix("file://server/share", "\\\\server\\share");
+        }
+    }
+
+    @Test
+    public void testIdempotence() {
+        final String[] uris = { "/a b", "C:/a b", "//srv/a b", "/%zz%41", "/\u00E9\u20AC\uD83D\uDE00", "/\uD83D",
+                "/[x]{y}" };
+        for (final String uri : uris) {
+            final String fixed = Paths.fix(uri);
+            assertEquals(fixed, Paths.fix(fixed));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.hildan.utils.io.paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTreeWalker {
+
+    private static final BiPredicate<Path, BasicFileAttributes> ALL = (path, attrs) -> true;
+
+    private Path root;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Creates the following tree:
+     *
+     * <pre>
+     * a.txt
+     * b.log
+     * d1/c.txt
+     * d1/d.log
+     * d1/skip/e.txt
+     * d2/f.txt
+     * </pre>
+     */
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("tree-walker");
+        pool = new ForkJoinPool(4);
+        Files.createDirectories(root.resolve("d1/skip"));
+        Files.createDirectories(root.resolve("d2"));
+        for (final String file : Arrays.asList("a.txt", "b.log", "d1/c.txt", "d1/d.log", "d1/skip/e.txt", "d2/f.txt")) {
+            Files.createFile(root.resolve(file));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private Set<String> relativize(Collection<Path> paths) {
+        final Set<String> names = new HashSet<>();
+        for (final Path path : paths) {
+            assertTrue("duplicate path " + path, names.add(root.relativize(path).toString().replace('\\', '/')));
+        }
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * Creates the specified number of subdirectories of the root, each containing one file.
+     */
+    private void createDirectories(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            final Path dir = Files.createDirectory(root.resolve("many" + i));
+            Files.createFile(dir.resolve("file.txt"));
+        }
+    }
+
+    @Test
+    public void testListAll() throws IOException {
+        final TreeWalker walker = new TreeWalker(root, ALL, ALL, pool);
+        final Set<String> expected = set("a.txt", "b.log", "d1", "d1/c.txt", "d1/d.log", "d1/skip", "d1/skip/e.txt",
+                "d2", "d2/f.txt");
+        assertEquals(expected, relativize(walker.list()));
+        try (Stream<Path> paths = walker.stream()) {
+            assertEquals(expected, relativize(paths.collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        final TreeWalker walker = new TreeWalker(root, TreeWalker.glob("*.txt"), ALL, pool);
+        final Set<String> expected = set("a.txt", "d1/c.txt", "d1/skip/e.txt", "d2/f.txt");
+        assertEquals(expected, relativize(walker.list()));
+        try (Stream<Path> paths = walker.stream()) {
+            assertEquals(expected, relativize(paths.collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void testDirectoryFilter() throws IOException {
+        final Set<String> listedDirectories = new HashSet<>();
+        final BiPredicate<Path, BasicFileAttributes> notSkip = (path, attrs) -> {
+            assertTrue(attrs.isDirectory());
+            synchronized (listedDirectories) {
+                listedDirectories.add(root.relativize(path).toString().replace('\\', '/'));
+            }
+            return !path.getFileName().toString().equals("skip");
+        };
+        final TreeWalker walker = new TreeWalker(root, ALL, notSkip, pool);
+        // the skipped directory is still reported, but not its content
+        assertEquals(set("a.txt", "b.log", "d1", "d1/c.txt", "d1/d.log", "d1/skip", "d2", "d2/f.txt"),
+                relativize(walker.list()));
+        assertEquals(set("d1", "d1/skip", "d2"), listedDirectories);
+    }
+
+    @Test
+    public void testEarlyClose() throws IOException {
+        createDirectories(500);
+        final TreeWalker walker = new TreeWalker(root, ALL, ALL, pool);
+        try (Stream<Path> paths = walker.stream()) {
+            assertEquals(3, paths.limit(3).count());
+        }
+        // the tasks waiting for space in the queue stop when the stream is closed
+        assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSlowConsumerDoesNotStallPool() throws Exception {
+        createDirectories(500);
+        final ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+        try {
+            final TreeWalker walker = new TreeWalker(root, ALL, ALL, singleThreadPool);
+            try (Stream<Path> paths = walker.stream()) {
+                // nothing is consumed, the walk fills the queue and waits for space
+                final Future<String> other = singleThreadPool.submit(() -> "done");
+                assertEquals("done", other.get(10, TimeUnit.SECONDS));
+                assertEquals(1009, paths.count());
+            }
+            assertTrue(singleThreadPool.awaitQuiescence(10, TimeUnit.SECONDS));
+        } finally {
+            singleThreadPool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissingRoot() throws IOException {
+        final TreeWalker walker = new TreeWalker(root.resolve("missing"), ALL, ALL, pool);
+        try {
+            walker.list();
+            fail("the missing root should not be listed");
+        } catch (final NoSuchFileException e) {
+            // expected
+        }
+        try (Stream<Path> paths = walker.stream()) {
+            paths.count();
+            fail("the missing root should not be listed");
+        } catch (final UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof NoSuchFileException);
+        }
+    }
+
+    @Test
+    public void testUnlistableDirectory() throws IOException {
+        // the directory is removed after being accepted, so that it cannot be listed
+        final BiPredicate<Path, BasicFileAttributes> removeD2 = (path, attrs) -> {
+            if (path.getFileName().toString().equals("d2")) {
+                try {
+                    Files.delete(path.resolve("f.txt"));
+                    Files.delete(path);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        };
+        final TreeWalker walker = new TreeWalker(root, ALL, removeD2, pool);
+        try {
+            final List<Path> paths = walker.list();
+            fail("d2 should not be listed, but got " + paths);
+        } catch (final NoSuchFileException e) {
+            assertEquals(root.resolve("d2"), root.resolve(e.getFile()));
+        }
+    }
+}